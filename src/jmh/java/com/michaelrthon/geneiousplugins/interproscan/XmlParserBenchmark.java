@@ -0,0 +1,93 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+import com.biomatters.geneious.publicapi.plugin.TestGeneious;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput of parsing a single EBI result and building its annotations.
+ *
+ * The corpus in src/jmh/resources runs from a 3 match result up to one
+ * with 240 matches, with entries, GO terms and pathways. Run with
+ * {@code gradlew jmh}; the gc profiler reports the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmlParserBenchmark {
+
+    private final static Pattern SEQUENCE = Pattern.compile("<sequence[^>]*>([A-Z]+)</sequence>");
+
+    @Param({"tiny", "medium", "large"})
+    public String corpus;
+
+    @Param({InterproscanOptions.FEAT_SEPARATE, InterproscanOptions.FEAT_QUALIFIERS})
+    public String featType;
+
+    private byte[] xml;
+    private String xmlText;
+    private int seqLength;
+    private XmlParser parser;
+
+
+    @Setup
+    public void setUp() throws IOException {
+        TestGeneious.initialize();
+        try (InputStream in = XmlParserBenchmark.class.getResourceAsStream("corpus/" + corpus + ".xml")) {
+            if (in == null) {
+                throw new IOException("No corpus file " + corpus + ".xml");
+            }
+            xml = in.readAllBytes();
+        }
+        xmlText = new String(xml, StandardCharsets.UTF_8);
+        Matcher matcher = SEQUENCE.matcher(xmlText);
+        seqLength = matcher.find() ? matcher.group(1).length() : 1000;
+        parser = new XmlParser()
+                .setFeatType(featType)
+                .setMakeExtraFeats(true);
+    }
+
+
+    /**
+     * A parser per result, from the whole text, as the annotation
+     * generator did before results were streamed.
+     */
+    @Benchmark
+    public AnnotationGeneratorResult parseXml() {
+        return new XmlParser(xmlText)
+                .setFeatType(featType)
+                .setMakeExtraFeats(true)
+                .setSeqLength(seqLength)
+                .parseXml();
+    }
+
+
+    /**
+     * The shared parser reading the downloaded bytes, as Runner does.
+     */
+    @Benchmark
+    public AnnotationGeneratorResult parseStream() {
+        return parser.parse(new ByteArrayInputStream(xml), seqLength);
+    }
+}
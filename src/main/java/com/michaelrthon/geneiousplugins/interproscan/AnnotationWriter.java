@@ -0,0 +1,58 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.regex.Pattern;
+
+/**
+ * Writes the annotations of each protein to a file as they arrive, for
+ * the command line. Writers are not thread safe.
+ */
+interface AnnotationWriter {
+
+    // The output formats.
+    String FORMAT_GFF3 = "gff3";
+    String FORMAT_TSV = "tsv";
+
+    Pattern TAG = Pattern.compile("<[^>]*>");
+
+    /**
+     * Writes one protein's annotations, and flushes them.
+     *
+     * @param id        The protein's id.
+     * @param length    The length of its sequence.
+     * @param result    Its annotations.
+     *
+     * @throws IOException if they cannot be written.
+     */
+    void write(String id, int length, AnnotationGeneratorResult result) throws IOException;
+
+    /**
+     * @param format    An output format, one of the FORMAT_ values.
+     * @param out       Where to write. It is not closed.
+     *
+     * @return A writer for the format, having written its header.
+     *
+     * @throws IOException if the header cannot be written.
+     */
+    static AnnotationWriter forFormat(String format, Writer out) throws IOException {
+        if (FORMAT_TSV.equals(format)) {
+            return new TsvWriter(out);
+        }
+        if (FORMAT_GFF3.equals(format)) {
+            return new Gff3Writer(out);
+        }
+        throw new IllegalArgumentException("Unknown output format: " + format);
+    }
+
+    /**
+     * @param value A qualifier value, e.g. an InterPro entry's link.
+     *
+     * @return The value without HTML tags.
+     */
+    static String plainText(String value) {
+        return value.indexOf('<') < 0 ? value : TAG.matcher(value).replaceAll("");
+    }
+}
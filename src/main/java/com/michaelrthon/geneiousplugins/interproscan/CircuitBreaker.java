@@ -0,0 +1,146 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops new submissions while the service is failing, so that jobs are
+ * not started (and slots held) only to be lost.
+ *
+ * The outcomes of recent calls are kept in a sliding window. When at
+ * least half of them failed transiently, the breaker opens and refuses
+ * submissions for a while. Once that time is up, submissions are allowed
+ * again, and the next outcome decides: a success closes the breaker, a
+ * failure opens it again for twice as long.
+ *
+ * Status checks and downloads are never refused, since they are for
+ * jobs that are already running. Their outcomes are still recorded.
+ * All times are in milliseconds, and are passed in by the caller.
+ */
+final class CircuitBreaker {
+
+    private final static Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private final static int WINDOW = 20;
+    private final static int MIN_CALLS = 10;
+    private final static double FAILURE_THRESHOLD = 0.5;
+    private final static long OPEN_TIME = 30_000;
+    private final static long MAX_OPEN_TIME = 300_000;
+
+    private final boolean[] failures = new boolean[WINDOW];
+    private final long minOpenTime;
+    private final long maxOpenTime;
+    private int calls;
+    private int next;
+    private boolean open;
+    private long openUntil;
+    private long openTime;
+    private int trips;
+
+
+    CircuitBreaker() {
+        this(1.0);
+    }
+
+
+    /**
+     * @param timeScale The factor applied to the open time; 1 for real time.
+     */
+    CircuitBreaker(double timeScale) {
+        minOpenTime = Math.max(1, Math.round(timeScale * OPEN_TIME));
+        maxOpenTime = Math.max(minOpenTime, Math.round(timeScale * MAX_OPEN_TIME));
+        openTime = minOpenTime;
+    }
+
+
+    /**
+     * @param now   The current time.
+     *
+     * @return true if a new job may be submitted.
+     */
+    synchronized boolean allowsSubmission(long now) {
+        return !open || now >= openUntil;
+    }
+
+
+    /**
+     * @return The time from which submissions are allowed again, or 0 if they are now.
+     */
+    synchronized long reopensAt() {
+        return open ? openUntil : 0;
+    }
+
+
+    /**
+     * Records a call that succeeded.
+     *
+     * @param now   The time it completed.
+     */
+    synchronized void success(long now) {
+        if (open) {
+            if (now >= openUntil) {
+                logger.log(Level.INFO, "Service recovered; resuming submissions.");
+                open = false;
+                openTime = minOpenTime;
+                clear();
+            }
+            return;
+        }
+        record(false);
+    }
+
+
+    /**
+     * Records a call that failed transiently.
+     *
+     * @param now   The time it failed.
+     */
+    synchronized void failure(long now) {
+        if (open) {
+            if (now >= openUntil) {
+                // The first call after a pause failed too: pause for longer.
+                openTime = Math.min(maxOpenTime, openTime * 2);
+                trip(now);
+            }
+            return;
+        }
+        record(true);
+        int failed = 0;
+        for (int i = 0; i < Math.min(calls, WINDOW); i++) {
+            failed += failures[i] ? 1 : 0;
+        }
+        if (calls >= MIN_CALLS && failed >= FAILURE_THRESHOLD * Math.min(calls, WINDOW)) {
+            trip(now);
+        }
+    }
+
+
+    /**
+     * @return The number of times the breaker has opened.
+     */
+    synchronized int getTrips() {
+        return trips;
+    }
+
+
+    private void trip(long now) {
+        open = true;
+        openUntil = now + openTime;
+        trips++;
+        clear();
+        logger.log(Level.WARNING, "Service is failing; pausing submissions for " + openTime / 1000 + " s.");
+    }
+
+
+    private void record(boolean failed) {
+        failures[next] = failed;
+        next = (next + 1) % WINDOW;
+        calls++;
+    }
+
+
+    private void clear() {
+        calls = 0;
+        next = 0;
+    }
+}
@@ -0,0 +1,202 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sets the capacity of a {@link SlotPool} from how EBI is coping, rather
+ * than fixing it, using additive increase and multiplicative decrease.
+ *
+ * The Runners report the outcome and latency of each submission and
+ * status check. Every {@value #WINDOW} calls, the limiter decides: if too
+ * many failed transiently, the limit is halved; if they were much slower
+ * than usual, it is cut by a quarter; otherwise, if every slot was in use,
+ * it is raised by one, up to the ceiling EBI's terms of use allow, or the
+ * lower one asked for by an open lease of the pool. A burst
+ * of failures is acted on without waiting for the window to fill, unless
+ * the limit was just cut: calls already in flight then were made under
+ * the old limit, so the next cut waits for a full window.
+ *
+ * The limit reported is the one in force: the limiter's own, lowered to
+ * the lease ceiling while a lease asks for one. Each Runner's ceiling
+ * lasts only as long as its lease, so it is lifted when the Runner ends.
+ *
+ * Usual latency is the lowest mean seen over a window, drifting slowly
+ * towards the latest, so that a lasting change stops counting as stress.
+ * Jobs already holding slots when the limit is cut keep them; the pool
+ * simply refuses new ones until enough have finished.
+ */
+final class ConcurrencyLimiter {
+
+    private final static Logger logger = Logger.getLogger(ConcurrencyLimiter.class.getName());
+
+    /**
+     * EBI asks for no more than 30 jobs at once.
+     */
+    final static int DEFAULT_CEILING = 30;
+
+    private final static int MINIMUM = 1;
+    private final static int WINDOW = 20;
+    private final static double ERROR_THRESHOLD = 0.1;
+    private final static double ERROR_DECREASE = 0.5;
+    private final static double LATENCY_TOLERANCE = 2.0;
+    // Slowdowns smaller than this are noise, however small the usual latency.
+    private final static long LATENCY_SLACK = 500;
+    private final static double LATENCY_DECREASE = 0.75;
+    private final static double BASELINE_DRIFT = 0.1;
+
+    private final static ConcurrencyLimiter SHARED = new ConcurrencyLimiter(SlotPool.getShared(), DEFAULT_CEILING);
+
+    private final SlotPool pool;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private int limit;
+    private final int ceiling;
+    private int calls, errors, timed;
+    private long latencySum;
+    private boolean saturated, justCut;
+    private double baseline = -1;
+
+
+    /**
+     * @param pool      The pool to size, which starts at its current capacity.
+     * @param ceiling   The most slots it may be given, whatever the leases ask for.
+     */
+    ConcurrencyLimiter(SlotPool pool, int ceiling) {
+        this.pool = pool;
+        this.ceiling = ceiling;
+        limit = Math.min(pool.getCapacity(), ceiling);
+        pool.setCapacity(limit);
+    }
+
+
+    /**
+     * @return The limiter of the pool shared by every Runner in the JVM.
+     */
+    static ConcurrencyLimiter getShared() {
+        return SHARED;
+    }
+
+
+    /**
+     * @return The pool this limiter sizes.
+     */
+    SlotPool getPool() {
+        return pool;
+    }
+
+
+    /**
+     * @return The limit in force, at most the lowest lease ceiling.
+     */
+    synchronized int getLimit() {
+        return Math.min(limit, pool.getCeiling());
+    }
+
+
+    /**
+     * @param listener  Told of every change to the limit, on the thread
+     *                  that reported the call that caused it.
+     */
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+
+    /**
+     * Records a call to EBI that succeeded.
+     *
+     * @param latencyMillis How long it took.
+     */
+    synchronized void success(long latencyMillis) {
+        record();
+        timed++;
+        latencySum += latencyMillis;
+        if (calls >= WINDOW) {
+            decide();
+        }
+    }
+
+
+    /**
+     * Records a call to EBI that failed transiently.
+     */
+    synchronized void failure() {
+        record();
+        errors++;
+        if (calls >= WINDOW || (!justCut && errors >= ERROR_THRESHOLD * WINDOW)) {
+            decide();
+        }
+    }
+
+
+    private void record() {
+        calls++;
+        if (pool.getLeased() >= getLimit()) {
+            saturated = true;
+        }
+    }
+
+
+    private void decide() {
+        long mean = timed > 0 ? latencySum / timed : -1;
+        // Cuts are made from the limit in force, which a lease may have lowered.
+        int previous = getLimit();
+        if (errors >= ERROR_THRESHOLD * calls) {
+            change(Math.max(MINIMUM, (int) (previous * ERROR_DECREASE)), errors + " of " + calls + " calls failed");
+        } else if (mean >= 0 && baseline >= 0 && mean > LATENCY_TOLERANCE * baseline && mean - baseline > LATENCY_SLACK) {
+            change(Math.max(MINIMUM, (int) (previous * LATENCY_DECREASE)),
+                    "calls took " + mean + " ms on average, against a usual " + Math.round(baseline) + " ms");
+        } else if (saturated && limit < Math.min(ceiling, pool.getCeiling())) {
+            change(limit + 1, "every slot was in use and EBI kept up");
+        }
+
+        if (mean >= 0) {
+            baseline = baseline < 0 || mean < baseline ? mean : baseline + BASELINE_DRIFT * (mean - baseline);
+        }
+        justCut = getLimit() < previous;
+        calls = errors = timed = 0;
+        latencySum = 0;
+        saturated = false;
+    }
+
+
+    /**
+     * Sets the limiter's own limit, telling the listeners if the limit in
+     * force changed.
+     */
+    private void change(int next, String reason) {
+        int previous = getLimit();
+        limit = next;
+        pool.setCapacity(next);
+        int current = getLimit();
+        if (current == previous) {
+            return;
+        }
+        logger.log(current < previous ? Level.WARNING : Level.INFO,
+                (current < previous ? "Lowering" : "Raising") + " the limit on EBI jobs from " + previous + " to " + current
+                        + ": " + reason + ".");
+        for (Listener listener : listeners) {
+            listener.limitChanged(previous, current, reason);
+        }
+    }
+
+
+    /**
+     * Told of changes to the limit.
+     */
+    interface Listener {
+        /**
+         * @param from      The old limit.
+         * @param to        The new limit.
+         * @param reason    Why it changed.
+         */
+        void limitChanged(int from, int to, String reason);
+    }
+}
@@ -0,0 +1,138 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import com.biomatters.geneious.publicapi.documents.PluginDocument;
+import com.biomatters.geneious.publicapi.documents.sequence.AminoAcidSequenceDocument;
+import com.biomatters.geneious.publicapi.documents.sequence.EditableSequenceDocument;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.SelectionRange;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Protein sequence documents selected in Geneious, or the residues
+ * selected in one of them.
+ */
+final class DocumentBatch implements ProteinBatch {
+
+    private final static Logger logger = Logger.getLogger(DocumentBatch.class.getName());
+
+    private final AnnotatedPluginDocument[] documents;
+    // The selected residues, 0-based and inclusive; from is -1 if there are none.
+    private final int from, to;
+
+
+    /**
+     * @param documents The documents, each holding an amino acid sequence.
+     */
+    DocumentBatch(AnnotatedPluginDocument[] documents) {
+        this(documents, null);
+    }
+
+
+    /**
+     * @param documents The documents, each holding an amino acid sequence.
+     * @param selection The residues selected in the sequence viewer, or
+     *                  null. It is only used for a single document, as a
+     *                  selection is in the one sequence being viewed.
+     */
+    DocumentBatch(AnnotatedPluginDocument[] documents, SelectionRange selection) {
+        this(documents,
+                selection != null ? selection.getFromResidue() : -1,
+                selection != null ? selection.getToResidue() : -1);
+    }
+
+
+    /**
+     * @param documents The documents, each holding an amino acid sequence.
+     * @param from      The first selected residue, 0-based, or -1 if none
+     *                  are selected.
+     * @param to        The last selected residue, 0-based and inclusive.
+     *                  It comes before from if the residues were selected
+     *                  from right to left.
+     */
+    DocumentBatch(AnnotatedPluginDocument[] documents, int from, int to) {
+        this.documents = documents;
+        if (from >= 0 && documents.length > 1) {
+            logger.log(Level.WARNING, "Ignoring the selected residues, as " + documents.length
+                    + " documents are selected; the whole of each sequence will be scanned.");
+            from = -1;
+        }
+        if (from >= 0) {
+            this.from = Math.min(from, to);
+            this.to = Math.max(from, to);
+        } else {
+            this.from = this.to = -1;
+        }
+    }
+
+
+    @Override
+    public int size() {
+        return documents.length;
+    }
+
+
+    @Override
+    public String getName(int index) {
+        return documents[index].getName();
+    }
+
+
+    @Override
+    public String getSequence(int index) throws DocumentOperationException {
+        String sequence = ((AminoAcidSequenceDocument) documents[index].getDocument()).getSequenceString();
+        if (from < 0) {
+            return sequence;
+        }
+        return selectedResidues(sequence, from, to);
+    }
+
+
+    /**
+     * @param sequence  The whole sequence.
+     * @param from      The first selected residue, 0-based.
+     * @param to        The last selected residue, 0-based and inclusive.
+     *
+     * @return The selected residues, cut short at the end of the sequence.
+     */
+    static String selectedResidues(String sequence, int from, int to) {
+        return sequence.substring(Math.min(from, sequence.length()), Math.min(to + 1, sequence.length()));
+    }
+
+
+    @Override
+    public int getOffset(int index) {
+        return Math.max(0, from);
+    }
+
+
+    @Override
+    public String getUrn(int index) {
+        return documents[index].getURN().toString();
+    }
+
+
+    /**
+     * Adds the annotations to the document and saves it, so that neither
+     * has to be kept until the end of the run.
+     */
+    @Override
+    public void apply(int index, AnnotationGeneratorResult result) throws DocumentOperationException {
+        AnnotatedPluginDocument document = documents[index];
+        PluginDocument pluginDocument = document.getDocument();
+        if (!(pluginDocument instanceof EditableSequenceDocument)) {
+            throw new DocumentOperationException(document.getName() + " cannot be edited");
+        }
+        EditableSequenceDocument sequence = (EditableSequenceDocument) pluginDocument;
+        List<SequenceAnnotation> annotations = new ArrayList<>(sequence.getSequenceAnnotations());
+        annotations.addAll(result.getAnnotationsToAdd());
+        sequence.setAnnotations(annotations);
+        document.saveDocument();
+    }
+}
@@ -0,0 +1,98 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs jobs with the EBI InterProScan 5 REST API, or anything serving
+ * the same endpoints (a regional mirror, a caching proxy, a local fake).
+ */
+class EbiRestBackend implements ScanBackend {
+
+    static final String DEFAULT_BASE_URL = "https://www.ebi.ac.uk/Tools/services/rest/interproscan";
+
+    private final String baseUrl;
+    private final HttpClientProvider http;
+
+
+    /**
+     * @param baseUrl   The service root, under which run/, status/ and result/ live.
+     * @param http      The transport to use.
+     */
+    EbiRestBackend(String baseUrl, HttpClientProvider http) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.http = http;
+    }
+
+
+    @Override
+    public String submit(String sequence, String email, List<String> appl, boolean goterms, boolean pathways)
+            throws IOException, InterruptedException {
+        StringBuilder params = new StringBuilder()
+                .append("sequence=").append(URLEncoder.encode(sequence, StandardCharsets.UTF_8))
+                .append("&email=").append(URLEncoder.encode(email, StandardCharsets.UTF_8))
+                .append("&goterms=").append(goterms ? "on" : "off")
+                .append("&pathways=").append(pathways ? "on" : "off");
+        // Without appl, EBI searches every member database.
+        for (String application : appl) {
+            params.append("&appl=").append(URLEncoder.encode(application, StandardCharsets.UTF_8));
+        }
+
+        HttpRequest request = http.newRequest(URI.create(baseUrl + "/run/"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(params.toString()))
+                .build();
+        HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new ServiceResponseException(response.statusCode(),
+                    "Unexpected response " + response.statusCode() + ": " + response.body().trim());
+        }
+        return response.body().trim();
+    }
+
+
+    @Override
+    public CompletableFuture<String> status(String jobid) {
+        HttpRequest request = http.newRequest(URI.create(baseUrl + "/status/" + jobid))
+                .GET()
+                .build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    // EBI answers 200 for every status, including NOT_FOUND.
+                    if (response.statusCode() != 200) {
+                        throw new CompletionException(new ServiceResponseException(response.statusCode(),
+                                "Unexpected response " + response.statusCode() + " for the status of " + jobid));
+                    }
+                    return response.body().trim();
+                });
+    }
+
+
+    /**
+     * Asks for the result to be gzipped in transit, and unwraps it.
+     */
+    @Override
+    public InputStream result(String jobid, String format) throws IOException, InterruptedException {
+        URI uri = URI.create(baseUrl + "/result/" + jobid + "/" + format);
+        HttpRequest request = http.newRequest(uri)
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = http.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 200) {
+            response.body().close();
+            throw new ServiceResponseException(response.statusCode(),
+                    "Unexpected response " + response.statusCode() + " for " + uri);
+        }
+        return new BufferedInputStream(HttpClientProvider.decodedBody(response));
+    }
+}
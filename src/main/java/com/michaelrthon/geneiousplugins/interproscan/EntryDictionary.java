@@ -0,0 +1,166 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shared, canonical copies of the InterPro entries, member database
+ * signatures and GO term and pathway cross references seen in results.
+ *
+ * The same few thousand entries and signatures turn up in the results of
+ * every protein in a proteome. Annotations built from the values here
+ * share a single copy of each name, database and link, however many
+ * matches refer to them. A dictionary is safe to use from several threads
+ * at once, and is meant to live as long as the parser of one run.
+ */
+final class EntryDictionary {
+
+    private final static String ENTRY_URL = "http://www.ebi.ac.uk/interpro/entry/";
+
+    /**
+     * Stands in for the entry of a signature that has not yet been
+     * integrated into InterPro.
+     */
+    final Entry unintegrated = new Entry("", "Unintegrated", "Unintegrated",
+            Collections.emptyList(), Collections.emptyList());
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Signature> signatures = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Xref> xrefs = new ConcurrentHashMap<>();
+
+    /**
+     * @param ac        The entry's accession, e.g. IPR017896.
+     * @param name      Its short name.
+     * @param type      Its type, e.g. DOMAIN.
+     * @param goTerms   The GO terms it maps to, canonical copies from {@link #xref}.
+     * @param pathways  The pathways it maps to, canonical copies from {@link #xref}.
+     *
+     * @return The entry already in the dictionary, or a new one added to it.
+     *         The first definition of an accession is the one kept.
+     */
+    Entry entry(String ac, String name, String type, List<Xref> goTerms, List<Xref> pathways) {
+        if (ac == null) {
+            return unintegrated;
+        }
+        Entry entry = entries.get(ac);
+        if (entry != null) {
+            return entry;
+        }
+        return entries.computeIfAbsent(ac, k -> new Entry(k, name, type, goTerms, pathways));
+    }
+
+    /**
+     * @param ac        The signature's accession, e.g. PF13247.
+     * @param name      Its name, or null if it has none.
+     * @param library   The member database it belongs to, e.g. PFAM.
+     *
+     * @return The signature already in the dictionary, or a new one added to it.
+     */
+    Signature signature(String ac, String name, String library) {
+        String key = library + '\t' + ac;
+        Signature signature = signatures.get(key);
+        if (signature != null) {
+            return signature;
+        }
+        return signatures.computeIfAbsent(key, k -> new Signature(ac, name != null ? name : "unknown", library));
+    }
+
+    /**
+     * @param db        The database referred to, e.g. GO or MetaCyc.
+     * @param id        The id of the term or pathway in that database.
+     * @param name      Its name.
+     *
+     * @return The cross reference already in the dictionary, or a new one added to it.
+     */
+    Xref xref(String db, String id, String name) {
+        String key = db + '\t' + id;
+        Xref xref = xrefs.get(key);
+        if (xref != null) {
+            return xref;
+        }
+        return xrefs.computeIfAbsent(key, k -> new Xref(db, id, name));
+    }
+
+    /**
+     * @return The number of distinct entries, signatures and cross references held.
+     */
+    int size() {
+        return entries.size() + signatures.size() + xrefs.size();
+    }
+
+    /**
+     * An InterPro entry, with the qualifier values built from it.
+     */
+    final static class Entry {
+        final String ac, name, type;
+        final String link;
+        final List<Xref> goTerms, pathways;
+        // Null when there are none.
+        final String goTermsText, pathwaysText;
+
+        private Entry(String ac, String name, String type, List<Xref> goTerms, List<Xref> pathways) {
+            this.ac = ac;
+            this.name = name;
+            this.type = type;
+            this.link = "<a href=\"" + ENTRY_URL + ac + "\">" + ac + "</a>";
+            this.goTerms = Collections.unmodifiableList(new ArrayList<>(goTerms));
+            this.pathways = Collections.unmodifiableList(new ArrayList<>(pathways));
+            this.goTermsText = join(goTerms);
+            this.pathwaysText = join(pathways);
+        }
+
+        private static String join(List<Xref> xrefs) {
+            if (xrefs.isEmpty()) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder();
+            for (Xref xref : xrefs) {
+                if (sb.length() > 0) {
+                    sb.append("; ");
+                }
+                sb.append(xref);
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * A member database signature.
+     */
+    final static class Signature {
+        final String ac, name, library;
+
+        private Signature(String ac, String name, String library) {
+            this.ac = ac;
+            this.name = name;
+            this.library = library;
+        }
+    }
+
+    /**
+     * A GO term or pathway an entry maps to.
+     */
+    final static class Xref {
+        final String db, id, name;
+
+        private Xref(String db, String id, String name) {
+            this.db = db;
+            this.id = id;
+            this.name = name;
+        }
+
+        /**
+         * @return e.g. "GO:0051536 iron-sulfur cluster binding" or
+         *         "MetaCyc:PWY-5686 UMP biosynthesis". GO ids already
+         *         carry their prefix.
+         */
+        @Override
+        public String toString() {
+            String qualifiedId = id.startsWith(db + ":") ? id : db + ":" + id;
+            return name != null ? qualifiedId + " " + name : qualifiedId;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads protein sequences one at a time from a FASTA file, which may be
+ * gzipped. Only the sequence being read is held in memory, however large
+ * the file.
+ */
+final class FastaReader implements Closeable {
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    private final BufferedReader reader;
+    // The header of the next record, already read; null at the end.
+    private String header;
+    private int line;
+
+
+    /**
+     * @param in    The FASTA, gzipped or not. It is closed with the reader.
+     *
+     * @throws IOException if it cannot be read, or does not start with a header.
+     */
+    FastaReader(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, BUFFER_SIZE);
+        buffered.mark(2);
+        boolean gzipped = buffered.read() == 0x1f && buffered.read() == 0x8b;
+        buffered.reset();
+        InputStream decoded = gzipped ? new GZIPInputStream(buffered, BUFFER_SIZE) : buffered;
+        reader = new BufferedReader(new InputStreamReader(decoded, StandardCharsets.US_ASCII), BUFFER_SIZE);
+
+        String first = readLine();
+        while (first != null && first.isBlank()) {
+            first = readLine();
+        }
+        if (first != null && !first.startsWith(">")) {
+            throw new IOException("Not a FASTA file: line " + line + " is not a header");
+        }
+        header = first;
+    }
+
+
+    /**
+     * @return The next record, or null at the end of the file.
+     *
+     * @throws IOException if the file cannot be read.
+     */
+    Record next() throws IOException {
+        if (header == null) {
+            return null;
+        }
+        String id = header.substring(1).trim();
+        int space = indexOfWhitespace(id);
+        if (space >= 0) {
+            id = id.substring(0, space);
+        }
+        if (id.isEmpty()) {
+            throw new IOException("Sequence without an id before line " + line);
+        }
+
+        StringBuilder sequence = new StringBuilder();
+        String text = readLine();
+        while (text != null && !text.startsWith(">")) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    sequence.append(Character.toUpperCase(c));
+                }
+            }
+            text = readLine();
+        }
+        header = text;
+        return new Record(id, sequence.toString());
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+
+    private String readLine() throws IOException {
+        line++;
+        return reader.readLine();
+    }
+
+
+    private static int indexOfWhitespace(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * One sequence.
+     */
+    final static class Record {
+        // The first word of the header.
+        final String id;
+        final String sequence;
+
+        Record(String id, String sequence) {
+            this.id = id;
+            this.sequence = sequence;
+        }
+    }
+}
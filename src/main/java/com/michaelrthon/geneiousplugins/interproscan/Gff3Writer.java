@@ -0,0 +1,121 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationQualifier;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes annotations as GFF3, in the style of InterProScan's own: one
+ * protein_match line per location, with the annotation's name, type and
+ * qualifiers as attributes. A match with several locations has the same
+ * ID on each line.
+ */
+final class Gff3Writer implements AnnotationWriter {
+
+    private final static String SOURCE = "InterProScan";
+    private final static String TYPE = "protein_match";
+    // The characters besides letters and digits a seqid may hold unescaped.
+    private final static String SEQID_PUNCTUATION = ".:^*$@!+_?-|";
+    private final static String HEX = "0123456789ABCDEF";
+
+    private final Writer out;
+    private final StringBuilder line = new StringBuilder();
+
+
+    /**
+     * @param out   Where to write. It is not closed.
+     *
+     * @throws IOException if the header cannot be written.
+     */
+    Gff3Writer(Writer out) throws IOException {
+        this.out = out;
+        out.write("##gff-version 3\n");
+        out.flush();
+    }
+
+
+    @Override
+    public void write(String id, int length, AnnotationGeneratorResult result) throws IOException {
+        String seqid = escape(id, false);
+        line.setLength(0);
+        line.append("##sequence-region ").append(seqid).append(" 1 ").append(length).append('\n');
+
+        int count = 0;
+        for (SequenceAnnotation annotation : result.getAnnotationsToAdd()) {
+            String attributes = attributes(seqid + "_" + ++count, annotation);
+            List<SequenceAnnotationInterval> intervals = annotation.getIntervals();
+            if (intervals.isEmpty()) {
+                appendLine(seqid, 1, length, attributes);
+            }
+            for (SequenceAnnotationInterval interval : intervals) {
+                appendLine(seqid, interval.getMinimumIndex(), interval.getMaximumIndex(), attributes);
+            }
+        }
+        out.append(line);
+        out.flush();
+    }
+
+
+    private void appendLine(String seqid, int start, int end, String attributes) {
+        line.append(seqid).append('\t').append(SOURCE).append('\t').append(TYPE).append('\t')
+                .append(start).append('\t').append(end).append("\t.\t+\t.\t")
+                .append(attributes).append('\n');
+    }
+
+
+    /**
+     * @return The ninth column for an annotation's lines.
+     */
+    private static String attributes(String id, SequenceAnnotation annotation) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ID=").append(id);
+        sb.append(";Name=").append(escape(annotation.getName(), true));
+        if (annotation.getType() != null) {
+            sb.append(";type=").append(escape(annotation.getType(), true));
+        }
+        for (SequenceAnnotationQualifier qualifier : annotation.getQualifiers()) {
+            String value = qualifier.getValue() != null ? AnnotationWriter.plainText(qualifier.getValue()) : "";
+            if (value.isEmpty()) {
+                continue;
+            }
+            // Upper case tags are reserved, so e.g. "InterPro ID" becomes "interPro_ID".
+            String tag = qualifier.getName().replace(' ', '_');
+            sb.append(';').append(Character.toLowerCase(tag.charAt(0))).append(escape(tag.substring(1), true))
+                    .append('=').append(escape(value, true));
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * Percent-encodes the characters GFF3 reserves.
+     *
+     * @param text      The text.
+     * @param attribute True for a tag or value in the ninth column, false for a seqid.
+     *
+     * @return The text, escaped.
+     */
+    static String escape(String text, boolean attribute) {
+        StringBuilder sb = null;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            boolean reserved = attribute
+                    ? c < 0x20 || c == 0x7f || c == '%' || c == ';' || c == '=' || c == '&' || c == ','
+                    : c < 0x80 && !Character.isLetterOrDigit(c) && SEQID_PUNCTUATION.indexOf(c) < 0;
+            if (reserved) {
+                if (sb == null) {
+                    sb = new StringBuilder(text.length() + 8).append(text, 0, i);
+                }
+                sb.append('%').append(HEX.charAt(c >> 4)).append(HEX.charAt(c & 0xf));
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? text : sb.toString();
+    }
+}
@@ -1,5 +1,94 @@
 package com.michaelrthon.geneiousplugins.interproscan;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The HTTP transport used to talk to the InterProScan web service.
+ *
+ * The default implementation shares one connection pool between every
+ * Runner in the JVM. Tests can supply their own, e.g. to talk to a local
+ * stand-in server.
+ */
 public interface HttpClientProvider {
 
+    Duration CONNECT_TIMEOUT = Duration.ofSeconds(30);
+    Duration READ_TIMEOUT = Duration.ofSeconds(120);
+
+    /**
+     * Sends a request without blocking.
+     *
+     * @param request   The request to send.
+     * @param handler   How to read the response body.
+     * @param <T>       The response body type.
+     *
+     * @return The response, once its headers have arrived.
+     */
+    <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> handler);
+
+    /**
+     * Sends a request and waits for the response.
+     *
+     * @param request   The request to send.
+     * @param handler   How to read the response body.
+     * @param <T>       The response body type.
+     *
+     * @return The response.
+     *
+     * @throws IOException          if the request fails or times out.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    default <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler) throws IOException, InterruptedException {
+        try {
+            return sendAsync(request, handler).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts a request with the standard read timeout.
+     *
+     * @param uri   The address to request.
+     *
+     * @return A request builder.
+     */
+    default HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri).timeout(READ_TIMEOUT);
+    }
+
+    /**
+     * @return The shared transport used by default.
+     */
+    static HttpClientProvider getDefault() {
+        return SharedHttpClientProvider.INSTANCE;
+    }
+
+    /**
+     * Unwraps a response body that was gzipped in transit.
+     *
+     * @param response  A response whose request asked for gzip encoding.
+     *
+     * @return The decompressed body.
+     *
+     * @throws IOException if the body cannot be decompressed.
+     */
+    static InputStream decodedBody(HttpResponse<InputStream> response) throws IOException {
+        boolean gzipped = response.headers()
+                .firstValue("Content-Encoding")
+                .map("gzip"::equalsIgnoreCase)
+                .orElse(false);
+        return gzipped ? new GZIPInputStream(response.body()) : response.body();
+    }
 }
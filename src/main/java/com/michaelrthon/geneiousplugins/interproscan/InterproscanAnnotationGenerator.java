@@ -40,7 +40,7 @@ class InterproscanAnnotationGenerator extends SequenceAnnotationGenerator {
             Options options)
             throws DocumentOperationException {
         try {
-            return new Runner(documents, (InterproscanOptions) options, progressListener).scanSequences();
+            return new Runner(documents, selectionRange, (InterproscanOptions) options, progressListener).scanSequences();
         } catch (Exception e) {
             throw new DocumentOperationException("Unknown failure", e);
         }
@@ -0,0 +1,726 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+import jebl.util.ProgressListener;
+import org.apache.commons.validator.routines.EmailValidator;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Annotates the proteins in a FASTA file without Geneious, e.g. on the
+ * nodes of a cluster. The same {@link Runner} does the scheduling,
+ * caching and parsing as in the plugin, but Geneious is never started:
+ * the settings come from the command line, and the annotations are
+ * written to a GFF3 or TSV file as each protein's results arrive.
+ *
+ * The FASTA is read a window of proteins at a time, so memory use does
+ * not grow with the size of the file. Two windows are scanned at once,
+ * sharing the EBI slots, so the next window's jobs fill the slots left
+ * idle while the last jobs of the previous one finish. Annotations are
+ * written in the order they arrive, not the order of the file. An
+ * interrupted run, started again, resumes its jobs at EBI.
+ *
+ * With --queue, the FASTA is instead split into shards in a
+ * {@link WorkQueue}, which any number of workers running the same command,
+ * on this host or others sharing the directory, claim and scan. Each
+ * shard's annotations are written to a file of their own, and whichever
+ * worker finds the queue finished merges them into the output file.
+ */
+public final class InterproscanCommandLine {
+
+    private final static int EXIT_OK = 0;
+    // Some proteins could not be scanned; the rest were written.
+    private final static int EXIT_FAILURES = 1;
+    private final static int EXIT_ERROR = 2;
+
+    private final static int DEFAULT_WINDOW = 1000;
+    private final static int WINDOWS_IN_FLIGHT = 2;
+    private final static int DEFAULT_LEASE_SECONDS = 600;
+
+    private final static String USAGE = String.join("\n",
+            "Usage: interproscan [options] <proteins.fasta[.gz] | ->",
+            "       interproscan --queue DIR [options] [proteins.fasta[.gz] | -]",
+            "",
+            "  -o, --output FILE          Write annotations to FILE instead of standard output",
+            "  -f, --format gff3|tsv      Output format; by default tsv for a .tsv output file, otherwise gff3",
+            "  -e, --email ADDRESS        Address EBI reports problems to; required for the EBI web service",
+            "  -a, --applications LIST    Comma separated member databases to search; by default all of",
+            "                             " + String.join(",", ScanSettings.APPLICATIONS),
+            "      --goterms              Add the GO terms of each InterPro entry",
+            "      --pathways             Add the pathways of each InterPro entry",
+            "      --features separately|qualifiers",
+            "                             Show InterPro entries as their own features, or as qualifiers (default)",
+            "      --empty-features       Annotate proteins without matches, or with errors",
+            "      --results xml|json|tsv Format to download results from EBI in (default xml)",
+            "      --precalculated FILE   Look proteins up in precalculated InterProScan TSV matches first",
+            "      --order longest|shortest|input",
+            "                             Order to submit each window's proteins in (default longest)",
+            "      --endpoint URL         InterProScan REST service (default " + EbiRestBackend.DEFAULT_BASE_URL + ")",
+            "      --max-jobs N           Most EBI jobs at once, fewer while EBI is slow or failing (default "
+                    + SlotPool.DEFAULT_CAPACITY + ",",
+            "                             most " + ConcurrencyLimiter.DEFAULT_CEILING + ")",
+            "      --local FILE           Run the interproscan.sh script of a local installation instead of EBI",
+            "      --local-batch N        Proteins per run of interproscan.sh (default 1000)",
+            "      --local-parallel N     Runs of interproscan.sh at once (default 1)",
+            "      --no-cache             Neither use nor fill the result cache",
+            "      --no-incremental       Search every selected database again for proteins whose results are",
+            "                             cached for only some of them",
+            "      --no-resume            Neither record nor resume EBI jobs",
+            "      --window N             Proteins read into memory at a time (default " + DEFAULT_WINDOW + ")",
+            "      --summary DIR          Write a timing summary of each window to DIR",
+            "      --queue DIR            Split the proteins into shards of --window proteins in DIR, and scan",
+            "                             them with any other workers given the same DIR. Leave out the FASTA",
+            "                             to join a queue another worker splits. The last worker to finish",
+            "                             merges every shard's annotations into the output file, if given",
+            "      --lease SECONDS        Time after which a worker that stopped renewing its shards loses",
+            "                             them to the others (default " + DEFAULT_LEASE_SECONDS + ")",
+            "  -v, --verbose              Log every job",
+            "  -h, --help                 Show this message",
+            "",
+            "Exit status is 0 on success, 1 if some proteins could not be scanned, and 2 on error.");
+
+    private final Arguments arguments;
+    private final ScanBackend backend;
+    private final double timeScale;
+    private final PrintStream err;
+
+
+    /**
+     * @param arguments The parsed command line.
+     * @param backend   The service to run jobs with, unless a local installation is selected.
+     * @param timeScale As for {@link Runner}; 1 except in simulations.
+     * @param err       Where progress is reported.
+     */
+    private InterproscanCommandLine(Arguments arguments, ScanBackend backend, double timeScale, PrintStream err) {
+        this.arguments = arguments;
+        this.backend = backend;
+        this.timeScale = timeScale;
+        this.err = err;
+    }
+
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err, 1.0));
+    }
+
+
+    /**
+     * Runs the command line.
+     *
+     * @param args      The arguments.
+     * @param in        Standard input, read if the FASTA is "-".
+     * @param out       Standard output, written if there is no output file. It is not closed.
+     * @param err       Standard error, for messages.
+     * @param timeScale As for {@link Runner}; 1 except in simulations.
+     *
+     * @return The exit status.
+     */
+    static int run(String[] args, InputStream in, OutputStream out, PrintStream err, double timeScale) {
+        Arguments arguments;
+        try {
+            arguments = Arguments.parse(args);
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println();
+            err.println(USAGE);
+            return EXIT_ERROR;
+        }
+        if (arguments.help) {
+            err.println(USAGE);
+            return EXIT_OK;
+        }
+        configureLogging(arguments.verbose ? Level.INFO : Level.WARNING);
+        ScanBackend backend = new EbiRestBackend(arguments.endpoint, HttpClientProvider.getDefault());
+        InterproscanCommandLine commandLine = new InterproscanCommandLine(arguments, backend, timeScale, err);
+        if (arguments.queue != null) {
+            return commandLine.runQueue(in);
+        }
+
+        Writer output = null;
+        try (FastaReader fasta = new FastaReader(open(arguments.input, in))) {
+            output = new BufferedWriter(new OutputStreamWriter(
+                    arguments.output != null ? new FileOutputStream(arguments.output) : out, StandardCharsets.UTF_8));
+            int failures = commandLine.scan(fasta, AnnotationWriter.forFormat(arguments.format, output));
+            return failures == 0 ? EXIT_OK : EXIT_FAILURES;
+        } catch (IOException | DocumentOperationException e) {
+            err.println("Error: " + e.getMessage());
+            return EXIT_ERROR;
+        } finally {
+            closeOutput(output, arguments.output != null, err);
+        }
+    }
+
+
+    /**
+     * Splits the FASTA into the queue unless another worker has, scans
+     * shards until none are left, and merges the results if this worker
+     * is the first to find the queue finished.
+     *
+     * @param in    Standard input, read if the FASTA is "-".
+     *
+     * @return The exit status.
+     */
+    private int runQueue(InputStream in) {
+        try {
+            WorkQueue queue = new WorkQueue(arguments.queue, arguments.lease * 1000L);
+            try (FastaReader fasta = arguments.input != null ? new FastaReader(open(arguments.input, in)) : null) {
+                queue.split(fasta, arguments.window);
+            }
+            int failures = scan(queue);
+            if (arguments.output != null && queue.merge(arguments.format, arguments.output)) {
+                err.println("Merged the annotations of every shard into " + arguments.output + ".");
+            }
+            return failures == 0 ? EXIT_OK : EXIT_FAILURES;
+        } catch (IOException | DocumentOperationException e) {
+            err.println("Error: " + e.getMessage());
+            return EXIT_ERROR;
+        } catch (InterruptedException e) {
+            err.println("Interrupted: " + e.getMessage());
+            return EXIT_ERROR;
+        }
+    }
+
+
+    private static InputStream open(String input, InputStream in) throws IOException {
+        return input.equals("-") ? in : new FileInputStream(input);
+    }
+
+
+    /**
+     * Scans every protein in the FASTA, a window at a time.
+     *
+     * @param fasta     The proteins.
+     * @param writer    Where annotations go.
+     *
+     * @return The number of proteins that could not be scanned.
+     *
+     * @throws IOException                if the FASTA cannot be read.
+     * @throws DocumentOperationException if a window's run fails as a whole.
+     */
+    private int scan(FastaReader fasta, AnnotationWriter writer) throws IOException, DocumentOperationException {
+        ExecutorService windows = Executors.newFixedThreadPool(WINDOWS_IN_FLIGHT);
+        Deque<Future<Integer>> inFlight = new ArrayDeque<>();
+        int scanned = 0, failures = 0;
+        try {
+            while (true) {
+                // Read the next window only once there is room to scan it.
+                if (inFlight.size() == WINDOWS_IN_FLIGHT) {
+                    failures += await(inFlight.poll());
+                }
+                Window window = readWindow(fasta, new Window(arguments.input, writer, null), arguments.window);
+                if (window.size() == 0) {
+                    break;
+                }
+                scanned += window.size();
+                inFlight.add(windows.submit(window::scan));
+            }
+            while (!inFlight.isEmpty()) {
+                failures += await(inFlight.poll());
+            }
+        } finally {
+            windows.shutdownNow();
+        }
+        err.println(scanned + " proteins scanned, " + failures + " could not be.");
+        return failures;
+    }
+
+
+    /**
+     * Scans shards from the queue, two at a time, until every shard is
+     * done. While other workers hold the last shards, waits in case one
+     * of them dies and its shards come back to the queue.
+     *
+     * @param queue The queue.
+     *
+     * @return The number of proteins in this worker's shards that could not be scanned.
+     *
+     * @throws IOException                if the queue cannot be read or written.
+     * @throws DocumentOperationException if a shard's run fails as a whole.
+     */
+    private int scan(WorkQueue queue) throws IOException, DocumentOperationException {
+        ExecutorService windows = Executors.newFixedThreadPool(WINDOWS_IN_FLIGHT);
+        ScheduledExecutorService leases = Executors.newSingleThreadScheduledExecutor();
+        Set<WorkQueue.Shard> claimed = ConcurrentHashMap.newKeySet();
+        Deque<Future<Integer>> inFlight = new ArrayDeque<>();
+        long renewal = Math.max(1, arguments.lease * 1000L / 4);
+        int shards = 0, failures = 0;
+        try {
+            leases.scheduleWithFixedDelay(() -> claimed.forEach(queue::renew), renewal, renewal, TimeUnit.MILLISECONDS);
+            while (true) {
+                if (inFlight.size() == WINDOWS_IN_FLIGHT) {
+                    failures += await(inFlight.poll());
+                    continue;
+                }
+                WorkQueue.Shard shard = queue.claim();
+                if (shard != null) {
+                    claimed.add(shard);
+                    shards++;
+                    inFlight.add(windows.submit(() -> {
+                        try {
+                            return scan(queue, shard);
+                        } finally {
+                            claimed.remove(shard);
+                        }
+                    }));
+                } else if (!inFlight.isEmpty()) {
+                    failures += await(inFlight.poll());
+                } else if (queue.isFinished()) {
+                    break;
+                } else {
+                    Thread.sleep(renewal);
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new DocumentOperationException("Interrupted: " + e.getMessage());
+        } finally {
+            windows.shutdownNow();
+            leases.shutdownNow();
+        }
+        err.println(shards + " shards scanned, " + failures + " proteins could not be.");
+        return failures;
+    }
+
+
+    /**
+     * Scans one shard, writing its annotations to a file of its own, and
+     * marks it done.
+     *
+     * @return The number of proteins in the shard that could not be scanned.
+     */
+    private int scan(WorkQueue queue, WorkQueue.Shard shard) throws IOException, DocumentOperationException {
+        Path result = queue.resultFile(shard, arguments.format);
+        int failures = 0;
+        // The shard's own journal, so that whoever scans it after a crash resumes its jobs.
+        try (JobJournal journal = arguments.resume ? queue.journal(shard) : null;
+             FastaReader fasta = new FastaReader(shard.open());
+             Writer out = Files.newBufferedWriter(result, StandardCharsets.UTF_8)) {
+            Window window = new Window(arguments.queue + File.separator + shard.name,
+                    AnnotationWriter.forFormat(arguments.format, out), journal);
+            if (readWindow(fasta, window, Integer.MAX_VALUE).size() > 0) {
+                failures = window.scan();
+            }
+        } catch (IOException | DocumentOperationException | RuntimeException e) {
+            Files.deleteIfExists(result);
+            throw e;
+        }
+        queue.complete(shard, result, arguments.format);
+        return failures;
+    }
+
+
+    /**
+     * Reads proteins into a window.
+     *
+     * @return The window, empty if there were no proteins left.
+     */
+    private Window readWindow(FastaReader fasta, Window window, int limit) throws IOException {
+        FastaReader.Record record;
+        while (window.size() < limit && (record = fasta.next()) != null) {
+            if (record.sequence.isEmpty()) {
+                err.println("Skipping " + record.id + ", which has no sequence.");
+                continue;
+            }
+            window.ids.add(record.id);
+            window.sequences.add(record.sequence);
+        }
+        return window;
+    }
+
+
+    /**
+     * @return The number of proteins in a window that could not be scanned.
+     */
+    private static int await(Future<Integer> window) throws DocumentOperationException {
+        try {
+            return window.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DocumentOperationException) {
+                throw (DocumentOperationException) e.getCause();
+            }
+            throw new DocumentOperationException("Unexpected error: " + e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            throw new DocumentOperationException("Interrupted: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Closes an output file, or flushes standard output.
+     */
+    private static void closeOutput(Writer output, boolean file, PrintStream err) {
+        if (output == null) {
+            return;
+        }
+        try {
+            if (file) {
+                output.close();
+            } else {
+                output.flush();
+            }
+        } catch (IOException e) {
+            err.println("Error: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Logs to standard error at the given level, rather than every job.
+     */
+    private static void configureLogging(Level level) {
+        Logger root = Logger.getLogger("");
+        root.setLevel(level);
+        for (Handler handler : root.getHandlers()) {
+            handler.setLevel(level);
+        }
+    }
+
+
+    /**
+     * One window of proteins from the FASTA, or one shard from the queue,
+     * scanned by a Runner of its own.
+     */
+    private final class Window implements ProteinBatch {
+        private final String source;
+        private final AnnotationWriter writer;
+        private final JobJournal journal;
+        private final List<String> ids = new ArrayList<>();
+        private final List<String> sequences = new ArrayList<>();
+
+        /**
+         * @param source    The file the proteins came from.
+         * @param writer    Where annotations go.
+         * @param journal   The journal to record jobs in, or null for the Runner's own.
+         */
+        Window(String source, AnnotationWriter writer, JobJournal journal) {
+            this.source = source;
+            this.writer = writer;
+            this.journal = journal;
+        }
+
+        /**
+         * @return The number of proteins that could not be scanned.
+         */
+        int scan() throws DocumentOperationException {
+            Runner runner = new Runner(this, arguments, ProgressListener.EMPTY, backend, timeScale);
+            runner.setMetricsDirectory(arguments.summaryDirectory);
+            if (journal != null) {
+                runner.setJournal(journal);
+            }
+            runner.scanSequences();
+            return runner.getFailureCount();
+        }
+
+        @Override
+        public int size() {
+            return ids.size();
+        }
+
+        @Override
+        public String getName(int index) {
+            return ids.get(index);
+        }
+
+        @Override
+        public String getSequence(int index) {
+            return sequences.get(index);
+        }
+
+        @Override
+        public String getUrn(int index) {
+            return source + "#" + ids.get(index);
+        }
+
+        @Override
+        public void apply(int index, AnnotationGeneratorResult result) throws DocumentOperationException {
+            String sequence = sequences.get(index);
+            int length = sequence.endsWith("*") ? sequence.length() - 1 : sequence.length();
+            // Both windows in flight may write here.
+            synchronized (writer) {
+                try {
+                    writer.write(ids.get(index), length, result);
+                } catch (IOException e) {
+                    throw new DocumentOperationException("Unable to write annotations: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The parsed command line, which is also the Runner's settings.
+     * Annotations are always applied as they arrive, by writing them out.
+     */
+    final static class Arguments implements ScanSettings {
+        String input;
+        File output;
+        String format;
+        String email = "";
+        List<String> applications = ScanSettings.APPLICATIONS;
+        boolean goterms, pathways, extraFeatures, help, verbose;
+        String featureType = InterproscanOptions.FEAT_QUALIFIERS;
+        String resultFormat = InterproscanOptions.FORMAT_XML;
+        String precalculated = "";
+        String order = InterproscanOptions.ORDER_LONGEST_FIRST;
+        String endpoint = EbiRestBackend.DEFAULT_BASE_URL;
+        int maximumJobs = SlotPool.DEFAULT_CAPACITY;
+        String backend = InterproscanOptions.BACKEND_EBI;
+        String localExecutable = "";
+        int localBatchSize = 1000;
+        int localParallelBatches = 1;
+        boolean cache = true, incremental = true, resume = true;
+        int window = DEFAULT_WINDOW;
+        File summaryDirectory;
+        File queue;
+        int lease = DEFAULT_LEASE_SECONDS;
+
+        /**
+         * @param args  The command line.
+         *
+         * @return The arguments, checked.
+         *
+         * @throws IllegalArgumentException saying what is wrong with them.
+         */
+        static Arguments parse(String[] args) {
+            Arguments a = new Arguments();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                switch (arg) {
+                    case "-o": case "--output": a.output = new File(value(args, ++i, arg)); break;
+                    case "-f": case "--format": a.format = choice(value(args, ++i, arg), arg,
+                            AnnotationWriter.FORMAT_GFF3, AnnotationWriter.FORMAT_TSV); break;
+                    case "-e": case "--email": a.email = value(args, ++i, arg); break;
+                    case "-a": case "--applications": a.applications = applications(value(args, ++i, arg)); break;
+                    case "--goterms": a.goterms = true; break;
+                    case "--pathways": a.pathways = true; break;
+                    case "--features": a.featureType = choice(value(args, ++i, arg), arg,
+                            InterproscanOptions.FEAT_SEPARATE, InterproscanOptions.FEAT_QUALIFIERS); break;
+                    case "--empty-features": a.extraFeatures = true; break;
+                    case "--results": a.resultFormat = choice(value(args, ++i, arg), arg,
+                            InterproscanOptions.FORMAT_XML, InterproscanOptions.FORMAT_JSON, InterproscanOptions.FORMAT_TSV); break;
+                    case "--precalculated": a.precalculated = value(args, ++i, arg); break;
+                    case "--order": a.order = order(choice(value(args, ++i, arg), arg, "longest", "shortest", "input")); break;
+                    case "--endpoint": a.endpoint = value(args, ++i, arg); break;
+                    case "--max-jobs": a.maximumJobs = number(value(args, ++i, arg), arg); break;
+                    case "--local":
+                        a.backend = InterproscanOptions.BACKEND_LOCAL;
+                        a.localExecutable = value(args, ++i, arg);
+                        break;
+                    case "--local-batch": a.localBatchSize = number(value(args, ++i, arg), arg); break;
+                    case "--local-parallel": a.localParallelBatches = number(value(args, ++i, arg), arg); break;
+                    case "--no-cache": a.cache = false; break;
+                    case "--no-incremental": a.incremental = false; break;
+                    case "--no-resume": a.resume = false; break;
+                    case "--window": a.window = number(value(args, ++i, arg), arg); break;
+                    case "--summary": a.summaryDirectory = new File(value(args, ++i, arg)); break;
+                    case "--queue": a.queue = new File(value(args, ++i, arg)); break;
+                    case "--lease": a.lease = number(value(args, ++i, arg), arg); break;
+                    case "-v": case "--verbose": a.verbose = true; break;
+                    case "-h": case "--help": a.help = true; break;
+                    default:
+                        if (arg.startsWith("-") && !arg.equals("-")) {
+                            throw new IllegalArgumentException("Unknown option " + arg);
+                        }
+                        if (a.input != null) {
+                            throw new IllegalArgumentException("Only one FASTA file may be given");
+                        }
+                        a.input = arg;
+                }
+            }
+            if (a.help) {
+                return a;
+            }
+            if (a.input == null && a.queue == null) {
+                throw new IllegalArgumentException("No FASTA file given");
+            }
+            if (a.format == null) {
+                boolean tsv = a.output != null && a.output.getName().toLowerCase().endsWith(".tsv");
+                a.format = tsv ? AnnotationWriter.FORMAT_TSV : AnnotationWriter.FORMAT_GFF3;
+            }
+            if (a.maximumJobs > ConcurrencyLimiter.DEFAULT_CEILING) {
+                throw new IllegalArgumentException("--max-jobs may be at most " + ConcurrencyLimiter.DEFAULT_CEILING
+                        + ", as EBI asks");
+            }
+            if (InterproscanOptions.BACKEND_LOCAL.equals(a.backend)) {
+                File executable = new File(a.localExecutable);
+                if (!executable.isFile() || !executable.canExecute()) {
+                    throw new IllegalArgumentException(a.localExecutable + " is not an executable interproscan.sh");
+                }
+            } else if (!EmailValidator.getInstance().isValid(a.email)) {
+                throw new IllegalArgumentException("A valid email address is required for the EBI web service");
+            }
+            return a;
+        }
+
+        private static String value(String[] args, int i, String option) {
+            if (i >= args.length) {
+                throw new IllegalArgumentException(option + " needs a value");
+            }
+            return args[i];
+        }
+
+        private static String choice(String value, String option, String... choices) {
+            for (String choice : choices) {
+                if (choice.equalsIgnoreCase(value)) {
+                    return choice;
+                }
+            }
+            throw new IllegalArgumentException(option + " must be one of " + String.join(", ", choices));
+        }
+
+        private static int number(String value, String option) {
+            try {
+                int number = Integer.parseInt(value);
+                if (number > 0) {
+                    return number;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below.
+            }
+            throw new IllegalArgumentException(option + " must be a positive number");
+        }
+
+        private static String order(String order) {
+            switch (order) {
+                case "shortest": return InterproscanOptions.ORDER_SHORTEST_FIRST;
+                case "input": return InterproscanOptions.ORDER_SELECTION;
+                default: return InterproscanOptions.ORDER_LONGEST_FIRST;
+            }
+        }
+
+        /**
+         * @param list  e.g. "pfama,smart".
+         *
+         * @return The applications, as named in {@link ScanSettings#APPLICATIONS}.
+         */
+        private static List<String> applications(String list) {
+            List<String> applications = new ArrayList<>();
+            for (String name : list.split(",")) {
+                applications.add(choice(name.trim(), "--applications", ScanSettings.APPLICATIONS.toArray(new String[0])));
+            }
+            return applications;
+        }
+
+        @Override
+        public String getEmailAddress() {
+            return email;
+        }
+
+        @Override
+        public String getBackend() {
+            return backend;
+        }
+
+        @Override
+        public String getRestEndpoint() {
+            return endpoint;
+        }
+
+        @Override
+        public String getResultFormat() {
+            return resultFormat;
+        }
+
+        @Override
+        public String getPrecalculatedMatches() {
+            return precalculated;
+        }
+
+        @Override
+        public String getSubmissionOrder() {
+            return order;
+        }
+
+        @Override
+        public int getMaximumConcurrentJobs() {
+            return maximumJobs;
+        }
+
+        @Override
+        public String getLocalExecutable() {
+            return localExecutable;
+        }
+
+        @Override
+        public int getLocalBatchSize() {
+            return localBatchSize;
+        }
+
+        @Override
+        public int getLocalParallelBatches() {
+            return localParallelBatches;
+        }
+
+        @Override
+        public boolean isGotermsSelected() {
+            return goterms;
+        }
+
+        @Override
+        public boolean isPathwaysSelected() {
+            return pathways;
+        }
+
+        @Override
+        public String getFeatureType() {
+            return featureType;
+        }
+
+        @Override
+        public boolean isExtraFeatureSelected() {
+            return extraFeatures;
+        }
+
+        @Override
+        public boolean isResultCacheSelected() {
+            return cache;
+        }
+
+        @Override
+        public boolean isIncrementalScanSelected() {
+            return cache && incremental;
+        }
+
+        @Override
+        public boolean isResumeJobsSelected() {
+            return resume;
+        }
+
+        @Override
+        public boolean isApplyAsScannedSelected() {
+            return true;
+        }
+
+        @Override
+        public List<String> getSelectedInterProApps() {
+            return applications;
+        }
+    }
+}
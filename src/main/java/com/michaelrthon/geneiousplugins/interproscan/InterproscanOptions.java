@@ -3,54 +3,66 @@ package com.michaelrthon.geneiousplugins.interproscan;
 import com.biomatters.geneious.publicapi.components.GEditorPane;
 import com.biomatters.geneious.publicapi.plugin.Options;
 import org.apache.commons.validator.routines.EmailValidator;
+import org.apache.commons.validator.routines.UrlValidator;
 import org.virion.jam.html.SimpleLinkListener;
 
 import javax.swing.*;
 import java.awt.*;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
-class InterproscanOptions extends Options {
+class InterproscanOptions extends Options implements ScanSettings {
 
     private StringOption emailAddress;
+    private ComboBoxOption<OptionValue> backend;
+    private StringOption restEndpoint;
+    private ComboBoxOption<OptionValue> resultFormat;
+    private FileSelectionOption precalculatedMatches;
+    private ComboBoxOption<OptionValue> submissionOrder;
+    private IntegerOption maximumConcurrentJobs;
+    private FileSelectionOption localExecutable;
+    private IntegerOption localBatchSize;
+    private IntegerOption localParallelBatches;
     private ComboBoxOption<OptionValue> featureType;
     private BooleanOption extraFeature;
     private BooleanOption goTerms;
     private BooleanOption pathways;
+    private BooleanOption useCache;
+    private BooleanOption incrementalScan;
+    private BooleanOption resumeJobs;
+    private BooleanOption applyAsScanned;
 
-    // The currently supported member databases|applications {
-    //      CDD          Phobius         SignalP_EUK
-    //      Coils        PIRSF           SignalP_GRAM_NEGATIVE
-    //      Gene3d       PRINTS          SignalP_GRAM_POSITIVE
-    //      HAMAP        PrositePatterns SMART
-    //      MobiDBLite   PrositeProfiles SuperFamily
-    //      Panther      SFLD            TIGRFAM
-    //      PfamA        SignalP         TMHMM
-    // } Note that the following list is ordered to display as above.
-    private final List<String> databaseNames = List.of(
-            "CDD",          "Phobius",         "SignalP_EUK",
-            "Coils",        "PIRSF",           "SignalP_GRAM_NEGATIVE",
-            "Gene3d",       "PRINTS",          "SignalP_GRAM_POSITIVE",
-            "HAMAP",        "PrositePatterns", "SMART",
-            "MobiDBLite",   "PrositeProfiles", "SuperFamily",
-            "Panther",      "SFLD",            "NCBIfam",
-            "PfamA",        "SignalP",         "TMHMM"
-    );
+    private final List<String> databaseNames = APPLICATIONS;
     private HashMap<String, BooleanOption> databases;
 
     public final static String FEAT_SEPARATE = "separately";
     public final static String FEAT_QUALIFIERS = "qualifiers";
 
+    public final static String BACKEND_EBI = "ebi";
+    public final static String BACKEND_LOCAL = "local";
+
+    public final static String ORDER_LONGEST_FIRST = "longestFirst";
+    public final static String ORDER_SHORTEST_FIRST = "shortestFirst";
+    public final static String ORDER_SELECTION = "selection";
+
+    // The result types of EBI's REST API.
+    public final static String FORMAT_XML = "xml";
+    public final static String FORMAT_JSON = "json";
+    public final static String FORMAT_TSV = "tsv";
+
 
     /**
      * Build the Options box for Interproscan.
      */
     public InterproscanOptions() {
         addEmailAddressOptions();
+        addBackendOptions();
         addSearchOptions();
         addExtraFeatureOptions();
+        addCacheOptions();
         addFeatureTypeOptions();
         addDatabaseOptions();
     }
@@ -64,13 +76,78 @@ class InterproscanOptions extends Options {
         emailAddress.setDescription("For reporting Interproscan errors");
     }
 
+    /**
+     * Choose between the EBI web service and a local InterProScan installation.
+     */
+    private void addBackendOptions() {
+        List<OptionValue> values = Arrays.asList(
+                new OptionValue(
+                        BACKEND_EBI,
+                        "EBI web service",
+                        "Submit each sequence to the InterProScan web service at EMBL-EBI"
+                ),
+                new OptionValue(
+                        BACKEND_LOCAL,
+                        "Local InterProScan",
+                        "Run a locally installed interproscan.sh over batches of sequences"
+                )
+        );
+        backend = addComboBoxOption("backend", "Run searches with:", values, values.get(0));
+        backend.setDescription("Choose where the searches are run");
+
+        restEndpoint = addStringOption("restEndpoint", "Web service address:", EbiRestBackend.DEFAULT_BASE_URL);
+        restEndpoint.setDescription("The InterProScan REST service to use, e.g. a regional mirror or a caching proxy");
+        restEndpoint.setAdvanced(true);
+
+        List<OptionValue> formats = Arrays.asList(
+                new OptionValue(FORMAT_XML, "XML", "The full result"),
+                new OptionValue(FORMAT_JSON, "JSON", "The full result, smaller and faster to read than XML"),
+                new OptionValue(FORMAT_TSV, "TSV",
+                        "The smallest result, but with descriptions in place of short names and no InterPro entry types")
+        );
+        resultFormat = addComboBoxOption("resultFormat", "Download results as:", formats, formats.get(0));
+        resultFormat.setDescription("The format results are fetched from the web service in; local InterProScan always uses XML");
+        resultFormat.setAdvanced(true);
+
+        precalculatedMatches = addFileSelectionOption("precalculatedMatches", "Precalculated matches:", "");
+        precalculatedMatches.setDescription("A downloaded file of InterProScan TSV results for UniParc proteins; "
+                + "sequences found in it by MD5 are not sent to the web service");
+        precalculatedMatches.setAdvanced(true);
+
+        List<OptionValue> orders = Arrays.asList(
+                new OptionValue(ORDER_LONGEST_FIRST, "Longest first",
+                        "The whole batch finishes soonest, without a tail of long jobs at the end"),
+                new OptionValue(ORDER_SHORTEST_FIRST, "Shortest first",
+                        "The first results arrive soonest"),
+                new OptionValue(ORDER_SELECTION, "In selection order",
+                        "Sequences are submitted in the order they were selected")
+        );
+        submissionOrder = addComboBoxOption("submissionOrder", "Submit sequences:", orders, orders.get(0));
+        submissionOrder.setDescription("The order sequences are sent to the web service in; results always go back to the documents they came from");
+        submissionOrder.setAdvanced(true);
+
+        maximumConcurrentJobs = addIntegerOption("maximumConcurrentJobs", "Most jobs at once:",
+                SlotPool.DEFAULT_CAPACITY, 1, ConcurrencyLimiter.DEFAULT_CEILING);
+        maximumConcurrentJobs.setDescription("The most jobs kept at the web service at once; fewer are used while it is "
+                + "slow or failing. EBI asks for no more than " + ConcurrencyLimiter.DEFAULT_CEILING);
+        maximumConcurrentJobs.setAdvanced(true);
+
+        localExecutable = addFileSelectionOption("localExecutable", "interproscan.sh:", "");
+        localExecutable.setDescription("The interproscan.sh script of a local InterProScan installation");
+        localBatchSize = addIntegerOption("localBatchSize", "Sequences per batch:", 1000, 1, 100000);
+        localBatchSize.setDescription("How many sequences are passed to each run of interproscan.sh");
+        localBatchSize.setAdvanced(true);
+        int defaultParallel = Math.max(1, Runtime.getRuntime().availableProcessors() / 8);
+        localParallelBatches = addIntegerOption("localParallelBatches", "Batches in parallel:", defaultParallel, 1, 64);
+        localParallelBatches.setDescription("How many runs of interproscan.sh share the available cores");
+        localParallelBatches.setAdvanced(true);
+    }
+
     private void addSearchOptions() {
-        goTerms = addBooleanOption("goterms", "goterms", false);
-        goTerms.setDescription("Adds the 'goterms' option to the database search.");
-        goTerms.setHidden();
-        pathways = addBooleanOption("pathways", "pathways", false);
-        pathways.setDescription("Adds the 'pathways' option to the database search.");
-        pathways.setHidden();
+        goTerms = addBooleanOption("goterms", "GO terms", false);
+        goTerms.setDescription("Looks up the GO terms of each InterPro entry and adds them to its annotations.");
+        pathways = addBooleanOption("pathways", "Pathways", false);
+        pathways.setDescription("Looks up the pathways of each InterPro entry and adds them to its annotations.");
     }
 
     /**
@@ -82,6 +159,22 @@ class InterproscanOptions extends Options {
     }
 
 
+    /**
+     * Choose whether to reuse results for sequences that were scanned before.
+     */
+    private void addCacheOptions() {
+        useCache = addBooleanOption("useResultCache", "Reuse results for previously scanned sequences", true);
+        useCache.setDescription("Skips EBI for sequences already scanned with the same applications, using locally cached results");
+        incrementalScan = addBooleanOption("incrementalScan", "Only search newly selected databases for previously scanned sequences", true);
+        incrementalScan.setDescription("Sequences with cached results for some of the selected applications are sent to EBI for the others only, and the results are combined");
+        incrementalScan.setAdvanced(true);
+        resumeJobs = addBooleanOption("resumeJobs", "Resume EBI jobs left unfinished by earlier runs", true);
+        resumeJobs.setDescription("Picks up jobs from a cancelled or interrupted run of the same sequences, instead of submitting them again");
+        applyAsScanned = addBooleanOption("applyAsScanned", "Save annotations to each sequence as soon as it is scanned", false);
+        applyAsScanned.setDescription("For very large batches: each sequence is saved as its results arrive, so memory use stays flat and a late failure loses nothing");
+    }
+
+
     /**
      * Choose between annotating modes.
      */
@@ -129,6 +222,45 @@ class InterproscanOptions extends Options {
         return emailAddress.getValue();
     }
 
+    public String getBackend() {
+        return backend.getValue().toString();
+    }
+
+    public String getRestEndpoint() {
+        return restEndpoint.getValue().trim();
+    }
+
+    public String getResultFormat() {
+        return resultFormat.getValue().toString();
+    }
+
+    /**
+     * @return The precalculated match file, or an empty string if there is none.
+     */
+    public String getPrecalculatedMatches() {
+        return precalculatedMatches.getValue().trim();
+    }
+
+    public String getSubmissionOrder() {
+        return submissionOrder.getValue().toString();
+    }
+
+    public int getMaximumConcurrentJobs() {
+        return maximumConcurrentJobs.getValue();
+    }
+
+    public String getLocalExecutable() {
+        return localExecutable.getValue();
+    }
+
+    public int getLocalBatchSize() {
+        return localBatchSize.getValue();
+    }
+
+    public int getLocalParallelBatches() {
+        return localParallelBatches.getValue();
+    }
+
     public boolean isGotermsSelected() {
         return goTerms.getValue();
     }
@@ -152,6 +284,43 @@ class InterproscanOptions extends Options {
     }
 
 
+    /**
+     * Check if results may be served from, and stored in, the result cache.
+     *
+     * @return true if the cache is enabled.
+     */
+    public boolean isResultCacheSelected() {
+        return useCache.getValue();
+    }
+
+
+    /**
+     * Check if cached results for some of the selected applications are
+     * combined with a search of just the others.
+     *
+     * @return true if scans are incremental.
+     */
+    public boolean isIncrementalScanSelected() {
+        return useCache.getValue() && incrementalScan.getValue();
+    }
+
+
+    public boolean isResumeJobsSelected() {
+        return resumeJobs.getValue();
+    }
+
+
+    /**
+     * Check if annotations are saved to each document as its results
+     * arrive, rather than all together at the end.
+     *
+     * @return true if results are applied as they arrive.
+     */
+    public boolean isApplyAsScannedSelected() {
+        return applyAsScanned.getValue();
+    }
+
+
     /**
      * Create the GUI for the options.
      *
@@ -177,8 +346,9 @@ class InterproscanOptions extends Options {
 
 
     /**
-     * Check that the selected options are valid. In fact, only one option matters - EBI insists on a valid email address
-     * being passed in.  We cannot confirm the address exists, but we can at least ensure it is of a valid format.
+     * Check that the selected options are valid. For EBI, only one option matters - EBI insists on a valid email address
+     * being passed in.  We cannot confirm the address exists, but we can at least ensure it is of a valid format. For a
+     * local installation, the script must exist and be executable.
      *
      * @return null if valid, otherwise a message telling the user what to rectify.
      */
@@ -190,6 +360,19 @@ class InterproscanOptions extends Options {
             return superMessage;
         }
 
+        if (BACKEND_LOCAL.equals(getBackend())) {
+            File executable = new File(getLocalExecutable());
+            if (!executable.isFile() || !executable.canExecute()) {
+                return "Please Choose The interproscan.sh Script Of A Local InterProScan Installation";
+            }
+            return null;
+        }
+
+        UrlValidator urlValidator = new UrlValidator(new String[]{"http", "https"}, UrlValidator.ALLOW_LOCAL_URLS);
+        if (!urlValidator.isValid(getRestEndpoint())) {
+            return "Please Enter A Valid Web Service Address";
+        }
+
         EmailValidator emailValidator = EmailValidator.getInstance();
         if (!emailValidator.isValid(getEmailAddress())) {
             return "Please Enter A Valid Email Address";
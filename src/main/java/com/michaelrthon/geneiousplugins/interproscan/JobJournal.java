@@ -0,0 +1,250 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * An append-only record of the EBI jobs started by every Runner, so that
+ * a run that was cancelled or crashed can be picked up again. A later run
+ * over the same sequences re-attaches to their jobs, rather than
+ * submitting them again.
+ *
+ * Each state change of a job is one tab separated line: the time, the
+ * status, the search key (see {@link ResultCache#keyFor}), the jobid and
+ * the document's URN. Only the latest line for each key matters, and only
+ * while the job may still be resumed: once its results are in the result
+ * cache, or it has failed, the job is forgotten. A job whose results were
+ * downloaded but not cached is kept, since a run that stopped before they
+ * were applied can only fetch them again from EBI. Only such jobs and
+ * those in flight are kept in memory, and the file is compacted down to
+ * them whenever it has grown well past that.
+ */
+class JobJournal implements Closeable {
+
+    /**
+     * EBI keeps results for about a week; older jobs are not worth asking for.
+     */
+    final static long RETENTION = TimeUnit.DAYS.toMillis(7);
+
+    final static String SUBMITTED = "SUBMITTED";
+    final static String DOWNLOADED = "DOWNLOADED";
+    final static String CACHED = "CACHED";
+    final static String EXPIRED = "EXPIRED";
+
+    /**
+     * The statuses of a job that may still be running or hold results
+     * that are not in the result cache.
+     */
+    private final static Set<String> RESUMABLE = Set.of(SUBMITTED, "QUEUED", "RUNNING", "FINISHED", DOWNLOADED);
+
+    private final static int COMPACT_SLACK = 1000;
+    private static JobJournal instance;
+
+    private final static Logger logger = Logger.getLogger(JobJournal.class.getName());
+
+    private final Path file;
+    private final Map<String, Entry> latest = new HashMap<>();
+    private Writer writer;
+    private boolean endsMidLine;
+    // Lines in the file, whether current or not.
+    private int lines;
+
+
+    /**
+     * @param file  The journal file, created if it does not exist.
+     */
+    JobJournal(File file) {
+        this.file = file.toPath();
+        load();
+    }
+
+
+    /**
+     * @return The journal shared by all Runners, stored in the user's home directory.
+     */
+    static synchronized JobJournal getInstance() {
+        if (instance == null) {
+            instance = new JobJournal(new File(System.getProperty("user.home"),
+                    ".interproscan-plugin" + File.separator + "jobs.journal"));
+        }
+        return instance;
+    }
+
+
+    /**
+     * @param key   The search key.
+     * @param now   The current time.
+     *
+     * @return The latest job for the search, if it may still be running
+     *         or hold results, or null.
+     */
+    synchronized Entry find(String key, long now) {
+        Entry entry = latest.get(key);
+        return entry != null && now - entry.time < RETENTION ? entry : null;
+    }
+
+
+    /**
+     * Appends a state change, flushing it straight away. A job that can
+     * no longer be resumed is dropped from memory; its line remains only
+     * to override earlier ones until the file is next compacted.
+     *
+     * @param key           The search key.
+     * @param jobid         The EBI job.
+     * @param documentId    The URN of the (first) document searched.
+     * @param status        The job's new status.
+     */
+    synchronized void record(String key, String jobid, String documentId, String status) {
+        Entry entry = new Entry(System.currentTimeMillis(), status, key, jobid, documentId);
+        if (RESUMABLE.contains(status)) {
+            latest.put(key, entry);
+        } else {
+            latest.remove(key);
+        }
+        if (lines > 2 * latest.size() + COMPACT_SLACK) {
+            closeWriter();
+            compact();
+        }
+        try {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            if (endsMidLine) {
+                writer.write('\n');
+                endsMidLine = false;
+            }
+            writer.write(entry.toLine());
+            writer.write('\n');
+            writer.flush();
+            lines++;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to write to job journal " + file, e);
+        }
+    }
+
+
+    private void closeWriter() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to close job journal " + file, e);
+        }
+        writer = null;
+    }
+
+
+    /**
+     * Closes the file, which is opened again by the next state change.
+     */
+    @Override
+    public synchronized void close() {
+        closeWriter();
+    }
+
+
+    private void load() {
+        try {
+            Files.createDirectories(file.getParent());
+            if (!Files.exists(file)) {
+                return;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines++;
+                    // A crash may have left the last line incomplete.
+                    Entry entry = Entry.parse(line);
+                    if (entry != null) {
+                        latest.put(entry.key, entry);
+                    }
+                }
+            }
+            try (RandomAccessFile in = new RandomAccessFile(file.toFile(), "r")) {
+                if (in.length() > 0) {
+                    in.seek(in.length() - 1);
+                    endsMidLine = in.read() != '\n';
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to read job journal " + file, e);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        latest.values().removeIf(entry -> !RESUMABLE.contains(entry.status) || now - entry.time >= RETENTION);
+        if (lines > 2 * latest.size() + COMPACT_SLACK) {
+            compact();
+        }
+    }
+
+
+    private void compact() {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Entry entry : latest.values()) {
+                    out.write(entry.toLine());
+                    out.write('\n');
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lines = latest.size();
+            endsMidLine = false;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to compact job journal " + file, e);
+        }
+    }
+
+
+    /**
+     * One state change of a job.
+     */
+    final static class Entry {
+        final long time;
+        final String status, key, jobid, documentId;
+
+        Entry(long time, String status, String key, String jobid, String documentId) {
+            this.time = time;
+            this.status = status;
+            this.key = key;
+            this.jobid = jobid;
+            this.documentId = documentId;
+        }
+
+        String toLine() {
+            return time + "\t" + status + "\t" + key + "\t" + jobid + "\t" + documentId;
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 5 || fields[2].isEmpty() || fields[3].isEmpty()) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(fields[0]), fields[1], fields[2], fields[3], fields[4]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+}
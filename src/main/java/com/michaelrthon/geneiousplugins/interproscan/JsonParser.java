@@ -0,0 +1,510 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single pass parser for InterProScan JSON results.
+ *
+ * The JSON result carries the same fields as the XML one, so it yields
+ * the same annotations. Rather than building a tree, the parser walks
+ * the bytes as they stream in, picking out the fields it needs and
+ * skipping everything else. Keys are matched without making strings of
+ * them, and strings are only made for the values that are kept.
+ * Annotations are built by the {@link XmlParser}.
+ */
+final class JsonParser implements ResultParser {
+
+    private final static Logger logger = Logger.getLogger(JsonParser.class.getName());
+
+    // The keys that are read; any others are skipped.
+    private final static String[] KEYS = {
+            "results", "matches", "signature", "accession", "name", "signatureLibraryRelease",
+            "library", "entry", "type", "goXRefs", "pathwayXRefs", "databaseName", "id", "locations",
+            "start", "end"
+    };
+    private final static int RESULTS = 0, MATCHES = 1, SIGNATURE = 2, ACCESSION = 3, NAME = 4,
+            LIBRARY_RELEASE = 5, LIBRARY = 6, ENTRY = 7, TYPE = 8, GO_XREFS = 9, PATHWAY_XREFS = 10,
+            DATABASE_NAME = 11, ID = 12, LOCATIONS = 13, START = 14, END = 15;
+    private final static byte[][] KEY_BYTES = new byte[KEYS.length][];
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEY_BYTES[i] = KEYS[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final XmlParser annotations;
+    private final EntryDictionary dictionary;
+
+
+    /**
+     * @param annotations   Builds the annotations for each match.
+     */
+    JsonParser(XmlParser annotations) {
+        this.annotations = annotations;
+        this.dictionary = annotations.getDictionary();
+    }
+
+
+    @Override
+    public AnnotationGeneratorResult parse(InputStream in, int seqLength) {
+        try {
+            Cursor json = new Cursor(in);
+            AnnotationGeneratorResult result = new AnnotationGeneratorResult();
+            boolean sawProtein = false;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.key() != RESULTS) {
+                    json.skipValue();
+                } else if (json.beginArrayOrNull()) {
+                    while (json.hasNext()) {
+                        sawProtein = true;
+                        readProtein(json, result, seqLength);
+                    }
+                }
+            }
+
+            // As with XML, a result without proteins means no matches.
+            return sawProtein ? result : annotations.emptyResult(seqLength);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to parse InterProScan result", e);
+            return annotations.errorResult(seqLength);
+        }
+    }
+
+
+    private void readProtein(Cursor json, AnnotationGeneratorResult result, int seqLength) throws IOException {
+        json.beginObject();
+        while (json.hasNext()) {
+            if (json.key() != MATCHES) {
+                json.skipValue();
+            } else if (json.beginArrayOrNull()) {
+                while (json.hasNext()) {
+                    annotations.addAnnotations(readMatch(json), result, seqLength);
+                }
+            }
+        }
+    }
+
+
+    private XmlParser.Match readMatch(Cursor json) throws IOException {
+        XmlParser.Match match = new XmlParser.Match();
+        json.beginObject();
+        while (json.hasNext()) {
+            int key = json.key();
+            if (key == SIGNATURE) {
+                if (json.beginObjectOrNull()) {
+                    match.hasSignature = true;
+                    readSignature(json, match);
+                }
+            } else if (key == LOCATIONS) {
+                if (json.beginArrayOrNull()) {
+                    while (json.hasNext()) {
+                        readLocation(json, match);
+                    }
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+        return match;
+    }
+
+
+    private void readSignature(Cursor json, XmlParser.Match match) throws IOException {
+        while (json.hasNext()) {
+            int key = json.key();
+            if (key == ACCESSION) {
+                match.id = json.string();
+            } else if (key == NAME) {
+                match.name = json.string();
+            } else if (key == LIBRARY_RELEASE) {
+                if (json.beginObjectOrNull()) {
+                    while (json.hasNext()) {
+                        if (json.key() == LIBRARY) {
+                            match.dbName = json.string();
+                        } else {
+                            json.skipValue();
+                        }
+                    }
+                }
+            } else if (key == ENTRY) {
+                // Null if not yet integrated into InterPro.
+                if (json.beginObjectOrNull()) {
+                    readEntry(json, match);
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+    }
+
+
+    private void readEntry(Cursor json, XmlParser.Match match) throws IOException {
+        while (json.hasNext()) {
+            int key = json.key();
+            if (key == ACCESSION) {
+                match.iprId = json.string();
+            } else if (key == NAME) {
+                match.iprName = json.string();
+            } else if (key == TYPE) {
+                match.iprType = json.string();
+            } else if (key == GO_XREFS || key == PATHWAY_XREFS) {
+                List<EntryDictionary.Xref> xrefs = key == GO_XREFS ? match.goTerms : match.pathways;
+                if (json.beginArrayOrNull()) {
+                    while (json.hasNext()) {
+                        xrefs.add(readXref(json));
+                    }
+                }
+            } else {
+                json.skipValue();
+            }
+        }
+    }
+
+
+    private EntryDictionary.Xref readXref(Cursor json) throws IOException {
+        String db = null, id = null, name = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            int key = json.key();
+            if (key == DATABASE_NAME) {
+                db = json.string();
+            } else if (key == ID) {
+                id = json.string();
+            } else if (key == NAME) {
+                name = json.string();
+            } else {
+                json.skipValue();
+            }
+        }
+        return dictionary.xref(db, id, name);
+    }
+
+
+    private void readLocation(Cursor json, XmlParser.Match match) throws IOException {
+        int start = 0, end = 0;
+        json.beginObject();
+        while (json.hasNext()) {
+            int key = json.key();
+            if (key == START) {
+                start = json.integer();
+            } else if (key == END) {
+                end = json.integer();
+            } else {
+                json.skipValue();
+            }
+        }
+        match.locations.add(start);
+        match.locations.add(end);
+    }
+
+
+    /**
+     * A position in a JSON document, with just the reading operations the
+     * parser needs. Objects and arrays are read the same way: begin, then
+     * loop while {@link #hasNext}, reading a key and a value per member of
+     * an object, or a value per element of an array.
+     *
+     * The document is read from its stream a buffer at a time, so only
+     * the buffer and the string being read are ever held in memory.
+     */
+    private final static class Cursor {
+        private final static int BUFFER_SIZE = 8192;
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int pos, limit;
+        // Bytes of the document before the buffer, for error messages.
+        private long offset;
+        // The bytes of the key or string being read.
+        private byte[] scratch = new byte[256];
+        private int scratchLength;
+
+        Cursor(InputStream in) {
+            this.in = in;
+        }
+
+        void beginObject() throws IOException {
+            expect('{');
+        }
+
+        /**
+         * @return True if an object has begun, false if the value was null.
+         */
+        boolean beginObjectOrNull() throws IOException {
+            if (peek() == 'n') {
+                literal("null");
+                return false;
+            }
+            expect('{');
+            return true;
+        }
+
+        /**
+         * @return True if an array has begun, false if the value was null.
+         */
+        boolean beginArrayOrNull() throws IOException {
+            if (peek() == 'n') {
+                literal("null");
+                return false;
+            }
+            expect('[');
+            return true;
+        }
+
+        /**
+         * @return True if the current object or array has another member,
+         *         false (having consumed its end) if not.
+         */
+        boolean hasNext() throws IOException {
+            byte b = peek();
+            if (b == ',') {
+                pos++;
+                return true;
+            }
+            if (b == '}' || b == ']') {
+                pos++;
+                return false;
+            }
+            // The first member.
+            return true;
+        }
+
+        /**
+         * Reads a key and its colon.
+         *
+         * @return The key's index in KEYS, or -1 if it is not one of them.
+         */
+        int key() throws IOException {
+            expect('"');
+            scratchLength = 0;
+            for (byte b = next(); b != '"'; b = next()) {
+                keep(b);
+                if (b == '\\') {
+                    keep(next());
+                }
+            }
+            int found = -1;
+            for (int k = 0; k < KEY_BYTES.length && found < 0; k++) {
+                if (scratchEquals(KEY_BYTES[k])) {
+                    found = k;
+                }
+            }
+            expect(':');
+            return found;
+        }
+
+        /**
+         * @return The string value, or null if the value was null.
+         */
+        String string() throws IOException {
+            if (peek() == 'n') {
+                literal("null");
+                return null;
+            }
+            expect('"');
+            scratchLength = 0;
+            byte b = next();
+            while (b != '"' && b != '\\') {
+                keep(b);
+                b = next();
+            }
+            if (b == '"') {
+                return new String(scratch, 0, scratchLength, StandardCharsets.UTF_8);
+            }
+
+            // Escapes are rare; decode what came before them, then the rest.
+            StringBuilder sb = new StringBuilder(new String(scratch, 0, scratchLength, StandardCharsets.UTF_8));
+            while (b != '"') {
+                if (b != '\\') {
+                    scratchLength = 0;
+                    while (b != '"' && b != '\\') {
+                        keep(b);
+                        b = next();
+                    }
+                    sb.append(new String(scratch, 0, scratchLength, StandardCharsets.UTF_8));
+                    continue;
+                }
+                char c = (char) next();
+                switch (c) {
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        char[] hex = {(char) next(), (char) next(), (char) next(), (char) next()};
+                        sb.append((char) Integer.parseInt(new String(hex), 16));
+                        break;
+                    default: sb.append(c);
+                }
+                b = next();
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Reads a whole number without making a string of it.
+         */
+        int integer() throws IOException {
+            boolean negative = peek() == '-';
+            if (negative) {
+                pos++;
+            }
+            int digits = 0;
+            int value = 0;
+            for (int b = peekRaw(); b >= '0' && b <= '9'; b = peekRaw()) {
+                value = value * 10 + (b - '0');
+                pos++;
+                digits++;
+            }
+            if (digits == 0) {
+                fail("Expected a number");
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * Skips a value of any type, including nested objects and arrays.
+         */
+        void skipValue() throws IOException {
+            byte b = peek();
+            if (b == '"') {
+                pos++;
+                skipString();
+            } else if (b == '{' || b == '[') {
+                pos++;
+                int depth = 1;
+                while (depth > 0) {
+                    byte c = next();
+                    if (c == '"') {
+                        skipString();
+                    } else if (c == '{' || c == '[') {
+                        depth++;
+                    } else if (c == '}' || c == ']') {
+                        depth--;
+                    }
+                }
+            } else {
+                // A number, true, false or null.
+                for (int c = peekRaw(); c >= 0 && c != ',' && c != '}' && c != ']'
+                        && !Character.isWhitespace(c); c = peekRaw()) {
+                    pos++;
+                }
+            }
+        }
+
+        /**
+         * Skips the rest of a string whose opening quote has been read.
+         */
+        private void skipString() throws IOException {
+            for (byte b = next(); b != '"'; b = next()) {
+                if (b == '\\') {
+                    next();
+                }
+            }
+        }
+
+        private void literal(String literal) throws IOException {
+            for (int i = 0; i < literal.length(); i++) {
+                if (next() != literal.charAt(i)) {
+                    fail("Expected " + literal);
+                }
+            }
+        }
+
+        private void expect(char c) throws IOException {
+            if (peek() != c) {
+                fail("Expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        /**
+         * Skips whitespace.
+         *
+         * @return The next byte, which is not consumed.
+         */
+        private byte peek() throws IOException {
+            int b = peekRaw();
+            while (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                pos++;
+                b = peekRaw();
+            }
+            if (b < 0) {
+                fail("Unexpected end of result");
+            }
+            return (byte) b;
+        }
+
+        /**
+         * @return The next byte, not consumed, or -1 at the end of the document.
+         */
+        private int peekRaw() throws IOException {
+            return pos < limit || fill() ? buffer[pos] : -1;
+        }
+
+        /**
+         * @return The next byte, consumed.
+         */
+        private byte next() throws IOException {
+            if (pos == limit && !fill()) {
+                fail("Unexpected end of result");
+            }
+            return buffer[pos++];
+        }
+
+        /**
+         * Reads the next buffer of the document.
+         *
+         * @return false at the end of the document.
+         */
+        private boolean fill() throws IOException {
+            offset += limit;
+            pos = 0;
+            limit = 0;
+            int read = in.read(buffer);
+            while (read == 0) {
+                read = in.read(buffer);
+            }
+            if (read < 0) {
+                return false;
+            }
+            limit = read;
+            return true;
+        }
+
+        private void keep(byte b) {
+            if (scratchLength == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            scratch[scratchLength++] = b;
+        }
+
+        private boolean scratchEquals(byte[] key) {
+            if (scratchLength != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (scratch[i] != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void fail(String message) {
+            throw new IllegalArgumentException(message + " at offset " + (offset + pos));
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Runs a locally installed InterProScan (interproscan.sh) over many
+ * sequences at once, instead of submitting them one at a time to EBI.
+ *
+ * The sequences are split into batches, each written as one multi-FASTA
+ * file and run as a separate interproscan.sh process. Several batches run
+ * in parallel, sharing the available cores. Each batch's XML output is
+ * streamed through the parser, and results are handed back per sequence.
+ */
+class LocalInterproscanEngine {
+
+    private final static Logger logger = Logger.getLogger(LocalInterproscanEngine.class.getName());
+    private final static String ID_PREFIX = "s";
+
+    private final File executable;
+    private final List<String> appl;
+    private final boolean goterms;
+    private final boolean pathways;
+    private final int batchSize;
+    private final int parallelBatches;
+    private final XmlParser xmlParser;
+
+
+    /**
+     * Receives the result for each sequence, possibly from several threads.
+     */
+    interface ResultHandler {
+        /**
+         * @param sequenceIndex The index of the sequence in the list passed to {@link #scan}.
+         * @param result        Its annotations.
+         * @param failure       Why it could not be scanned, or null if it was.
+         */
+        void accept(int sequenceIndex, AnnotationGeneratorResult result, String failure);
+    }
+
+
+    /**
+     * @param executable        The interproscan.sh script.
+     * @param appl              The member databases to search, as named by EBI.
+     * @param goterms           Whether to look up GO terms.
+     * @param pathways          Whether to look up pathways.
+     * @param batchSize         The number of sequences per interproscan.sh run.
+     * @param parallelBatches   The number of runs at once.
+     * @param xmlParser         Parses the output, configured for the feature type.
+     */
+    LocalInterproscanEngine(File executable, List<String> appl, boolean goterms, boolean pathways,
+                            int batchSize, int parallelBatches, XmlParser xmlParser) {
+        this.executable = executable;
+        this.appl = appl;
+        this.goterms = goterms;
+        this.pathways = pathways;
+        this.batchSize = Math.max(1, batchSize);
+        this.parallelBatches = Math.max(1, parallelBatches);
+        this.xmlParser = xmlParser;
+    }
+
+
+    /**
+     * Scans the sequences, calling the handler for every one of them
+     * (with an error result for any batch that fails) before returning.
+     *
+     * @param sequences The protein sequences.
+     * @param handler   Receives each result.
+     * @param cancelled Polled while waiting; when true, running batches are stopped.
+     *
+     * @throws IOException          if the working directory cannot be created.
+     * @throws InterruptedException if interrupted or cancelled.
+     */
+    void scan(List<String> sequences, ResultHandler handler, BooleanSupplier cancelled)
+            throws IOException, InterruptedException {
+        Path workDir = Files.createTempDirectory("interproscan");
+        int cpusPerBatch = Math.max(1, Runtime.getRuntime().availableProcessors() / parallelBatches);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelBatches);
+        try {
+            List<Future<?>> batches = new ArrayList<>();
+            for (int start = 0; start < sequences.size(); start += batchSize) {
+                int from = start;
+                int to = Math.min(sequences.size(), start + batchSize);
+                batches.add(executor.submit(() -> {
+                    runBatch(workDir, sequences, from, to, cpusPerBatch, handler, cancelled);
+                    return null;
+                }));
+            }
+            for (Future<?> batch : batches) {
+                try {
+                    batch.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof InterruptedException) {
+                        throw (InterruptedException) e.getCause();
+                    }
+                    throw new IOException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            deleteRecursively(workDir);
+        }
+    }
+
+
+    private void runBatch(Path workDir, List<String> sequences, int from, int to, int cpus,
+                          ResultHandler handler, BooleanSupplier cancelled) throws InterruptedException {
+        boolean[] handled = new boolean[to - from];
+        try {
+            Path fasta = workDir.resolve("batch" + from + ".fasta");
+            Path output = workDir.resolve("batch" + from + ".xml");
+            Path log = workDir.resolve("batch" + from + ".log");
+            writeFasta(fasta, sequences, from, to);
+
+            Process process = new ProcessBuilder(command(fasta, output, workDir.resolve("tmp" + from), cpus))
+                    .redirectErrorStream(true)
+                    .redirectOutput(log.toFile())
+                    .start();
+            try {
+                while (!process.waitFor(250, TimeUnit.MILLISECONDS)) {
+                    if (cancelled.getAsBoolean()) {
+                        throw new InterruptedException("Cancelled");
+                    }
+                }
+            } finally {
+                if (process.isAlive()) {
+                    process.destroyForcibly();
+                }
+            }
+            if (process.exitValue() != 0) {
+                throw new IOException("interproscan.sh exited with " + process.exitValue() + ": " + tail(log));
+            }
+
+            // Identical sequences in one batch may be reported under one protein with several xrefs.
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(output))) {
+                xmlParser.parseProteins(in,
+                        id -> sequences.get(indexOf(id)).length(),
+                        (ids, result) -> {
+                            for (String id : ids) {
+                                int index = indexOf(id);
+                                if (index >= from && index < to && !handled[index - from]) {
+                                    handled[index - from] = true;
+                                    handler.accept(index, result, null);
+                                }
+                            }
+                        });
+            }
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            logger.log(Level.SEVERE, "Local InterProScan failed for sequences " + from + "-" + (to - 1) + ": " + e.getMessage(), e);
+            String reason = "Local InterProScan failed: " + e.getMessage();
+            for (int i = from; i < to; i++) {
+                if (!handled[i - from]) {
+                    handled[i - from] = true;
+                    handler.accept(i, xmlParser.errorResult(sequences.get(i).length(), reason), reason);
+                }
+            }
+        }
+
+        // Sequences with no matches at all may be left out of the output.
+        for (int i = from; i < to; i++) {
+            if (!handled[i - from]) {
+                handler.accept(i, xmlParser.emptyResult(sequences.get(i).length()), null);
+            }
+        }
+    }
+
+
+    private List<String> command(Path fasta, Path output, Path tempDir, int cpus) {
+        List<String> command = new ArrayList<>();
+        command.add(executable.getAbsolutePath());
+        command.add("-i");
+        command.add(fasta.toString());
+        command.add("-f");
+        command.add("XML");
+        command.add("-o");
+        command.add(output.toString());
+        command.add("-T");
+        command.add(tempDir.toString());
+        command.add("-cpu");
+        command.add(Integer.toString(cpus));
+        if (!appl.isEmpty()) {
+            command.add("-appl");
+            command.add(String.join(",", localApplicationNames(appl)));
+        }
+        if (goterms) {
+            command.add("-goterms");
+        }
+        if (pathways) {
+            command.add("-pa");
+        }
+        return command;
+    }
+
+
+    /**
+     * The command line names applications case-insensitively, and is the
+     * same as EBI's apart from Pfam.
+     */
+    static List<String> localApplicationNames(List<String> appl) {
+        List<String> names = new ArrayList<>(appl.size());
+        for (String name : appl) {
+            names.add(name.equals("PfamA") ? "Pfam" : name);
+        }
+        return names;
+    }
+
+
+    private static void writeFasta(Path fasta, List<String> sequences, int from, int to) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(fasta, StandardCharsets.US_ASCII)) {
+            for (int i = from; i < to; i++) {
+                writer.write(">" + ID_PREFIX + i + "\n");
+                String sequence = sequences.get(i);
+                for (int pos = 0; pos < sequence.length(); pos += 60) {
+                    writer.write(sequence, pos, Math.min(60, sequence.length() - pos));
+                    writer.write('\n');
+                }
+            }
+        }
+    }
+
+
+    private static int indexOf(String id) {
+        return Integer.parseInt(id.substring(ID_PREFIX.length()));
+    }
+
+
+    private static String tail(Path log) {
+        try {
+            List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+            return String.join("\n", lines.subList(Math.max(0, lines.size() - 5), lines.size()));
+        } catch (IOException e) {
+            return "(no output)";
+        }
+    }
+
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to remove " + dir, e);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Decides when each running job should next have its status checked.
+ *
+ * Every job gets its own next-poll time, kept in a priority queue. The
+ * first poll is seeded from an estimate of the job's runtime, based on
+ * its sequence length and the number of applications selected. Polls
+ * are then spaced at half the time expected to remain, so they cluster
+ * around the expected finish. Overdue jobs back off. Each finished job
+ * refines the runtime estimate for the rest of the run.
+ *
+ * All times are in milliseconds, and are passed in by the caller. For
+ * simulations against a fake service, every duration the scheduler
+ * works with can be scaled down by a common factor.
+ *
+ * @param <T> The job type.
+ */
+class PollScheduler<T> {
+
+    private final static long BASE_RUNTIME = 20_000;
+    private final static double SEED_MILLIS_PER_RESIDUE = 150;
+    private final static int ALL_APPLICATIONS = 21;
+    private final static long MIN_INTERVAL = 3_000;
+    private final static long MAX_INTERVAL = 60_000;
+    private final static double LEARNING_RATE = 0.3;
+
+    private final PriorityQueue<Entry<T>> queue = new PriorityQueue<>((a, b) -> Long.compare(a.nextPoll, b.nextPoll));
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+    private final long baseRuntime;
+    private final long minInterval;
+    private final long maxInterval;
+    private double millisPerResidue;
+    private long polls;
+
+
+    /**
+     * @param applicationCount  The number of member databases searched.
+     */
+    PollScheduler(int applicationCount) {
+        this(applicationCount, 1.0);
+    }
+
+
+    /**
+     * @param applicationCount  The number of member databases searched.
+     * @param timeScale         The factor applied to every duration; 1 for real time.
+     */
+    PollScheduler(int applicationCount, double timeScale) {
+        double share = Math.max(1, applicationCount) / (double) ALL_APPLICATIONS;
+        millisPerResidue = timeScale * SEED_MILLIS_PER_RESIDUE * Math.max(0.25, Math.min(1.0, share));
+        baseRuntime = Math.round(timeScale * BASE_RUNTIME);
+        minInterval = Math.max(1, Math.round(timeScale * MIN_INTERVAL));
+        maxInterval = Math.max(minInterval, Math.round(timeScale * MAX_INTERVAL));
+    }
+
+
+    /**
+     * Starts tracking a newly submitted job.
+     *
+     * @param job               The job.
+     * @param sequenceLength    The length of its sequence.
+     * @param now               The submission time.
+     */
+    synchronized void add(T job, int sequenceLength, long now) {
+        Entry<T> entry = new Entry<>(job, sequenceLength, now);
+        entry.nextPoll = now + clamp(expectedRuntime(sequenceLength) / 2);
+        entries.put(job, entry);
+        queue.add(entry);
+    }
+
+
+    /**
+     * Removes and returns the jobs whose poll time has come. Each must
+     * then be passed back to {@link #reschedule} or {@link #finished}.
+     *
+     * @param now   The current time.
+     *
+     * @return The jobs to poll now, most overdue first.
+     */
+    synchronized List<T> due(long now) {
+        return due(now, Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * Removes and returns the most overdue jobs whose poll time has come,
+     * leaving the rest for later.
+     *
+     * @param now   The current time.
+     * @param limit The most jobs to return.
+     *
+     * @return The jobs to poll now, most overdue first.
+     */
+    synchronized List<T> due(long now, int limit) {
+        List<T> due = new ArrayList<>();
+        while (due.size() < limit && !queue.isEmpty() && queue.peek().nextPoll <= now) {
+            due.add(queue.poll().job);
+        }
+        polls += due.size();
+        return due;
+    }
+
+
+    /**
+     * Schedules the next poll for a job that is still queued or running.
+     *
+     * @param job   A job returned by {@link #due}.
+     * @param now   The time its status was received.
+     */
+    synchronized void reschedule(T job, long now) {
+        Entry<T> entry = entries.get(job);
+        if (entry == null) {
+            return;
+        }
+        long remaining = entry.submitted + expectedRuntime(entry.sequenceLength) - now;
+        long interval = remaining > 0
+                ? remaining / 2
+                // Overdue: back off in proportion to how late it is.
+                : (now - entry.submitted) / 4;
+        entry.nextPoll = now + clamp(interval);
+        queue.add(entry);
+    }
+
+
+    /**
+     * Schedules the next poll for a job at a given time, such as after a
+     * failed status check.
+     *
+     * @param job   A job returned by {@link #due}.
+     * @param at    The time to poll it next.
+     */
+    synchronized void postpone(T job, long at) {
+        Entry<T> entry = entries.get(job);
+        if (entry == null) {
+            return;
+        }
+        entry.nextPoll = at;
+        queue.add(entry);
+    }
+
+
+    /**
+     * Stops tracking a job. If it finished normally, its runtime is used
+     * to refine the estimate for the remaining jobs.
+     *
+     * @param job       A job returned by {@link #due}.
+     * @param now       The time it was seen to finish.
+     * @param succeeded Whether it finished normally.
+     */
+    synchronized void finished(T job, long now, boolean succeeded) {
+        Entry<T> entry = entries.remove(job);
+        queue.remove(entry);
+        if (entry == null || !succeeded || entry.sequenceLength <= 0) {
+            return;
+        }
+        double observed = Math.max(0, now - entry.submitted - baseRuntime) / (double) entry.sequenceLength;
+        millisPerResidue += LEARNING_RATE * (observed - millisPerResidue);
+    }
+
+
+    /**
+     * @return The time of the earliest scheduled poll, or Long.MAX_VALUE if there are none.
+     */
+    synchronized long nextPoll() {
+        return queue.isEmpty() ? Long.MAX_VALUE : queue.peek().nextPoll;
+    }
+
+
+    /**
+     * @return The number of status checks handed out so far.
+     */
+    synchronized long getPolls() {
+        return polls;
+    }
+
+
+    /**
+     * @param sequenceLength    The length of a sequence.
+     *
+     * @return The estimated time from submission until it finishes.
+     */
+    synchronized long expectedRuntime(int sequenceLength) {
+        return baseRuntime + (long) (millisPerResidue * sequenceLength);
+    }
+
+
+    private long clamp(long interval) {
+        return Math.max(minInterval, Math.min(maxInterval, interval));
+    }
+
+
+    private final static class Entry<T> {
+        final T job;
+        final int sequenceLength;
+        final long submitted;
+        long nextPoll;
+
+        Entry(T job, int sequenceLength, long submitted) {
+            this.job = job;
+            this.sequenceLength = sequenceLength;
+            this.submitted = submitted;
+        }
+    }
+}
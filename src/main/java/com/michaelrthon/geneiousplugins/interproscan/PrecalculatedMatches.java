@@ -0,0 +1,452 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Looks up precalculated InterPro matches for a sequence by its MD5, in a
+ * locally downloaded file, so that proteins already in UniParc need no
+ * EBI job.
+ *
+ * The file holds InterProScan TSV rows, whose second column is the MD5 of
+ * the protein's sequence, with the rows of each protein together (as
+ * InterProScan writes them). The first time a file is used, an index of
+ * its proteins is built: a table of MD5, offset and length records sorted
+ * by MD5. The index is memory-mapped and searched by bisection, and a
+ * hit's rows are read straight from the file.
+ *
+ * Indexes are kept in the user's home directory and rebuilt whenever
+ * their file changes. Lookups are safe from several threads at once.
+ *
+ * Each user of an instance closes it when done; its files are only closed
+ * once every user has, so a Runner still looking up matches is never cut
+ * off by another one opening a different or rebuilt file.
+ */
+final class PrecalculatedMatches implements AutoCloseable {
+
+    private final static Logger logger = Logger.getLogger(PrecalculatedMatches.class.getName());
+
+    private final static byte[] MAGIC = "IPRMD5I1".getBytes(StandardCharsets.US_ASCII);
+    // Magic, data file length, data file modification time, record count.
+    private final static int HEADER = 32;
+    // MD5, then the offset and length of the protein's rows.
+    private final static int RECORD = 16 + 8 + 4;
+    // Whole records per mapped chunk, since a mapping is limited to 2GB.
+    private final static int RECORDS_PER_CHUNK = Integer.MAX_VALUE / RECORD;
+
+    private final static Map<Path, PrecalculatedMatches> instances = new HashMap<>();
+
+    private final Path data;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final MappedByteBuffer[] chunks;
+    private final long count;
+    // The creator's reference, plus one for each getInstance caller.
+    private int references = 1;
+
+
+    /**
+     * Opens a precalculated match file, building its index first if need be.
+     *
+     * @param data          The file of TSV rows.
+     * @param indexFile     Where its index is kept.
+     *
+     * @throws IOException if either file cannot be read, or the index cannot be built.
+     */
+    PrecalculatedMatches(File data, File indexFile) throws IOException {
+        this.data = data.toPath();
+        Path index = indexFile.toPath();
+        if (!isCurrent(index)) {
+            buildIndex(this.data, index);
+        }
+        dataChannel = FileChannel.open(this.data, StandardOpenOption.READ);
+        indexChannel = FileChannel.open(index, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        indexChannel.read(header, 0);
+        count = header.getLong(24);
+        chunks = new MappedByteBuffer[(int) ((count + RECORDS_PER_CHUNK - 1) / RECORDS_PER_CHUNK)];
+        for (int c = 0; c < chunks.length; c++) {
+            long first = (long) c * RECORDS_PER_CHUNK;
+            long records = Math.min(RECORDS_PER_CHUNK, count - first);
+            chunks[c] = indexChannel.map(FileChannel.MapMode.READ_ONLY, HEADER + first * RECORD, records * RECORD);
+        }
+        logger.log(Level.INFO, "Precalculated matches for " + count + " proteins in " + data);
+    }
+
+
+    /**
+     * @param data  A precalculated match file.
+     *
+     * @return The matches in that file, shared by all Runners, with the
+     *         index stored in the user's home directory. The caller must
+     *         close them when it has finished looking up matches.
+     *
+     * @throws IOException if the file cannot be read or indexed.
+     */
+    static PrecalculatedMatches getInstance(File data) throws IOException {
+        synchronized (instances) {
+            Path path = data.toPath().toAbsolutePath();
+            File index = indexFor(data);
+            PrecalculatedMatches instance = instances.get(path);
+            if (instance == null || !instance.isCurrent(index.toPath())) {
+                PrecalculatedMatches current = new PrecalculatedMatches(data, index);
+                if (instance != null) {
+                    // Runners still using the old index keep it open until they are done.
+                    instance.close();
+                }
+                instances.put(path, current);
+                instance = current;
+            }
+            instance.references++;
+            return instance;
+        }
+    }
+
+
+    /**
+     * @param sequence  A trimmed protein sequence.
+     *
+     * @return The precalculated TSV rows for the sequence, or null if it
+     *         is not in the file.
+     *
+     * @throws IOException if the rows cannot be read.
+     */
+    byte[] find(String sequence) throws IOException {
+        byte[] md5 = md5(sequence);
+        long hi = ByteBuffer.wrap(md5).getLong(0);
+        long lo = ByteBuffer.wrap(md5).getLong(8);
+
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            ByteBuffer chunk = chunks[(int) (mid / RECORDS_PER_CHUNK)];
+            int at = (int) (mid % RECORDS_PER_CHUNK) * RECORD;
+            int cmp = compare(chunk.getLong(at), chunk.getLong(at + 8), hi, lo);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                ByteBuffer rows = ByteBuffer.allocate(chunk.getInt(at + 24));
+                long offset = chunk.getLong(at + 16);
+                while (rows.hasRemaining()) {
+                    if (dataChannel.read(rows, offset + rows.position()) < 0) {
+                        throw new IOException(data + " is shorter than its index");
+                    }
+                }
+                return rows.array();
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * @return The number of proteins in the file.
+     */
+    long size() {
+        return count;
+    }
+
+
+    /**
+     * Gives up this reference to the matches, closing their files once no
+     * other user holds one.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (instances) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+        }
+        dataChannel.close();
+        indexChannel.close();
+    }
+
+
+    /**
+     * @return Where the index of a data file is kept. Files of the same
+     *         name in different directories have different indexes.
+     */
+    private static File indexFor(File data) {
+        File dir = new File(System.getProperty("user.home"), ".interproscan-plugin" + File.separator + "precalculated");
+        return new File(dir, data.getName() + "-" + Integer.toHexString(data.getAbsolutePath().hashCode()) + ".md5idx");
+    }
+
+
+    /**
+     * @return true if the index exists and was built from the data file as it is now.
+     */
+    private boolean isCurrent(Path index) throws IOException {
+        if (!Files.isRegularFile(index) || Files.size(index) < HEADER) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+            channel.read(header, 0);
+        }
+        byte[] magic = new byte[MAGIC.length];
+        header.rewind();
+        header.get(magic);
+        return Arrays.equals(magic, MAGIC)
+                && header.getLong(8) == Files.size(data)
+                && header.getLong(16) == Files.getLastModifiedTime(data).toMillis()
+                && Files.size(index) == HEADER + header.getLong(24) * RECORD;
+    }
+
+
+    /**
+     * Reads the data file once, noting where each protein's rows are, and
+     * writes them sorted by MD5 to a new index.
+     */
+    private static void buildIndex(Path data, Path index) throws IOException {
+        logger.log(Level.INFO, "Indexing precalculated matches in " + data);
+        Records records = new Records();
+        try (InputStream in = Files.newInputStream(data)) {
+            byte[] buffer = new byte[1 << 16];
+            // Only the first two columns of a line are needed.
+            byte[] line = new byte[1024];
+            int lineLength = 0;
+            long lineStart = 0;
+            long offset = 0;
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        records.line(line, lineLength, lineStart);
+                        lineLength = 0;
+                        lineStart = offset + i + 1;
+                    } else if (lineLength < line.length) {
+                        line[lineLength++] = buffer[i];
+                    }
+                }
+                offset += read;
+            }
+            if (lineStart < offset) {
+                records.line(line, lineLength, lineStart);
+            }
+            records.end(offset);
+        }
+        records.sort();
+
+        Files.createDirectories(index.getParent());
+        Path temp = Files.createTempFile(index.getParent(), index.getFileName().toString(), ".tmp");
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.write(MAGIC);
+            out.writeLong(Files.size(data));
+            out.writeLong(Files.getLastModifiedTime(data).toMillis());
+            out.writeLong(records.distinct());
+            long previousHi = 0, previousLo = 0;
+            for (int i = 0; i < records.size; i++) {
+                // A protein whose rows are not together keeps only its first run of them.
+                if (i > 0 && records.hi[i] == previousHi && records.lo[i] == previousLo) {
+                    continue;
+                }
+                previousHi = records.hi[i];
+                previousLo = records.lo[i];
+                out.writeLong(records.hi[i]);
+                out.writeLong(records.lo[i]);
+                out.writeLong(records.offset[i]);
+                out.writeInt(records.length[i]);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.log(Level.INFO, "Indexed " + records.distinct() + " proteins in " + data);
+    }
+
+
+    /**
+     * @return The MD5 in a row's second column, as two longs, or null if
+     *         the row has none (e.g. a header or blank line).
+     */
+    private static long[] md5Column(byte[] line, int length) {
+        int tab = 0;
+        while (tab < length && line[tab] != '\t') {
+            tab++;
+        }
+        int start = tab + 1;
+        if (start + 32 > length || (start + 32 < length && line[start + 32] != '\t')) {
+            return null;
+        }
+        long[] md5 = new long[2];
+        for (int i = 0; i < 32; i++) {
+            int digit = Character.digit(line[start + i], 16);
+            if (digit < 0) {
+                return null;
+            }
+            md5[i / 16] = (md5[i / 16] << 4) | digit;
+        }
+        return md5;
+    }
+
+
+    /**
+     * @return The MD5 of a sequence, as UniParc computes it: over its upper case letters.
+     */
+    static byte[] md5(String sequence) {
+        try {
+            return MessageDigest.getInstance("MD5").digest(sequence.toUpperCase().getBytes(StandardCharsets.US_ASCII));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * Compares MD5s as unsigned 128 bit numbers, the order of their hex strings.
+     */
+    private static int compare(long hi1, long lo1, long hi2, long lo2) {
+        int cmp = Long.compareUnsigned(hi1, hi2);
+        return cmp != 0 ? cmp : Long.compareUnsigned(lo1, lo2);
+    }
+
+
+    /**
+     * The index records while it is built, in parallel arrays to keep
+     * millions of them compact.
+     */
+    private final static class Records {
+        long[] hi = new long[1024], lo = new long[1024], offset = new long[1024];
+        int[] length = new int[1024];
+        int size;
+
+        // The protein whose rows are being read, if any.
+        private boolean inProtein;
+        private long proteinHi, proteinLo, proteinStart;
+
+        /**
+         * Notes a line of the data file, starting a new record if it
+         * begins the rows of another protein.
+         *
+         * @param line      The start of the line.
+         * @param length    How much of it there is.
+         * @param start     Its offset in the file.
+         */
+        void line(byte[] line, int length, long start) {
+            long[] md5 = md5Column(line, length);
+            if (md5 == null || (inProtein && md5[0] == proteinHi && md5[1] == proteinLo)) {
+                return;
+            }
+            end(start);
+            inProtein = true;
+            proteinHi = md5[0];
+            proteinLo = md5[1];
+            proteinStart = start;
+        }
+
+        /**
+         * Ends the record of the current protein, if any.
+         *
+         * @param end   The offset just past its last row.
+         */
+        void end(long end) {
+            if (inProtein) {
+                add(proteinHi, proteinLo, proteinStart, end - proteinStart);
+                inProtein = false;
+            }
+        }
+
+        private void add(long h, long l, long o, long n) {
+            if (size == hi.length) {
+                int capacity = size * 2;
+                hi = Arrays.copyOf(hi, capacity);
+                lo = Arrays.copyOf(lo, capacity);
+                offset = Arrays.copyOf(offset, capacity);
+                length = Arrays.copyOf(length, capacity);
+            }
+            if (n > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many rows for one protein at offset " + o);
+            }
+            hi[size] = h;
+            lo[size] = l;
+            offset[size] = o;
+            length[size] = (int) n;
+            size++;
+        }
+
+        /**
+         * @return The number of distinct MD5s, once sorted.
+         */
+        long distinct() {
+            long distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (i == 0 || hi[i] != hi[i - 1] || lo[i] != lo[i - 1]) {
+                    distinct++;
+                }
+            }
+            return distinct;
+        }
+
+        /**
+         * Sorts by MD5, keeping records with the same MD5 in file order.
+         */
+        void sort() {
+            // Merge sort on an index permutation, which is stable.
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            int[] scratch = new int[size];
+            mergeSort(order, scratch, 0, size);
+
+            long[] h = new long[size], l = new long[size], o = new long[size];
+            int[] n = new int[size];
+            for (int i = 0; i < size; i++) {
+                h[i] = hi[order[i]];
+                l[i] = lo[order[i]];
+                o[i] = offset[order[i]];
+                n[i] = length[order[i]];
+            }
+            hi = h;
+            lo = l;
+            offset = o;
+            length = n;
+        }
+
+        private void mergeSort(int[] order, int[] scratch, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(order, scratch, from, mid);
+            mergeSort(order, scratch, mid, to);
+            int i = from, j = mid, k = from;
+            while (i < mid && j < to) {
+                int a = order[i], b = order[j];
+                scratch[k++] = compare(hi[b], lo[b], hi[a], lo[a]) < 0 ? order[j++] : order[i++];
+            }
+            while (i < mid) {
+                scratch[k++] = order[i++];
+            }
+            while (j < to) {
+                scratch[k++] = order[j++];
+            }
+            System.arraycopy(scratch, from, order, from, to - from);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+/**
+ * The proteins one run of the {@link Runner} scans, and where their
+ * annotations go when they are applied as they arrive. Proteins are
+ * referred to by their index in the batch.
+ */
+interface ProteinBatch {
+
+    /**
+     * @return The number of proteins.
+     */
+    int size();
+
+    /**
+     * @param index The protein's index.
+     *
+     * @return Its name, for messages.
+     */
+    String getName(int index);
+
+    /**
+     * @param index The protein's index.
+     *
+     * @return Its sequence, possibly ending with a terminator.
+     *
+     * @throws DocumentOperationException if the sequence cannot be loaded.
+     */
+    String getSequence(int index) throws DocumentOperationException;
+
+    /**
+     * @param index The protein's index.
+     *
+     * @return The number of residues before the part of the protein that
+     *         {@link #getSequence} returns, which annotations are moved
+     *         along by; 0 unless only part of the protein is scanned.
+     */
+    default int getOffset(int index) {
+        return 0;
+    }
+
+    /**
+     * @param index The protein's index.
+     *
+     * @return Where the protein came from, recorded in the job journal.
+     */
+    String getUrn(int index);
+
+    /**
+     * Adds annotations to a protein, called once per protein as its
+     * results arrive, and only on the run's coordinating thread.
+     *
+     * @param index     The protein's index.
+     * @param result    The annotations, of which there is at least one.
+     *
+     * @throws DocumentOperationException if they cannot be added.
+     */
+    void apply(int index, AnnotationGeneratorResult result) throws DocumentOperationException;
+}
@@ -0,0 +1,547 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A two level cache of raw InterProScan results, so that a protein which
+ * has already been scanned with the same settings is never sent to EBI
+ * again.
+ *
+ * The first level is an in-memory LRU shared by every Runner in the JVM,
+ * the second is a directory of gzipped result files which survives
+ * Geneious restarts. Both levels are bounded by size, and evict the least
+ * recently used entries first.
+ *
+ * Each sequence also has a list of the results cached for it and the
+ * member databases each covers, so that a scan with more databases can
+ * reuse them and search only the rest.
+ */
+class ResultCache {
+
+    private final static long DEFAULT_MEMORY_LIMIT = 32L * 1024 * 1024;
+    private final static long DEFAULT_DISK_LIMIT = 512L * 1024 * 1024;
+    // Whatever the result format; older entries were named .xml.gz.
+    private final static String SUFFIX = ".gz";
+    // Stands in for the member databases in the key of a sequence's list of results.
+    private final static String COVERAGE = "coverage";
+    // Changed whenever what a key stands for changes, so older entries no
+    // longer match. v2: the selected databases are sent to EBI; before, every
+    // search returned all of them.
+    private final static String KEY_VERSION = "v2";
+    private static ResultCache instance;
+
+    private final static Logger logger = Logger.getLogger(ResultCache.class.getName());
+
+    private final Path directory;
+    private final long memoryLimit;
+    private final long diskLimit;
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+    private long diskUsed;
+    private long hits;
+    private long misses;
+
+
+    /**
+     * @param directory     Where the persistent results are kept.
+     * @param memoryLimit   Maximum bytes of results held in memory.
+     * @param diskLimit     Maximum bytes of (compressed) results on disk.
+     */
+    ResultCache(File directory, long memoryLimit, long diskLimit) {
+        this.directory = directory.toPath();
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+        try {
+            Files.createDirectories(this.directory);
+            for (Path path : listEntries()) {
+                diskUsed += Files.size(path);
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open result cache at " + directory, e);
+        }
+    }
+
+
+    /**
+     * @return The cache shared by all Runners, stored in the user's home directory.
+     */
+    static synchronized ResultCache getInstance() {
+        if (instance == null) {
+            File dir = new File(System.getProperty("user.home"), ".interproscan-plugin" + File.separator + "results");
+            instance = new ResultCache(dir, DEFAULT_MEMORY_LIMIT, DEFAULT_DISK_LIMIT);
+        }
+        return instance;
+    }
+
+
+    /**
+     * Builds the cache key for a search. Anything which changes what EBI
+     * returns must be part of the key; display options (feature type etc.)
+     * are applied at parse time and so are not.
+     *
+     * @param sequence  The trimmed protein sequence.
+     * @param appl      The selected member databases.
+     * @param goterms   Whether GO terms were requested.
+     * @param pathways  Whether pathways were requested.
+     *
+     * @return A hex SHA-256 digest.
+     */
+    static String keyFor(String sequence, List<String> appl, boolean goterms, boolean pathways) {
+        return keyFor(sequence, appl, goterms, pathways, InterproscanOptions.FORMAT_XML);
+    }
+
+
+    /**
+     * Builds the cache key for a search whose result is fetched in the
+     * given format. Keys are versioned, so entries (and journalled jobs)
+     * from before a change in what a search returns are never reused.
+     *
+     * @param sequence  The trimmed protein sequence.
+     * @param appl      The selected member databases.
+     * @param goterms   Whether GO terms were requested.
+     * @param pathways  Whether pathways were requested.
+     * @param format    The result format.
+     *
+     * @return A hex SHA-256 digest.
+     */
+    static String keyFor(String sequence, List<String> appl, boolean goterms, boolean pathways, String format) {
+        StringBuilder sb = new StringBuilder(sequence.length() + 256);
+        sb.append(KEY_VERSION).append('\n');
+        sb.append(sequence.toUpperCase()).append('\n');
+        sb.append(String.join(",", appl)).append('\n');
+        sb.append("goterms=").append(goterms).append('\n');
+        sb.append("pathways=").append(pathways);
+        if (!InterproscanOptions.FORMAT_XML.equals(format)) {
+            sb.append('\n').append("format=").append(format);
+        }
+        return sha256(sb.toString());
+    }
+
+
+    /**
+     * Builds the key under which the results cached for a sequence are
+     * listed, whatever member databases they cover.
+     *
+     * @param sequence  The trimmed protein sequence.
+     * @param goterms   Whether GO terms were requested.
+     * @param pathways  Whether pathways were requested.
+     * @param format    The result format.
+     *
+     * @return A hex SHA-256 digest.
+     */
+    static String coverageKeyFor(String sequence, boolean goterms, boolean pathways, String format) {
+        return keyFor(sequence, List.of(COVERAGE), goterms, pathways, format);
+    }
+
+
+    /**
+     * Looks up a result, first in memory and then on disk.
+     *
+     * @param key   A key from {@link #keyFor}.
+     *
+     * @return The raw result, or null if it is not cached.
+     */
+    synchronized byte[] get(String key) {
+        byte[] result = lookup(key);
+        if (result == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+
+    /**
+     * @param key   A key from {@link #keyFor}.
+     *
+     * @return true if a result is cached under the key. Not counted as a
+     *         hit or miss.
+     */
+    synchronized boolean contains(String key) {
+        return memory.containsKey(key) || Files.isRegularFile(pathFor(key));
+    }
+
+
+    /**
+     * Looks up a result like {@link #get}, without counting a hit or miss.
+     */
+    private byte[] lookup(String key) {
+        byte[] result = memory.get(key);
+        if (result == null) {
+            result = readFromDisk(key);
+            if (result != null) {
+                putInMemory(key, result);
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Stores a result in both cache levels.
+     *
+     * @param key       A key from {@link #keyFor}.
+     * @param result    The raw result downloaded from EBI.
+     */
+    synchronized void put(String key, byte[] result) {
+        if (result == null || result.length == 0) {
+            return;
+        }
+        putInMemory(key, result);
+        writeToDisk(key, result);
+    }
+
+
+    /**
+     * Stores a result, and lists it under its sequence with the member
+     * databases it covers, for {@link #findParts}.
+     *
+     * @param coverageKey   A key from {@link #coverageKeyFor}.
+     * @param appl          The member databases the result covers.
+     * @param key           A key from {@link #keyFor}.
+     * @param result        The raw result downloaded from EBI.
+     */
+    synchronized void put(String coverageKey, List<String> appl, String key, byte[] result) {
+        put(key, result);
+        if (result == null || result.length == 0) {
+            return;
+        }
+        listCoverage(coverageKey, appl, key);
+    }
+
+
+    /**
+     * Opens an entry to store a result in as it is downloaded, so that it
+     * need not be held in memory. The entry is only added to the disk
+     * level, and only once committed.
+     *
+     * @param coverageKey   A key from {@link #coverageKeyFor}.
+     * @param appl          The member databases the result covers.
+     * @param key           A key from {@link #keyFor}.
+     *
+     * @return The entry. The caller must close it, which discards it
+     *         unless it was committed.
+     *
+     * @throws IOException if the entry cannot be created.
+     */
+    Entry create(String coverageKey, List<String> appl, String key) throws IOException {
+        return new Entry(coverageKey, appl, key);
+    }
+
+
+    private void listCoverage(String coverageKey, List<String> appl, String key) {
+        Map<String, List<String>> coverage = readCoverage(coverageKey);
+        if (!appl.equals(coverage.put(key, appl))) {
+            StringBuilder lines = new StringBuilder();
+            coverage.forEach((k, a) -> lines.append(k).append('\t').append(String.join(",", a)).append('\n'));
+            put(coverageKey, lines.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+
+    /**
+     * Finds cached results for a sequence that each cover only selected
+     * member databases, and between them cover as many as possible. No
+     * two cover the same database, so their matches can simply be joined.
+     *
+     * @param coverageKey   A key from {@link #coverageKeyFor}.
+     * @param appl          The selected member databases.
+     *
+     * @return The results, largest first; empty if none are cached.
+     *         They are not counted as cache hits or misses.
+     */
+    synchronized List<Part> findParts(String coverageKey, List<String> appl) {
+        List<Map.Entry<String, List<String>>> candidates = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : readCoverage(coverageKey).entrySet()) {
+            if (appl.containsAll(entry.getValue())) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparing((Map.Entry<String, List<String>> entry) -> entry.getValue().size()).reversed());
+
+        List<Part> parts = new ArrayList<>();
+        Set<String> covered = new HashSet<>();
+        for (Map.Entry<String, List<String>> candidate : candidates) {
+            if (Collections.disjoint(covered, candidate.getValue())) {
+                // Evicted results are simply missing.
+                byte[] result = lookup(candidate.getKey());
+                if (result != null) {
+                    parts.add(new Part(candidate.getValue(), result));
+                    covered.addAll(candidate.getValue());
+                }
+            }
+        }
+        return parts;
+    }
+
+
+    /**
+     * @return The key and member databases of each result listed under
+     *         a sequence, in the order they were stored.
+     */
+    private Map<String, List<String>> readCoverage(String coverageKey) {
+        Map<String, List<String>> coverage = new LinkedHashMap<>();
+        byte[] lines = memory.get(coverageKey);
+        if (lines == null) {
+            lines = readFromDisk(coverageKey);
+        }
+        if (lines != null) {
+            for (String line : new String(lines, StandardCharsets.UTF_8).split("\n")) {
+                int tab = line.indexOf('\t');
+                if (tab > 0) {
+                    coverage.put(line.substring(0, tab), List.of(line.substring(tab + 1).split(",")));
+                }
+            }
+        }
+        return coverage;
+    }
+
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+
+    private void putInMemory(String key, byte[] result) {
+        if (result.length > memoryLimit) {
+            return;
+        }
+        byte[] previous = memory.put(key, result);
+        memoryUsed += result.length - (previous == null ? 0 : previous.length);
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryUsed > memoryLimit && it.hasNext()) {
+            memoryUsed -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+
+    private byte[] readFromDisk(String key) {
+        Path path = pathFor(key);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            in.transferTo(out);
+            // Record the access, so eviction removes the least recently used.
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+            return out.toByteArray();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Discarding unreadable cache entry " + path, e);
+            deleteQuietly(path);
+            return null;
+        }
+    }
+
+
+    private void writeToDisk(String key, byte[] result) {
+        Path path = pathFor(key);
+        try {
+            Files.createDirectories(path.getParent());
+            Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                out.write(result);
+            }
+            install(tmp, path);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to write cache entry " + path, e);
+        }
+    }
+
+
+    /**
+     * Moves a complete entry into place.
+     */
+    private void install(Path tmp, Path path) throws IOException {
+        long previous = Files.isRegularFile(path) ? Files.size(path) : 0;
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        diskUsed += Files.size(path) - previous;
+        if (diskUsed > diskLimit) {
+            evictFromDisk();
+        }
+    }
+
+
+    /**
+     * Deletes the least recently used files until the disk level is back
+     * under 90% of its limit, so that eviction does not run on every put.
+     */
+    private void evictFromDisk() throws IOException {
+        List<Path> entries = listEntries();
+        entries.sort(Comparator.comparingLong(ResultCache::lastModified));
+        long target = diskLimit / 10 * 9;
+        for (Path path : entries) {
+            if (diskUsed <= target) {
+                break;
+            }
+            long size = Files.size(path);
+            if (deleteQuietly(path)) {
+                diskUsed -= size;
+            }
+        }
+    }
+
+
+    private List<Path> listEntries() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(directory, 2)) {
+            files.filter(p -> p.getFileName().toString().endsWith(SUFFIX)).forEach(entries::add);
+        }
+        return entries;
+    }
+
+
+    /**
+     * Files are spread over 256 sub-directories by key prefix.
+     */
+    private Path pathFor(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + SUFFIX);
+    }
+
+
+    private static long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * A result being written to the disk level as it arrives.
+     */
+    final class Entry extends OutputStream {
+        private final String coverageKey, key;
+        private final List<String> appl;
+        private final Path path, tmp;
+        private final OutputStream out;
+        private boolean committed, closed;
+
+        private Entry(String coverageKey, List<String> appl, String key) throws IOException {
+            this.coverageKey = coverageKey;
+            this.appl = appl;
+            this.key = key;
+            path = pathFor(key);
+            Files.createDirectories(path.getParent());
+            tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+            out = new GZIPOutputStream(Files.newOutputStream(tmp));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        /**
+         * Adds the complete result to the cache, replacing any entry in
+         * memory, and lists it under its sequence.
+         */
+        void commit() {
+            try {
+                out.close();
+                synchronized (ResultCache.this) {
+                    install(tmp, path);
+                    // An older copy in memory would hide the new one.
+                    memoryUsed -= length(memory.remove(key));
+                    listCoverage(coverageKey, appl, key);
+                }
+                committed = true;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to write cache entry " + path, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!committed) {
+                out.close();
+                deleteQuietly(tmp);
+            }
+        }
+    }
+
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+
+    /**
+     * A cached result covering some of the selected member databases.
+     */
+    final static class Part {
+        final List<String> appl;
+        final byte[] result;
+
+        Part(List<String> appl, byte[] result) {
+            this.appl = appl;
+            this.result = result;
+        }
+    }
+
+
+    private static boolean deleteQuietly(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import java.io.InputStream;
+
+/**
+ * Turns one job's result, in one of the formats EBI serves, into
+ * annotations. Implementations hold no per-result state, so one instance
+ * may parse many results concurrently.
+ */
+interface ResultParser {
+
+    /**
+     * Parses a result from a stream. The stream is not closed.
+     *
+     * @param in        The result.
+     * @param seqLength The length of the sequence the result is for.
+     *
+     * @return The annotations to add, or an error result if the result
+     *         could not be read.
+     */
+    AnnotationGeneratorResult parse(InputStream in, int seqLength);
+
+    /**
+     * @param format    A result format, one of the InterproscanOptions.FORMAT_ values.
+     * @param xmlParser Builds the annotations, and parses XML itself.
+     *
+     * @return The parser for results in that format.
+     */
+    static ResultParser forFormat(String format, XmlParser xmlParser) {
+        if (InterproscanOptions.FORMAT_TSV.equals(format)) {
+            return new TsvParser(xmlParser);
+        }
+        if (InterproscanOptions.FORMAT_JSON.equals(format)) {
+            return new JsonParser(xmlParser);
+        }
+        return xmlParser;
+    }
+}
@@ -0,0 +1,91 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * How often, and how far apart, to retry one type of call to the service.
+ *
+ * Only transient failures are retried: network errors and timeouts, and
+ * the HTTP statuses that mean "try again later" (408, 429 and 5xx). Any
+ * other response, such as a rejected sequence, is final. Delays grow
+ * exponentially, with jitter so that many jobs failing together do not
+ * retry together.
+ */
+final class RetryPolicy {
+
+    /**
+     * A submission that fails is retried a few times before the document is given up.
+     */
+    final static RetryPolicy SUBMIT = new RetryPolicy(4, 2_000, 30_000);
+
+    /**
+     * A status check is cheap, and losing a running job is not, so they are retried longest.
+     */
+    final static RetryPolicy STATUS = new RetryPolicy(8, 5_000, 120_000);
+
+    /**
+     * A download is retried from the start.
+     */
+    final static RetryPolicy RESULT = new RetryPolicy(5, 2_000, 60_000);
+
+    private final int maxAttempts;
+    private final long baseDelay;
+    private final long maxDelay;
+
+
+    /**
+     * @param maxAttempts   The number of attempts, including the first.
+     * @param baseDelay     The delay after the first failure, in milliseconds.
+     * @param maxDelay      The longest delay, in milliseconds.
+     */
+    RetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+
+    /**
+     * @param failure   Why the call failed.
+     * @param attempt   The number of attempts made so far, from 1.
+     *
+     * @return true if the call should be made again.
+     */
+    boolean shouldRetry(Throwable failure, int attempt) {
+        return attempt < maxAttempts && isTransient(failure);
+    }
+
+
+    /**
+     * @param attempt   The number of attempts made so far, from 1.
+     * @param random    The source of jitter.
+     *
+     * @return How long to wait before the next attempt, in milliseconds:
+     *         between half and all of the exponential delay.
+     */
+    long delay(int attempt, Random random) {
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(30, Math.max(0, attempt - 1)));
+        return ceiling / 2 + (long) (random.nextDouble() * (ceiling - ceiling / 2));
+    }
+
+
+    /**
+     * @param failure   Why a call failed, possibly wrapped by a future.
+     *
+     * @return true if the same call could succeed later.
+     */
+    static boolean isTransient(Throwable failure) {
+        while ((failure instanceof CompletionException || failure instanceof ExecutionException)
+                && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        if (failure instanceof ServiceResponseException) {
+            int code = ((ServiceResponseException) failure).getStatusCode();
+            return code == 408 || code == 429 || code >= 500;
+        }
+        return failure instanceof IOException;
+    }
+}
@@ -0,0 +1,627 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Times each phase of every job in a run, so that a slow batch can be
+ * pinned on waiting for a slot, submission, EBI's queue, the run itself,
+ * the download or parsing.
+ *
+ * Each distinct search in flight has a {@link Timeline} of when it
+ * reached each phase. When its job completes, the time spent in each
+ * phase goes into a histogram, a {@link JobEvent} is committed to Java
+ * Flight Recorder, and the timeline is appended to the run's jobs file
+ * and forgotten, so memory use does not grow with the size of the run.
+ * When the run finishes, a {@link RunEvent} is committed and a summary of
+ * the counters and histograms is written to a file of its own.
+ *
+ * Changes to the limit on EBI jobs made during the run, by this Runner's
+ * calls or another's, each commit a {@link LimitEvent} and are listed in
+ * the summary.
+ *
+ * Times are wall clock milliseconds. Queue and run times at EBI are only
+ * as precise as the status checks that observed them.
+ */
+final class RunMetrics implements ConcurrencyLimiter.Listener {
+
+    /**
+     * How many runs' summary and jobs files are kept; older ones are deleted.
+     */
+    private final static int KEEP_SUMMARIES = 50;
+
+    /**
+     * How many changes to the job limit are listed in the summary; the rest are only counted.
+     */
+    private final static int KEEP_LIMIT_CHANGES = 100;
+
+    private final static Logger logger = Logger.getLogger(RunMetrics.class.getName());
+
+    enum Phase {
+        SLOT_WAIT("waiting for a slot"),
+        SUBMIT("submitting"),
+        QUEUED("queued at EBI"),
+        RUNNING("running at EBI"),
+        // Jobs that finished before a status check saw them running:
+        // their time at EBI cannot be split, so it is counted here.
+        UNSEEN("at EBI, never seen running"),
+        DOWNLOAD("downloading"),
+        PARSE("parsing");
+
+        final String description;
+
+        Phase(String description) {
+            this.description = description;
+        }
+    }
+
+    private final long started = System.currentTimeMillis();
+    private final int documents;
+    private final File directory;
+    private final String name;
+    private final Map<String, Timeline> timelines = new LinkedHashMap<>();
+    private final Map<Phase, Histogram> histograms = new EnumMap<>(Phase.class);
+    private final RunEvent runEvent = new RunEvent();
+    private PrintWriter jobsFile;
+    private long finished;
+    private int searches, submitted, resumed, cached, precalculated, completed, failed;
+    private long statusChecks, bytes;
+    private int firstLimit, lastLimit, lowestLimit, highestLimit, raises, cuts;
+    private final List<String> limitChanges = new ArrayList<>();
+
+
+    /**
+     * @param documents The number of documents in the run.
+     */
+    RunMetrics(int documents) {
+        this(documents, null);
+    }
+
+
+    /**
+     * @param documents The number of documents in the run.
+     * @param directory Where the run's summary and jobs files are written, or null for neither.
+     */
+    RunMetrics(int documents, File directory) {
+        this.documents = documents;
+        this.directory = directory;
+        name = "run-" + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date(started));
+        for (Phase phase : Phase.values()) {
+            histograms.put(phase, new Histogram());
+        }
+        runEvent.begin();
+    }
+
+
+    /**
+     * @return The directory summaries are written to by default, in the user's home directory.
+     */
+    static File defaultDirectory() {
+        return new File(System.getProperty("user.home"), ".interproscan-plugin" + File.separator + "runs");
+    }
+
+
+    /**
+     * @param key   A search key.
+     *
+     * @return The search's timeline. Every search is queued when the run
+     *         starts, so a new timeline starts then.
+     */
+    synchronized Timeline timeline(String key) {
+        return timelines.computeIfAbsent(key, k -> {
+            searches++;
+            return new Timeline(k, started);
+        });
+    }
+
+
+    /**
+     * Adds a completed search to the histograms and counters, and commits
+     * its flight recorder event.
+     *
+     * @param timeline  The search's timeline.
+     * @param name      The name of its (first) document.
+     * @param jobid     The EBI job, or null if there was none.
+     * @param failure   Why it has no results, or null if it succeeded.
+     */
+    synchronized void completed(Timeline timeline, String name, String jobid, String failure) {
+        timeline.completed = System.currentTimeMillis();
+        timeline.name = name;
+        timeline.jobid = jobid;
+        timeline.failure = failure;
+        completed++;
+        if (failure != null) {
+            failed++;
+        }
+        if (timeline.cached) {
+            cached++;
+        } else if (timeline.precalculated) {
+            precalculated++;
+        } else if (timeline.resumed) {
+            resumed++;
+        } else if (timeline.submitted > 0) {
+            submitted++;
+        }
+        bytes += timeline.bytes;
+
+        JobEvent event = timeline.event;
+        for (Phase phase : Phase.values()) {
+            long duration = timeline.duration(phase);
+            if (duration >= 0) {
+                histograms.get(phase).add(duration);
+            }
+        }
+        if (event.shouldCommit()) {
+            event.name = name;
+            event.jobid = jobid;
+            event.failure = failure;
+            event.cached = timeline.cached;
+            event.precalculated = timeline.precalculated;
+            event.resumed = timeline.resumed;
+            event.slotWait = Math.max(0, timeline.duration(Phase.SLOT_WAIT));
+            event.submit = Math.max(0, timeline.duration(Phase.SUBMIT));
+            event.queued = Math.max(0, timeline.duration(Phase.QUEUED));
+            event.running = Math.max(0, timeline.duration(Phase.RUNNING));
+            event.unseen = Math.max(0, timeline.duration(Phase.UNSEEN));
+            event.download = Math.max(0, timeline.duration(Phase.DOWNLOAD));
+            event.parse = Math.max(0, timeline.duration(Phase.PARSE));
+            event.bytes = timeline.bytes;
+            event.commit();
+        }
+
+        timelines.remove(timeline.key);
+        writeTimeline(timeline);
+    }
+
+
+    /**
+     * Records the limit on EBI jobs as the run starts.
+     *
+     * @param limit The limit.
+     */
+    synchronized void limitStarted(int limit) {
+        firstLimit = lastLimit = lowestLimit = highestLimit = limit;
+    }
+
+
+    @Override
+    public synchronized void limitChanged(int from, int to, String reason) {
+        lastLimit = to;
+        lowestLimit = Math.min(lowestLimit, to);
+        highestLimit = Math.max(highestLimit, to);
+        if (to > from) {
+            raises++;
+        } else {
+            cuts++;
+        }
+        if (limitChanges.size() < KEEP_LIMIT_CHANGES) {
+            limitChanges.add((System.currentTimeMillis() - started) + "\t" + from + "\t" + to + "\t" + reason);
+        }
+
+        LimitEvent event = new LimitEvent();
+        if (event.shouldCommit()) {
+            event.from = from;
+            event.to = to;
+            event.reason = reason;
+            event.commit();
+        }
+    }
+
+
+    /**
+     * Ends the run, committing its flight recorder event and logging a
+     * one line summary.
+     *
+     * @param statusChecks  The number of status checks made.
+     */
+    synchronized void finish(long statusChecks) {
+        finished = System.currentTimeMillis();
+        this.statusChecks = statusChecks;
+        runEvent.end();
+        if (runEvent.shouldCommit()) {
+            runEvent.documents = documents;
+            runEvent.searches = searches;
+            runEvent.submitted = submitted;
+            runEvent.resumed = resumed;
+            runEvent.cached = cached;
+            runEvent.precalculated = precalculated;
+            runEvent.failed = failed;
+            runEvent.statusChecks = statusChecks;
+            runEvent.bytes = bytes;
+            runEvent.commit();
+        }
+
+        StringBuilder line = new StringBuilder("Median time ");
+        for (Phase phase : Phase.values()) {
+            Histogram histogram = histograms.get(phase);
+            if (histogram.count() > 0) {
+                line.append(phase.description).append(' ').append(histogram.percentile(50)).append(" ms, ");
+            }
+        }
+        line.append(bytes >> 10).append(" KB downloaded");
+        if (raises + cuts > 0) {
+            line.append(", job limit ").append(firstLimit).append(" to ").append(lastLimit)
+                    .append(" (").append(raises).append(" raises, ").append(cuts).append(" cuts)");
+        }
+        line.append('.');
+        logger.log(Level.INFO, line.toString());
+    }
+
+
+    /**
+     * Writes the summary of a finished run to a new file, completes its
+     * jobs file with the searches that never finished, and deletes the
+     * files of the oldest runs beyond the most recent few.
+     *
+     * @return The summary file, or null if it could not be written or
+     *         there is no directory to write to.
+     */
+    synchronized File writeSummary() {
+        if (directory == null) {
+            return null;
+        }
+        for (Timeline timeline : timelines.values()) {
+            writeTimeline(timeline);
+        }
+        timelines.clear();
+        if (jobsFile != null) {
+            jobsFile.close();
+        }
+
+        Path file = directory.toPath().resolve(name + ".txt");
+        try {
+            Files.createDirectories(file.getParent());
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+                writeSummary(out);
+            }
+            deleteOldSummaries(file.getParent());
+            return file.toFile();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to write run summary " + file, e);
+            return null;
+        }
+    }
+
+
+    /**
+     * @param phase A phase.
+     *
+     * @return The distribution of time spent in it by the searches completed so far.
+     */
+    synchronized Histogram histogram(Phase phase) {
+        return histograms.get(phase);
+    }
+
+
+    private void writeSummary(PrintWriter out) {
+        long wallTime = (finished > 0 ? finished : System.currentTimeMillis()) - started;
+        out.printf("# InterProScan run started %s%n", new Date(started));
+        out.printf("wall time ms\t%d%n", wallTime);
+        out.printf("documents\t%d%n", documents);
+        out.printf("distinct searches\t%d%n", searches);
+        out.printf("completed\t%d%n", completed);
+        out.printf("submitted\t%d%n", submitted);
+        out.printf("resumed\t%d%n", resumed);
+        out.printf("cached\t%d%n", cached);
+        out.printf("precalculated\t%d%n", precalculated);
+        out.printf("failed\t%d%n", failed);
+        out.printf("status checks\t%d%n", statusChecks);
+        out.printf("bytes downloaded\t%d%n", bytes);
+        out.printf("searches per minute\t%.1f%n", completed * 60_000.0 / Math.max(1, wallTime));
+        out.printf("job limit\t%d to %d, between %d and %d%n", firstLimit, lastLimit, lowestLimit, highestLimit);
+        out.printf("job limit raises\t%d%n", raises);
+        out.printf("job limit cuts\t%d%n", cuts);
+
+        out.println();
+        out.println("# phase\tcount\tmean ms\tp50 ms\tp90 ms\tp99 ms\tmax ms");
+        for (Phase phase : Phase.values()) {
+            Histogram h = histograms.get(phase);
+            out.printf("%s\t%d\t%d\t%d\t%d\t%d\t%d%n", phase.description, h.count(), h.mean(),
+                    h.percentile(50), h.percentile(90), h.percentile(99), h.max());
+        }
+
+        if (!limitChanges.isEmpty()) {
+            out.println();
+            out.println("# job limit change ms\tfrom\tto\treason");
+            limitChanges.forEach(out::println);
+        }
+    }
+
+
+    /**
+     * Appends a search's timeline to the run's jobs file, creating the
+     * file with a header first if need be. Times are relative to the start
+     * of the run; -1 where a phase was never reached.
+     */
+    private void writeTimeline(Timeline t) {
+        if (directory == null) {
+            return;
+        }
+        if (jobsFile == null) {
+            Path file = directory.toPath().resolve(name + "-jobs.tsv");
+            try {
+                Files.createDirectories(file.getParent());
+                jobsFile = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to write jobs file " + file, e);
+                // Don't try again for every job.
+                jobsFile = new PrintWriter(Writer.nullWriter());
+            }
+            jobsFile.println("# name\tjobid\tslot\tsubmitted\tfirst running\tfinished\tdownloaded\tparsed\tbytes\toutcome");
+        }
+        jobsFile.printf("%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%s%n", t.name, t.jobid,
+                relative(t.slotAcquired), relative(t.submitted), relative(t.firstRunning), relative(t.finished),
+                relative(t.downloaded), relative(t.parsed), t.bytes, t.outcome());
+    }
+
+
+    private long relative(long time) {
+        return time > 0 ? time - started : -1;
+    }
+
+
+    private static void deleteOldSummaries(Path directory) throws IOException {
+        List<Path> summaries = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(p -> p.getFileName().toString().startsWith("run-")).forEach(summaries::add);
+        }
+        // Their names sort by start time.
+        summaries.sort(Comparator.comparing(Path::toString));
+        for (int i = 0; i < summaries.size() - 2 * KEEP_SUMMARIES; i++) {
+            Files.deleteIfExists(summaries.get(i));
+        }
+    }
+
+
+    /**
+     * When a search reached each phase; 0 for phases it has not reached.
+     * The fields are set by the Runner as the search progresses.
+     */
+    final static class Timeline {
+        final String key;
+        final long enqueued;
+        long slotAcquired, submitted, firstRunning, finished, downloadStarted, downloaded, parseStarted, parsed, completed;
+        long bytes;
+        boolean cached, precalculated, resumed;
+        String name, jobid, failure;
+        private final JobEvent event = new JobEvent();
+
+        private Timeline(String key, long enqueued) {
+            this.key = key;
+            this.enqueued = enqueued;
+            event.begin();
+        }
+
+        /**
+         * @param phase A phase.
+         *
+         * @return The time spent in it, or -1 if the search did not pass through it.
+         */
+        long duration(Phase phase) {
+            switch (phase) {
+                case SLOT_WAIT:
+                    return between(enqueued, slotAcquired);
+                case SUBMIT:
+                    return resumed ? -1 : between(slotAcquired, submitted);
+                case QUEUED:
+                    return resumed ? -1 : between(submitted, firstRunning);
+                case RUNNING:
+                    return resumed ? -1 : between(firstRunning, finished);
+                case UNSEEN:
+                    return resumed || firstRunning > 0 ? -1 : between(submitted, finished);
+                case DOWNLOAD:
+                    return between(downloadStarted, downloaded);
+                case PARSE:
+                    return between(parseStarted, parsed);
+                default:
+                    return -1;
+            }
+        }
+
+        private String outcome() {
+            return completed == 0 ? "unfinished"
+                    : failure != null ? "failed: " + failure
+                    : cached ? "cached"
+                    : precalculated ? "precalculated"
+                    : resumed ? "resumed"
+                    : "ok";
+        }
+
+        private static long between(long from, long to) {
+            return from > 0 && to >= from ? to - from : -1;
+        }
+    }
+
+
+    /**
+     * Durations in buckets of 1, 2 and 5 times each power of ten
+     * milliseconds, so percentiles are within a factor of 2.5.
+     */
+    final static class Histogram {
+        private final static long[] BOUNDS;
+        static {
+            List<Long> bounds = new ArrayList<>();
+            for (long decade = 1; decade <= 1_000_000_000L; decade *= 10) {
+                bounds.add(decade);
+                bounds.add(2 * decade);
+                bounds.add(5 * decade);
+            }
+            BOUNDS = bounds.stream().mapToLong(Long::longValue).toArray();
+        }
+
+        private final long[] counts = new long[BOUNDS.length + 1];
+        private long count, sum, max;
+
+        void add(long millis) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            count++;
+            sum += millis;
+            max = Math.max(max, millis);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /**
+         * @param percent   A percentile, from 0 to 100.
+         *
+         * @return The upper bound of the bucket it falls in, at most the maximum.
+         */
+        long percentile(double percent) {
+            long rank = (long) Math.ceil(percent / 100 * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < counts.length; bucket++) {
+                seen += counts[bucket];
+                if (seen >= rank && seen > 0) {
+                    return bucket < BOUNDS.length ? Math.min(BOUNDS[bucket], max) : max;
+                }
+            }
+            return 0;
+        }
+    }
+
+
+    @Name("com.michaelrthon.interproscan.Job")
+    @Label("InterProScan Job")
+    @Category("InterProScan")
+    @Description("One distinct search, from being queued in the plugin until its results were parsed")
+    final static class JobEvent extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Job Id")
+        String jobid;
+
+        @Label("Failure")
+        String failure;
+
+        @Label("From Result Cache")
+        boolean cached;
+
+        @Label("From Precalculated Matches")
+        boolean precalculated;
+
+        @Label("Resumed")
+        boolean resumed;
+
+        @Label("Waiting For A Slot")
+        @Timespan(Timespan.MILLISECONDS)
+        long slotWait;
+
+        @Label("Submitting")
+        @Timespan(Timespan.MILLISECONDS)
+        long submit;
+
+        @Label("Queued At EBI")
+        @Timespan(Timespan.MILLISECONDS)
+        long queued;
+
+        @Label("Running At EBI")
+        @Timespan(Timespan.MILLISECONDS)
+        long running;
+
+        @Label("At EBI, Never Seen Running")
+        @Timespan(Timespan.MILLISECONDS)
+        long unseen;
+
+        @Label("Downloading")
+        @Timespan(Timespan.MILLISECONDS)
+        long download;
+
+        @Label("Parsing")
+        @Timespan(Timespan.MILLISECONDS)
+        long parse;
+
+        @Label("Bytes Downloaded")
+        @DataAmount
+        long bytes;
+    }
+
+
+    @Name("com.michaelrthon.interproscan.Limit")
+    @Label("InterProScan Job Limit")
+    @Category("InterProScan")
+    @Description("A change to the number of EBI jobs allowed at once")
+    final static class LimitEvent extends Event {
+        @Label("From")
+        int from;
+
+        @Label("To")
+        int to;
+
+        @Label("Reason")
+        String reason;
+    }
+
+
+    @Name("com.michaelrthon.interproscan.Run")
+    @Label("InterProScan Run")
+    @Category("InterProScan")
+    @Description("One call to Runner.scanSequences")
+    final static class RunEvent extends Event {
+        @Label("Documents")
+        int documents;
+
+        @Label("Distinct Searches")
+        int searches;
+
+        @Label("Submitted")
+        int submitted;
+
+        @Label("Resumed")
+        int resumed;
+
+        @Label("From Result Cache")
+        int cached;
+
+        @Label("From Precalculated Matches")
+        int precalculated;
+
+        @Label("Failed")
+        int failed;
+
+        @Label("Status Checks")
+        long statusChecks;
+
+        @Label("Bytes Downloaded")
+        @DataAmount
+        long bytes;
+    }
+}
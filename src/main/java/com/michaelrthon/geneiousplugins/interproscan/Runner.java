@@ -1,31 +1,36 @@
 package com.michaelrthon.geneiousplugins.interproscan;
 
-import com.biomatters.geneious.publicapi.components.Dialogs;
 import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
-import com.biomatters.geneious.publicapi.documents.PluginDocument;
-import com.biomatters.geneious.publicapi.documents.sequence.AminoAcidSequenceDocument;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationQualifier;
 import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
 import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
-import com.biomatters.geneious.publicapi.utilities.FileUtilities;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.SelectionRange;
 import jebl.util.CompositeProgressListener;
 import jebl.util.ProgressListener;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
 
 /**
  * Original author: Michael Thon <mike@michaelrthon.com>
@@ -35,16 +40,40 @@ import java.net.URL;
 public class Runner {
 
     /**
-     * This collection is to ensure that multiple runners don't all
-     * attempt to run at the same time, possibly breaking EBI's ToS.
+     * The longest the coordinating thread waits without checking for
+     * cancellation or free slots.
      */
-    private final static List<UUID> RUNNERS = Collections.synchronizedList(new ArrayList<>());
-    private final UUID myKey = UUID.randomUUID();
-    private final static int MAXIMUM_CONCURRENT_JOBS = 15;  // Note that this is 1/2 the 30 available from EBI.
     private final static int SLEEP_BETWEEN_JOBS = 250;
 
+    /**
+     * How many submissions, status checks and downloads may be in flight
+     * at once. Downloads are parsed as they stream, on the download
+     * threads; results that need no download use one thread per processor.
+     */
+    private final static int SUBMIT_CONCURRENCY = 3;
+    private final static int POLL_CONCURRENCY = 8;
+    private final static int DOWNLOAD_CONCURRENCY = 4;
+
+    /**
+     * How many results found in the result cache or precalculated matches
+     * may wait to be parsed at once, since each is held in memory.
+     */
+    private final static int LOCAL_CONCURRENCY = 16;
+
+    /**
+     * How many times a sequence whose submission keeps failing transiently
+     * is put back at the end of the queue before it is given up.
+     */
+    private final static int MAX_DEFERRALS = 3;
+
+    /**
+     * For debugging, results can be kept on disk by setting this system
+     * property to a directory. Otherwise downloads are parsed as they stream.
+     */
+    private final static String SPOOL_DIRECTORY_PROPERTY = "interproscan.spoolDirectory";
+
     // Instance variables
-    private final AnnotatedPluginDocument[] documents;
+    private final ProteinBatch batch;
     private final CompositeProgressListener progress;
     private static Logger logger;
     private final boolean goterms;
@@ -52,10 +81,46 @@ public class Runner {
     private final List<String> appl;
     private final String email;
     private final String featType;
+    private final String submissionOrder;
     private final boolean extraFeatures;
-    private int index;
+    private ResultCache cache;
+    private final boolean incremental;
+    private final XmlParser xmlParser;
+    private final String resultFormat;
+    private final ResultParser resultParser;
+    private final ScanBackend backend;
+    private final PollScheduler<Job> pollScheduler;
+    private final LocalInterproscanEngine localEngine;
+    private final long sleepBetweenJobs;
+    private final double timeScale;
+    private final CircuitBreaker breaker;
+    private final int maximumConcurrentJobs;
+    private ConcurrencyLimiter limiter = ConcurrencyLimiter.getShared();
+    private JobJournal journal;
+    private final File precalculatedFile;
+    private PrecalculatedMatches precalculated;
+    // The shared matches this run opened, and so must close.
+    private PrecalculatedMatches openedPrecalculated;
+    private final ResultParser precalculatedParser;
+    private File metricsDirectory = RunMetrics.defaultDirectory();
+    private RunMetrics metrics;
+    private final Random jitter = new Random();
+    private SlotPool.Lease lease;
     private final Map<Integer, Job> activeJobs = new HashMap<>();
-    private final Map<Integer, Job> completedJobs = new HashMap<>();
+    // Results are kept here until the end of the run, unless they are
+    // applied to each document as they arrive.
+    private final AnnotationGeneratorResult[] results;
+    private final BitSet failed = new BitSet();
+    // Groups not yet looked up in the result cache or precalculated matches.
+    private final Deque<Map.Entry<String, List<Integer>>> uncheckedGroups = new ArrayDeque<>();
+    // Groups that must go to EBI, each once it has a slot.
+    private final Deque<Map.Entry<String, List<Integer>>> pendingGroups = new ArrayDeque<>();
+    private final Map<String, Integer> deferrals = new HashMap<>();
+    // The sequence length of each distinct search, for ordering submissions.
+    private final Map<String, Integer> groupLengths = new HashMap<>();
+    private final BlockingQueue<Runnable> events = new LinkedBlockingQueue<>();
+    private ExecutorService submitters, downloaders, parsers;
+    private int submitting, polling, parsingLocally;
     
 
 
@@ -72,11 +137,87 @@ public class Runner {
             AnnotatedPluginDocument[] documents,
             InterproscanOptions options,
             ProgressListener progressListener
+    ) {
+        this(documents, null, options, progressListener);
+    }
+
+
+    /**
+     * Scans only the selected residues of a single document, and adds
+     * the annotations at their place in the whole sequence.
+     *
+     * @param documents         The sequence documents to annotate.
+     * @param selectionRange    The residues selected in the sequence viewer, or null to scan
+     *                          whole sequences.
+     * @param options           The user-specified options.
+     * @param progressListener  A progress bar.
+     */
+    public Runner(
+            AnnotatedPluginDocument[] documents,
+            SelectionRange selectionRange,
+            InterproscanOptions options,
+            ProgressListener progressListener
+    ) {
+        this(new DocumentBatch(documents, selectionRange), options, progressListener,
+                new EbiRestBackend(options.getRestEndpoint(), HttpClientProvider.getDefault()), 1.0);
+    }
+
+
+    /**
+     * @param documents         The sequence documents to annotate.
+     * @param options           The user-specified options.
+     * @param progressListener  A progress bar.
+     * @param backend           The service to run jobs with, unless a local installation is selected.
+     */
+    Runner(
+            AnnotatedPluginDocument[] documents,
+            InterproscanOptions options,
+            ProgressListener progressListener,
+            ScanBackend backend
+    ) {
+        this(documents, options, progressListener, backend, 1.0);
+    }
+
+
+    /**
+     * @param documents         The sequence documents to annotate.
+     * @param options           The user-specified options.
+     * @param progressListener  A progress bar.
+     * @param backend           The service to run jobs with, unless a local installation is selected.
+     * @param timeScale         The factor applied to every pause and poll interval, so that
+     *                          simulations against a fake backend can run faster than real time; 1 otherwise.
+     */
+    Runner(
+            AnnotatedPluginDocument[] documents,
+            InterproscanOptions options,
+            ProgressListener progressListener,
+            ScanBackend backend,
+            double timeScale
+    ) {
+        this(new DocumentBatch(documents), options, progressListener, backend, timeScale);
+    }
+
+
+    /**
+     * @param batch             The proteins to annotate.
+     * @param options           The settings to scan with.
+     * @param progressListener  A progress bar.
+     * @param backend           The service to run jobs with, unless a local installation is selected.
+     * @param timeScale         The factor applied to every pause and poll interval, so that
+     *                          simulations against a fake backend can run faster than real time; 1 otherwise.
+     */
+    Runner(
+            ProteinBatch batch,
+            ScanSettings options,
+            ProgressListener progressListener,
+            ScanBackend backend,
+            double timeScale
     ) {
         // Submitting, Awaiting, Getting + Start
-        int numMessages = documents.length * 3 + 1;
+        int numMessages = batch.size() * 3 + 1;
 
-        this.documents = documents;
+        this.batch = batch;
+        this.backend = backend;
         progress = new CompositeProgressListener(progressListener, numMessages);
         logger = Logger.getLogger(InterproscanAnnotationGenerator.class.getName());
         goterms = options.isGotermsSelected();
@@ -84,58 +225,185 @@ public class Runner {
         email = options.getEmailAddress();
         appl = options.getSelectedInterProApps();
         featType = options.getFeatureType();
+        submissionOrder = options.getSubmissionOrder();
         extraFeatures = options.isExtraFeatureSelected();
+        cache = options.isResultCacheSelected() ? ResultCache.getInstance() : null;
+        incremental = options.isIncrementalScanSelected();
+        results = options.isApplyAsScannedSelected() ? null : new AnnotationGeneratorResult[batch.size()];
+        journal = options.isResumeJobsSelected() ? JobJournal.getInstance() : null;
+        pollScheduler = new PollScheduler<>(appl.size(), timeScale);
+        sleepBetweenJobs = Math.max(1, Math.round(timeScale * SLEEP_BETWEEN_JOBS));
+        this.timeScale = timeScale;
+        breaker = new CircuitBreaker(timeScale);
+        maximumConcurrentJobs = options.getMaximumConcurrentJobs();
+        xmlParser = newXmlParser();
+        // Local InterProScan writes XML, which it parses as it goes.
+        resultFormat = InterproscanOptions.BACKEND_LOCAL.equals(options.getBackend())
+                ? InterproscanOptions.FORMAT_XML
+                : options.getResultFormat();
+        resultParser = ResultParser.forFormat(resultFormat, xmlParser);
+        precalculatedFile = options.getPrecalculatedMatches().isEmpty() ? null : new File(options.getPrecalculatedMatches());
+        // Precalculated matches cover every member database, not just those
+        // selected. Their rows lack the entry types, short names and GO and
+        // pathway details of EBI's results, so they have a dictionary of
+        // their own rather than standing in for those in the shared one.
+        precalculatedParser = new TsvParser(newXmlParser(), appl);
+        localEngine = InterproscanOptions.BACKEND_LOCAL.equals(options.getBackend())
+                ? new LocalInterproscanEngine(new File(options.getLocalExecutable()), appl, goterms, pathways,
+                        options.getLocalBatchSize(), options.getLocalParallelBatches(), xmlParser)
+                : null;
+    }
+
+    /**
+     * @return A parser that builds annotations as the options ask, with a
+     *         dictionary of its own.
+     */
+    private XmlParser newXmlParser() {
+        return new XmlParser()
+                .setFeatType(featType)
+                .setMakeExtraFeats(extraFeatures)
+                .setGoTerms(goterms)
+                .setPathways(pathways);
+    }
+
+    /**
+     * Replaces the shared result cache, e.g. with one in a test directory.
+     *
+     * @param cache The cache, or null to neither use nor fill one.
+     */
+    void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Replaces the shared job journal, e.g. with one in a test directory.
+     *
+     * @param journal   The journal, or null to neither record nor resume jobs.
+     */
+    void setJournal(JobJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Replaces the limiter shared by every Runner, e.g. with one whose
+     * pool no other Runner uses.
+     *
+     * @param limiter   The limiter.
+     */
+    void setLimiter(ConcurrencyLimiter limiter) {
+        this.limiter = limiter;
+    }
+
+    /**
+     * Replaces the precalculated matches named in the options, e.g. with
+     * ones indexed in a test directory.
+     *
+     * @param precalculated The matches, or null to use those in the options.
+     */
+    void setPrecalculatedMatches(PrecalculatedMatches precalculated) {
+        this.precalculated = precalculated;
+    }
+
+    /**
+     * @return The number of documents that could not be scanned, or
+     *         whose annotations could not be applied, once the run is over.
+     */
+    int getFailureCount() {
+        return failed.cardinality();
+    }
+
+    /**
+     * Sets where the timing summary of each run is written.
+     *
+     * @param directory The directory, or null to write no summary.
+     */
+    void setMetricsDirectory(File directory) {
+        this.metricsDirectory = directory;
     }
 
     /**
      * This is the engine of the plugin. It maintains a queue of protein
      * sequences ready for searching.
      *
+     * Jobs move through a pipeline of stages: submission, status polling,
+     * and download, which parses as it goes. Each stage runs concurrently, within its own
+     * limit, so that a large result never holds up noticing that other
+     * jobs have finished. The stages report back through an event queue,
+     * and only this thread touches the jobs, the progress bar and the
+     * journal.
+     *
      * @return  The annotations for Geneious Prime to add to the
      *          the documents.
      *
      * @throws DocumentOperationException .
      */
     public List<AnnotationGeneratorResult> scanSequences() throws DocumentOperationException {
+        if (localEngine != null) {
+            return scanLocally();
+        }
 
         // 1. Setup Administration structures.
-        List<AnnotationGeneratorResult> resultsList = new ArrayList<>(documents.length);
-        index = 0;
+        List<AnnotationGeneratorResult> resultsList;
+        metrics = new RunMetrics(batch.size(), metricsDirectory);
+        submitters = Executors.newFixedThreadPool(SUBMIT_CONCURRENCY);
+        downloaders = Executors.newFixedThreadPool(DOWNLOAD_CONCURRENCY);
+        parsers = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        openPrecalculatedMatches();
 
-        // 2. Wait till we are first in queue before running (if other
-        //    Runners are already running.
-        try {
+        // 2. Join the pool of EBI slots shared with any other Runners;
+        //    each job queued or running at EBI holds one slot. The
+        //    limiter sizes the pool from how EBI is coping, and this
+        //    Runner's maximum holds while its lease is open.
+        try (SlotPool.Lease lease = limiter.getPool().register(maximumConcurrentJobs)) {
+            this.lease = lease;
+            metrics.limitStarted(limiter.getLimit());
+            limiter.addListener(metrics);
             progress.beginSubtask("Waiting to execute...");
-            waitMyTurn();
 
             // 3. Maintain a constantly filled queue of tasks, until
-            //    either cancelled or completed.
-            Iterator<AnnotatedPluginDocument> documentIterator = Arrays.stream(documents).iterator();
+            //    either cancelled or completed. Identical sequences
+            //    share a single job.
+            uncheckedGroups.addAll(orderForSubmission(groupIdenticalSequences()));
             do {
-                // 3A. Populate jobs list 1 cycle at a time, up until the maximum.
-                while (activeJobs.size() < MAXIMUM_CONCURRENT_JOBS && documentIterator.hasNext()) {
-                    addNextJobToQueue(documentIterator.next().getDocument());
-                    Thread.sleep(SLEEP_BETWEEN_JOBS);
+                // 3A. Answer what the result cache and precalculated matches
+                //     can, which needs neither EBI nor a slot. The rest wait
+                //     for one, in the same order.
+                while (!uncheckedGroups.isEmpty() && parsingLocally < LOCAL_CONCURRENCY) {
+                    Map.Entry<String, List<Integer>> group = uncheckedGroups.poll();
+                    if (!findLocally(group.getKey(), group.getValue())) {
+                        pendingGroups.addLast(group);
+                    }
+                }
+
+                // 3B. Hand sequences to the submission stage while slots
+                //     are available. Submissions pause while EBI is failing.
+                while (!pendingGroups.isEmpty()
+                        && submitting < SUBMIT_CONCURRENCY
+                        && breaker.allowsSubmission(System.currentTimeMillis())
+                        && lease.tryAcquire(0)) {
+                    Map.Entry<String, List<Integer>> group = pendingGroups.poll();
+                    addNextJobToQueue(group.getKey(), group.getValue());
                 }
+                checkCancelled();
 
-                // 3B. Cycle through, checking each task status.
-                checkForCompletedJobs();
+                // 3C. Ask for the status of each job that is due a check.
+                pollDueJobs();
 
-                // Don't hammer the webservice endpoint.
-                Thread.sleep(SLEEP_BETWEEN_JOBS);
+                // 3D. Act on whatever the stages have finished, waiting
+                //     until there is something to do.
+                handleEvents(timeUntilNextWork());
 
                 // On a slow connection, it's possible to get here with an empty
                 // list without having submitted all jobs.
-            } while (!activeJobs.isEmpty() || documentIterator.hasNext());
-
-            // Add results in.
-            completedJobs.forEach((pos, job) -> resultsList.add(
-                    pos,
-                    job != null && job.annotationGeneratorResult != null
-                            ? job.annotationGeneratorResult
-                            : new AnnotationGeneratorResult()
-            ));
+            } while (!activeJobs.isEmpty() || !uncheckedGroups.isEmpty() || !pendingGroups.isEmpty() || submitting > 0);
+
+            resultsList = collectResults();
             progress.setComplete();
+            logger.log(Level.INFO, pollScheduler.getPolls() + " status checks made.");
+            logFailures();
+            if (cache != null) {
+                logger.log(Level.INFO, "Result cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses.");
+            }
         } catch (InterruptedException ex) {
             logger.log(Level.SEVERE, null, ex);
             throw new DocumentOperationException("Interrupted: " + ex.getMessage());
@@ -143,7 +411,13 @@ public class Runner {
             logger.log(Level.SEVERE, "Unexpected error during sequence scan", e);
             throw new DocumentOperationException("Unexpected error: " + e.getMessage());
         } finally {
-            Runner.RUNNERS.remove(myKey);
+            this.lease = null;
+            limiter.removeListener(metrics);
+            submitters.shutdownNow();
+            downloaders.shutdownNow();
+            parsers.shutdownNow();
+            closePrecalculatedMatches();
+            finishMetrics();
         }
 
         return resultsList;
@@ -151,71 +425,632 @@ public class Runner {
 
 
     /**
-     * Checks the active jobs list, and checks if each job is completed.
+     * Runs the whole batch through a local InterProScan installation
+     * instead of EBI. Identical sequences are still only scanned once.
+     *
+     * @return The annotations for each document.
+     *
+     * @throws DocumentOperationException .
      */
-    private void checkForCompletedJobs() throws DocumentOperationException.Canceled {
-        List<Integer> toRemove = new LinkedList<>();
-        for (int activeIndex: activeJobs.keySet()) {
-            Job job = activeJobs.get(activeIndex);
+    private List<AnnotationGeneratorResult> scanLocally() throws DocumentOperationException {
+        metrics = new RunMetrics(batch.size(), metricsDirectory);
+        try {
+            progress.beginSubtask("Preparing sequences...");
+            List<Job> jobs = new ArrayList<>();
+            List<String> sequences = new ArrayList<>();
+            for (Map.Entry<String, List<Integer>> group : groupIdenticalSequences().entrySet()) {
+                int first = group.getValue().get(0);
+                String sequence = trimTerminator(batch.getSequence(first));
+                jobs.add(new Job(null, batch.getName(first), sequence.length(), group.getKey(), group.getValue()));
+                sequences.add(sequence);
+            }
+
+            logger.log(Level.INFO, "Running local InterProScan on " + sequences.size() + " sequences.");
+            localEngine.scan(sequences, (sequenceIndex, result, failure) -> {
+                // Results arrive from several batches at once.
+                synchronized (failed) {
+                    Job job = jobs.get(sequenceIndex);
+                    if (failure != null) {
+                        fail(job, failure);
+                    } else {
+                        job.annotationGeneratorResult = result;
+                    }
+                    progress.beginNextSubtask("Scanning " + job.name);
+                    progress.beginNextSubtask("Scanning " + job.name);
+                    progress.beginNextSubtask("Got results for " + job.name);
+                    completeJob(job);
+                    job.annotationGeneratorResult = null;
+                }
+            }, progress::isCanceled);
             checkCancelled();
-            String status = job.checkStatus(); 
-            switch (status) {
-                case "QUEUED":
-                case "RUNNING":
-                    break;
 
-                case "FINISHED":
-                    // 4. Process results.
-                    String message = "Getting results for " + job.name;
-                    progress.beginNextSubtask(message);
-                    logger.log(Level.INFO, message);
-                    job.annotationGeneratorResult = postProcessResults(job);
-                    toRemove.add(activeIndex);
-                    completedJobs.put(activeIndex, job);
-                    break;
+            List<AnnotationGeneratorResult> resultsList = collectResults();
+            progress.setComplete();
+            return resultsList;
+        } catch (InterruptedException ex) {
+            checkCancelled();
+            logger.log(Level.SEVERE, null, ex);
+            throw new DocumentOperationException("Interrupted: " + ex.getMessage());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to run local InterProScan", e);
+            throw new DocumentOperationException("Unable to run local InterProScan: " + e.getMessage(), e);
+        } finally {
+            finishMetrics();
+        }
+    }
+
+
+    /**
+     * Ends the run's metrics, and writes its timing summary if wanted.
+     */
+    private void finishMetrics() {
+        metrics.finish(pollScheduler.getPolls());
+        File summary = metrics.writeSummary();
+        if (summary != null) {
+            logger.log(Level.INFO, "Timing summary written to " + summary);
+        }
+    }
+
+
+    /**
+     * @return The results of every completed job, in document order. If
+     *         they have already been applied, an empty result for each.
+     */
+    private List<AnnotationGeneratorResult> collectResults() {
+        if (results == null) {
+            return Collections.nCopies(batch.size(), new AnnotationGeneratorResult());
+        }
+        List<AnnotationGeneratorResult> resultsList = new ArrayList<>(batch.size());
+        for (AnnotationGeneratorResult result : results) {
+            resultsList.add(result != null ? result : new AnnotationGeneratorResult());
+        }
+        return resultsList;
+    }
+
+
+    /**
+     * Asks for the status of each active job that is due a check, without
+     * waiting for the answers. Each answer is handled as it arrives.
+     */
+    private void pollDueJobs() {
+        List<Job> dueJobs = pollScheduler.due(System.currentTimeMillis(), POLL_CONCURRENCY - polling);
+        for (Job job : dueJobs) {
+            polling++;
+            long asked = System.currentTimeMillis();
+            job.checkStatus(backend).whenComplete((status, error) -> {
+                long latency = System.currentTimeMillis() - asked;
+                events.add(() -> {
+                    polling--;
+                    statusReceived(job, status, error, latency);
+                });
+            });
+        }
+    }
+
+
+    /**
+     * Acts on the status of a job: keeps polling it, hands it to the
+     * download stage, or records why it failed.
+     *
+     * @param job       The job.
+     * @param status    Its status, or null if it could not be retrieved.
+     * @param error     Why the status could not be retrieved, or null.
+     * @param latency   How long the status check took.
+     */
+    private void statusReceived(Job job, String status, Throwable error, long latency) {
+        if (error != null) {
+            // The job itself is probably fine, so keep polling it for a while.
+            Throwable cause = unwrap(error);
+            long now = System.currentTimeMillis();
+            job.statusFailures++;
+            if (RetryPolicy.isTransient(cause)) {
+                breaker.failure(now);
+                limiter.failure();
+            }
+            if (RetryPolicy.STATUS.shouldRetry(cause, job.statusFailures)) {
+                long delay = scaled(RetryPolicy.STATUS.delay(job.statusFailures, jitter));
+                logger.log(Level.WARNING, "Status check " + job.statusFailures + " for " + job.name
+                        + " failed (" + cause.getMessage() + "); retrying in " + delay + " ms.");
+                pollScheduler.postpone(job, now + delay);
+                return;
+            }
+            pollScheduler.finished(job, now, false);
+            activeJobs.remove(job.indexes.get(0));
+            lease.release();
+            progress.beginNextSubtask("Lost track of " + job.name);
+            fail(job, "Status check failed after " + job.statusFailures + " attempts: " + cause.getMessage());
+            completeJob(job);
+            return;
+        }
+
+        breaker.success(System.currentTimeMillis());
+        limiter.success(latency);
+        job.statusFailures = 0;
+        long now = System.currentTimeMillis();
+        switch (status) {
+            case "QUEUED":
+            case "RUNNING":
+                RunMetrics.Timeline timeline = metrics.timeline(job.cacheKey);
+                if (status.equals("RUNNING") && timeline.firstRunning == 0) {
+                    timeline.firstRunning = now;
+                }
+                if (!status.equals(job.lastStatus)) {
+                    journal(job, status);
+                }
+                pollScheduler.reschedule(job, now);
+                break;
 
-                case "ERROR":
-                case "NOT_FOUND":
-                case "FAILURE":
-                default:
-                    toRemove.add(activeIndex);
-                    completedJobs.put(activeIndex, job);
-                    String failMessage = "An error occurred with " + job.name + "[" + job.jobid + "]. Status: " + status;
-                    progress.beginNextSubtask(failMessage);
-                    logger.log(Level.SEVERE, failMessage);
+            case "FINISHED":
+                // 4. Process results. The job no longer counts against
+                //    EBI's limit, so its slot is free for the next one.
+                pollScheduler.finished(job, now, true);
+                metrics.timeline(job.cacheKey).finished = now;
+                journal(job, status);
+                lease.release();
+                String message = "Getting results for " + job.name;
+                progress.beginNextSubtask(message);
+                logger.log(Level.INFO, message);
+                CompletableFuture.supplyAsync(() -> fetchResults(job), downloaders)
+                        .whenComplete((result, failure) -> events.add(() -> resultsReady(job, result, failure)));
+                break;
+
+            case "ERROR":
+            case "NOT_FOUND":
+            case "FAILURE":
+            default:
+                pollScheduler.finished(job, now, false);
+                if (job.resumed && status.equals("NOT_FOUND")) {
+                    resubmit(job);
                     break;
+                }
+                journal(job, status);
+                activeJobs.remove(job.indexes.get(0));
+                lease.release();
+                String failMessage = "An error occurred with " + job.name + "[" + job.jobid + "]. Status: " + status;
+                progress.beginNextSubtask(failMessage);
+                fail(job, "EBI reported " + status + " for job " + job.jobid);
+                completeJob(job);
+                break;
+        }
+    }
+
+
+    /**
+     * Records the parsed results of a job, or why there are none.
+     *
+     * @param job       The job.
+     * @param result    The annotations to add, or null if there are none.
+     * @param error     Why the results could not be fetched or parsed, or null.
+     */
+    private void resultsReady(Job job, AnnotationGeneratorResult result, Throwable error) {
+        if (error != null) {
+            Throwable cause = unwrap(error);
+            fail(job, cause.getMessage());
+        } else {
+            job.annotationGeneratorResult = result;
+            if (job.jobid != null) {
+                // Only results that are not cached need the job again if the run stops here.
+                journal(job, cache != null && cache.contains(job.searchKey) ? JobJournal.CACHED : JobJournal.DOWNLOADED);
             }
         }
-        // Remove from active
-        toRemove.forEach(activeJobs::remove);
+        activeJobs.remove(job.indexes.get(0));
+        completeJob(job);
+    }
+
+
+    /**
+     * Queues a job resumed from an earlier run to be submitted again,
+     * ahead of the other waiting sequences, because EBI no longer knows it.
+     *
+     * @param job   The resumed job.
+     */
+    private void resubmit(Job job) {
+        journal(job, JobJournal.EXPIRED);
+        logger.log(Level.INFO, job.name + ": job " + job.jobid + " from an earlier run has expired, submitting again.");
+        activeJobs.remove(job.indexes.get(0));
+        lease.release();
+        // Its "Submitting job" subtask has already been shown.
+        deferrals.putIfAbsent(job.cacheKey, 0);
+        pendingGroups.addFirst(new AbstractMap.SimpleEntry<>(job.cacheKey, job.indexes));
+    }
+
+
+    /**
+     * Records a job's new status in the journal, if there is one.
+     *
+     * @param job       The job, which must have a jobid.
+     * @param status    Its status.
+     */
+    private void journal(Job job, String status) {
+        job.lastStatus = status;
+        if (journal != null) {
+            journal.record(job.searchKey, job.jobid, batch.getUrn(job.indexes.get(0)), status);
+        }
+    }
+
+
+    /**
+     * @return How long the stages can be left alone: until the next status
+     *         check is due, or a sequence could be submitted, but never so
+     *         long that a cancellation goes unnoticed.
+     */
+    private long timeUntilNextWork() {
+        long now = System.currentTimeMillis();
+        if (!uncheckedGroups.isEmpty() && parsingLocally < LOCAL_CONCURRENCY) {
+            return 0;
+        }
+        if (!pendingGroups.isEmpty() && submitting < SUBMIT_CONCURRENCY
+                && lease.isAvailable() && breaker.allowsSubmission(now)) {
+            return 0;
+        }
+        long untilPoll = polling < POLL_CONCURRENCY ? pollScheduler.nextPoll() - now : sleepBetweenJobs;
+        return Math.max(0, Math.min(sleepBetweenJobs, untilPoll));
     }
 
 
     /**
-     * Registers the given document with the EBI webservice.
+     * Waits for the stages to report, then acts on everything they have.
      *
-     * @param document  The document to search.
+     * @param timeoutMillis How long to wait for the first report.
      *
-     * @return A jobid if registration was successful.
+     * @throws InterruptedException if interrupted while waiting.
      */
-    public void addNextJobToQueue(PluginDocument document) {
-        AminoAcidSequenceDocument sequenceDocument = (AminoAcidSequenceDocument) document;
-        String sequence = trimTerminator(sequenceDocument.getSequenceString());
-        String name = sequenceDocument.getName();
-        progress.beginNextSubtask("Submitting job for " + name);
-        Runner runner = new Runner(documents, null, progress);
-        String jobid = runner.submitNewJob(sequence, email, appl, featType, goterms, pathways);
-        if (jobid != null && !jobid.isEmpty()) {
-            activeJobs.put(index, new Job(jobid, name, sequence.length()));
-            progress.beginNextSubtask(name + " submitted, awaiting results.");
-            logger.log(Level.INFO, name + " submitted successfully, jobid=" + jobid);
-        } else {
-            completedJobs.put(index, null);
-            progress.beginNextSubtask(name + " had a submission error.");
-            progress.beginNextSubtask(name + " skipped.");
-            logger.log(Level.SEVERE, name + " did not submit - job skipped.");
+    private void handleEvents(long timeoutMillis) throws InterruptedException {
+        Runnable event = events.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        while (event != null) {
+            event.run();
+            event = events.poll();
+        }
+    }
+
+
+    /**
+     * Sleeps for a retry delay, waking regularly to check for cancellation.
+     *
+     * @param millis    The delay.
+     */
+    private void pause(long millis) throws DocumentOperationException.Canceled, InterruptedException {
+        long until = System.currentTimeMillis() + millis;
+        for (long remaining = millis; remaining > 0; remaining = until - System.currentTimeMillis()) {
+            checkCancelled();
+            Thread.sleep(Math.min(remaining, SLEEP_BETWEEN_JOBS));
+        }
+    }
+
+
+    /**
+     * @param millis    A real time delay.
+     *
+     * @return The delay at this Runner's time scale.
+     */
+    private long scaled(long millis) {
+        return Math.max(1, Math.round(timeScale * millis));
+    }
+
+
+    /**
+     * Groups the documents by search key, so that identical sequences
+     * are only searched once.
+     *
+     * @return The document indexes for each distinct search, in the order
+     *         each search was first seen.
+     *
+     * @throws DocumentOperationException if a document cannot be loaded.
+     */
+    private LinkedHashMap<String, List<Integer>> groupIdenticalSequences() throws DocumentOperationException {
+        LinkedHashMap<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            checkCancelled();
+            String sequence = trimTerminator(batch.getSequence(i));
+            String key = ResultCache.keyFor(sequence, appl, goterms, pathways, resultFormat);
+            groups.computeIfAbsent(key, k -> new ArrayList<>(1)).add(i);
+            groupLengths.putIfAbsent(key, sequence.length());
+        }
+        if (groups.size() < batch.size()) {
+            logger.log(Level.INFO, batch.size() + " documents contain " + groups.size() + " distinct sequences.");
+        }
+        return groups;
+    }
+
+
+    /**
+     * Orders the searches for submission. EBI's run time grows with
+     * sequence length, so a long sequence submitted last leaves the batch
+     * waiting on one job while the other slots sit empty. Submitting the
+     * longest first packs the short ones into the gaps, and the batch
+     * finishes sooner. Shortest first instead returns the first results
+     * sooner. Results go back to their documents whatever the order.
+     *
+     * @param groups    The document indexes for each distinct search, in selection order.
+     *
+     * @return The searches in the order to submit them.
+     */
+    private List<Map.Entry<String, List<Integer>>> orderForSubmission(LinkedHashMap<String, List<Integer>> groups) {
+        List<Map.Entry<String, List<Integer>>> ordered = new ArrayList<>(groups.entrySet());
+        Comparator<Map.Entry<String, List<Integer>>> byLength = Comparator.comparing(group -> groupLengths.get(group.getKey()));
+        // The sort is stable, so sequences of equal length stay in selection order.
+        if (InterproscanOptions.ORDER_LONGEST_FIRST.equals(submissionOrder)) {
+            ordered.sort(byLength.reversed());
+        } else if (InterproscanOptions.ORDER_SHORTEST_FIRST.equals(submissionOrder)) {
+            ordered.sort(byLength);
+        }
+        return ordered;
+    }
+
+
+    /**
+     * Answers a group of identical sequences from the result cache or the
+     * precalculated matches, if either has results for every selected
+     * member database. Needs no slot, since nothing is sent to EBI.
+     *
+     * @param key       The search key shared by the group.
+     * @param indexes   The indexes of the documents in the group.
+     *
+     * @return true if the group's results were found, and are being parsed.
+     */
+    private boolean findLocally(String key, List<Integer> indexes) throws DocumentOperationException {
+        String sequence = trimTerminator(batch.getSequence(indexes.get(0)));
+        String name = batch.getName(indexes.get(0));
+
+        byte[] cached = cache != null ? cache.get(key) : null;
+        if (cached != null) {
+            metrics.timeline(key).cached = true;
+            found(key, name, name + " found in result cache.", "Reading cached results for " + name);
+            parseLocalResults(new Job(null, name, sequence.length(), key, indexes), resultParser, cached);
+            return true;
+        }
+
+        byte[] rows = findPrecalculated(sequence, name);
+        if (rows != null) {
+            metrics.timeline(key).precalculated = true;
+            found(key, name, name + " found in precalculated matches.", "Reading precalculated matches for " + name);
+            parseLocalResults(new Job(null, name, sequence.length(), key, indexes), precalculatedParser, rows);
+            return true;
+        }
+
+        // Results for every selected database may be cached from scans
+        // with fewer of them. If only some are, they are looked up again
+        // when the group is submitted, rather than held while it waits.
+        String coverageKey = ResultCache.coverageKeyFor(sequence, goterms, pathways, resultFormat);
+        List<ResultCache.Part> parts = cache != null && incremental ? cache.findParts(coverageKey, appl) : List.of();
+        List<String> missing = new ArrayList<>(appl);
+        List<byte[]> partResults = new ArrayList<>(parts.size());
+        for (ResultCache.Part part : parts) {
+            missing.removeAll(part.appl);
+            partResults.add(part.result);
+        }
+        if (!parts.isEmpty() && missing.isEmpty()) {
+            metrics.timeline(key).cached = true;
+            found(key, name, name + " found in " + parts.size() + " cached results.", "Reading cached results for " + name);
+            Job job = new Job(null, name, sequence.length(), key, indexes)
+                    .search(appl, key, coverageKey, partResults.subList(1, partResults.size()));
+            parseLocalResults(job, resultParser, partResults.get(0));
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Reports that a group's results were found without EBI, in the three
+     * subtasks every sequence has.
+     *
+     * @param key       The group's search key.
+     * @param name      The name of its (first) document.
+     * @param found     Where they were found.
+     * @param reading   That they are being parsed.
+     */
+    private void found(String key, String name, String found, String reading) {
+        metrics.timeline(key).slotAcquired = System.currentTimeMillis();
+        progress.beginNextSubtask("Looking up results for " + name);
+        progress.beginNextSubtask(found);
+        progress.beginNextSubtask(reading);
+        logger.log(Level.INFO, found);
+    }
+
+
+    /**
+     * Registers a group of identical sequences with the EBI webservice,
+     * unless a job for them was left by an earlier run. The group must
+     * already have been looked up by {@link #findLocally}, and the caller
+     * must have acquired a slot, which is kept only if a job is started
+     * or resumed. If some of the selected member databases have cached
+     * results, the job searches only the others, and its results are
+     * joined with the cached ones.
+     *
+     * The submission itself happens in the submission stage; its outcome
+     * is handled by {@link #submitted}.
+     *
+     * @param key       The search key shared by the group.
+     * @param indexes   The indexes of the documents in the group.
+     *
+     * @return true if a request was made to EBI.
+     */
+    public boolean addNextJobToQueue(String key, List<Integer> indexes) throws DocumentOperationException {
+        String sequence = trimTerminator(batch.getSequence(indexes.get(0)));
+        String name = batch.getName(indexes.get(0));
+        RunMetrics.Timeline timeline = metrics.timeline(key);
+        timeline.slotAcquired = System.currentTimeMillis();
+        if (!deferrals.containsKey(key)) {
+            progress.beginNextSubtask("Submitting job for " + name);
+        }
+
+        // Results for some of the selected databases may be cached from
+        // scans with fewer of them; then only the others are searched.
+        String coverageKey = ResultCache.coverageKeyFor(sequence, goterms, pathways, resultFormat);
+        List<ResultCache.Part> parts = cache != null && incremental ? cache.findParts(coverageKey, appl) : List.of();
+        List<String> missing = new ArrayList<>(appl);
+        List<byte[]> partResults = new ArrayList<>(parts.size());
+        for (ResultCache.Part part : parts) {
+            missing.removeAll(part.appl);
+            partResults.add(part.result);
+        }
+        if (!parts.isEmpty() && missing.isEmpty()) {
+            // Cached by another Runner since the group was looked up.
+            lease.release();
+            timeline.cached = true;
+            progress.beginNextSubtask(name + " found in result cache.");
+            progress.beginNextSubtask("Reading cached results for " + name);
+            Job job = new Job(null, name, sequence.length(), key, indexes)
+                    .search(appl, key, coverageKey, partResults.subList(1, partResults.size()));
+            parseLocalResults(job, resultParser, partResults.get(0));
+            return false;
+        }
+        String searchKey = parts.isEmpty() ? key : ResultCache.keyFor(sequence, missing, goterms, pathways, resultFormat);
+        if (!parts.isEmpty()) {
+            logger.log(Level.INFO, name + " has cached results for " + (appl.size() - missing.size()) + " of "
+                    + appl.size() + " applications; searching " + String.join(", ", missing) + ".");
+        }
+
+        // A job for the same search from an earlier, unfinished run may
+        // still be running at EBI, or have finished.
+        JobJournal.Entry previous = journal != null ? journal.find(searchKey, System.currentTimeMillis()) : null;
+        if (previous != null) {
+            Job job = new Job(previous.jobid, name, sequence.length(), key, indexes)
+                    .search(missing, searchKey, coverageKey, partResults);
+            job.resumed = true;
+            job.lastStatus = previous.status;
+            timeline.resumed = true;
+            activeJobs.put(indexes.get(0), job);
+            pollScheduler.add(job, sequence.length(), previous.time);
+            // Not a subtask of its own, since the job may yet have to be submitted again.
+            progress.setMessage(name + " resumed from an earlier run, awaiting results.");
+            logger.log(Level.INFO, name + " resumed from an earlier run, jobid=" + previous.jobid);
+            return false;
+        }
+
+        submitting++;
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                String jobid = submitNewJob(sequence, missing);
+                timeline.submitted = System.currentTimeMillis();
+                return jobid;
+            } catch (IOException | InterruptedException | DocumentOperationException.Canceled e) {
+                throw new CompletionException(e);
+            }
+        }, submitters).whenComplete((jobid, error) -> events.add(() -> {
+            submitting--;
+            submitted(new Job(jobid, name, sequence.length(), key, indexes)
+                    .search(missing, searchKey, coverageKey, partResults), error);
+        }));
+        return true;
+    }
+
+
+    /**
+     * Starts polling a newly submitted job, or, if the submission failed,
+     * either puts its sequences back in the queue or records why they
+     * could not be scanned.
+     *
+     * @param job   The job, with no jobid if the submission failed.
+     * @param error Why the submission failed, or null.
+     */
+    private void submitted(Job job, Throwable error) {
+        if (error == null) {
+            metrics.timeline(job.cacheKey).resumed = false;
+            journal(job, JobJournal.SUBMITTED);
+            activeJobs.put(job.indexes.get(0), job);
+            pollScheduler.add(job, job.sequenceLength, System.currentTimeMillis());
+            progress.beginNextSubtask(job.name + " submitted, awaiting results.");
+            logger.log(Level.INFO, job.name + " submitted successfully, jobid=" + job.jobid);
+            return;
+        }
+
+        lease.release();
+        Throwable cause = unwrap(error);
+        if (cause instanceof InterruptedException || cause instanceof DocumentOperationException.Canceled) {
+            // The run is ending.
+            return;
+        }
+        // EBI is struggling, so try this sequence again after the rest.
+        if (RetryPolicy.isTransient(cause) && deferrals.merge(job.cacheKey, 1, Integer::sum) <= MAX_DEFERRALS) {
+            logger.log(Level.WARNING, job.name + " could not be submitted (" + cause.getMessage() + "); will try again later.");
+            pendingGroups.addLast(new AbstractMap.SimpleEntry<>(job.cacheKey, job.indexes));
+            return;
+        }
+        progress.beginNextSubtask(job.name + " had a submission error.");
+        progress.beginNextSubtask(job.name + " skipped.");
+        fail(job, "Submission failed: " + cause.getMessage());
+        completeJob(job);
+    }
+
+
+    /**
+     * Records a job's outcome against every document in its group, or
+     * applies it to them straight away, and advances the progress bar past
+     * the identical documents that shared it.
+     *
+     * @param job   The finished, failed or skipped job.
+     */
+    private void completeJob(Job job) {
+        metrics.completed(metrics.timeline(job.cacheKey), job.name, job.jobid, job.failure);
+        for (int i = 0; i < job.indexes.size(); i++) {
+            int documentIndex = job.indexes.get(i);
+            if (job.failure != null) {
+                failed.set(documentIndex);
+            }
+            AnnotationGeneratorResult result = shift(job.annotationGeneratorResult, batch.getOffset(documentIndex));
+            if (results != null) {
+                results[documentIndex] = result;
+            } else {
+                applyResult(documentIndex, result);
+            }
+            if (i > 0) {
+                String message = batch.getName(documentIndex) + " is identical to " + job.name + ", sharing its results.";
+                progress.beginNextSubtask(message);
+                progress.beginNextSubtask(message);
+                progress.beginNextSubtask(message);
+            }
+        }
+    }
+
+    /**
+     * Adds a job's annotations to a document, e.g. saving it, so that
+     * neither has to be kept until the end of the run.
+     *
+     * @param index     The document's index.
+     * @param result    The annotations to add.
+     */
+    private void applyResult(int index, AnnotationGeneratorResult result) {
+        if (result == null || result.getAnnotationsToAdd().isEmpty()) {
+            return;
+        }
+        try {
+            batch.apply(index, result);
+        } catch (DocumentOperationException | RuntimeException e) {
+            failed.set(index);
+            logger.log(Level.SEVERE, "Unable to add annotations to " + batch.getName(index), e);
         }
-        index++;
+    }
+
+    /**
+     * Moves annotations from the coordinates of the scanned part of a
+     * sequence to those of the whole sequence. Annotations covering the
+     * whole of the scanned part, such as errors, then cover just that part.
+     *
+     * @param result    The annotations, or null.
+     * @param offset    The number of residues before the scanned part.
+     *
+     * @return The moved annotations, or the same ones if the offset is 0.
+     *         A result shared by identical sequences is left as it was.
+     */
+    private static AnnotationGeneratorResult shift(AnnotationGeneratorResult result, int offset) {
+        if (result == null || offset == 0) {
+            return result;
+        }
+        AnnotationGeneratorResult shifted = new AnnotationGeneratorResult();
+        for (SequenceAnnotation annotation : result.getAnnotationsToAdd()) {
+            SequenceAnnotation copy = new SequenceAnnotation(annotation.getName(), annotation.getType());
+            for (SequenceAnnotationQualifier qualifier : annotation.getQualifiers()) {
+                copy.addQualifier(qualifier.getName(), qualifier.getValue());
+            }
+            for (SequenceAnnotationInterval interval : annotation.getIntervals()) {
+                copy.addInterval(interval.getMinimumIndex() + offset, interval.getMaximumIndex() + offset,
+                        interval.getDirection());
+            }
+            shifted.addAnnotationToAdd(copy);
+        }
+        return shifted;
     }
 
     /**
@@ -229,38 +1064,72 @@ public class Runner {
         return s.endsWith("*") ? s.substring(0, (s.length() - 1)) : s;
     }
 
-    private String submitNewJob(String sequence, String email, List<String> appl, String featType, boolean goterms, boolean pathways) {
-        try {
-            URL url = new URL("https://www.ebi.ac.uk/Tools/services/rest/interproscan/run/");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            conn.setDoOutput(true);
-    
-            String params = "sequence=" + sequence
-                    + "&email=" + email
-                    + "&goterms=" + (goterms ? "on" : "off")
-                    + "&pathways=" + (pathways ? "on" : "off");
-    
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = params.getBytes("utf-8");
-                os.write(input, 0, input.length);
-            }
-    
-            BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"));
-            StringBuilder response = new StringBuilder();
-            String responseLine = null;
-            while ((responseLine = br.readLine()) != null) {
-                response.append(responseLine.trim());
+
+    /**
+     * Submits a job, retrying transient failures with backoff.
+     *
+     * @param sequence  The protein sequence.
+     * @param appl      The member databases to search.
+     *
+     * @return The new job's id.
+     *
+     * @throws IOException          if the job could not be submitted.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private String submitNewJob(String sequence, List<String> appl) throws IOException, InterruptedException, DocumentOperationException.Canceled {
+        for (int attempt = 1; ; attempt++) {
+            long started = System.currentTimeMillis();
+            try {
+                String jobid = backend.submit(sequence, email, appl, goterms, pathways);
+                breaker.success(System.currentTimeMillis());
+                limiter.success(System.currentTimeMillis() - started);
+                if (jobid == null || jobid.isEmpty()) {
+                    throw new IOException("No job id returned");
+                }
+                return jobid;
+            } catch (IOException e) {
+                if (RetryPolicy.isTransient(e)) {
+                    breaker.failure(System.currentTimeMillis());
+                    limiter.failure();
+                }
+                if (!RetryPolicy.SUBMIT.shouldRetry(e, attempt)
+                        || !breaker.allowsSubmission(System.currentTimeMillis())) {
+                    throw e;
+                }
+                long delay = scaled(RetryPolicy.SUBMIT.delay(attempt, jitter));
+                logger.log(Level.WARNING, "Submission attempt " + attempt + " failed (" + e.getMessage()
+                        + "); retrying in " + delay + " ms.");
+                pause(delay);
             }
-            return response.toString();
-    
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error submitting new job: " + e.getMessage(), e);
-            return null;
         }
     }
-    
+
+
+    /**
+     * Records why a job has no results, for every document it covers.
+     *
+     * @param job       The job.
+     * @param reason    What went wrong.
+     */
+    private void fail(Job job, String reason) {
+        job.failure = reason;
+        job.annotationGeneratorResult = xmlParser.errorResult(job.sequenceLength, reason);
+        logger.log(Level.SEVERE, job.name + ": " + reason);
+    }
+
+
+    /**
+     * Logs a summary of the documents that could not be scanned.
+     */
+    private void logFailures() {
+        if (!failed.isEmpty()) {
+            logger.log(Level.WARNING, failed.cardinality() + " of " + batch.size() + " documents could not be scanned.");
+        }
+        if (breaker.getTrips() > 0) {
+            logger.log(Level.INFO, "Submissions were paused " + breaker.getTrips() + " times while EBI was failing.");
+        }
+    }
+
 
 
     /**
@@ -275,49 +1144,281 @@ public class Runner {
 
 
     /**
-     * Retrieve the results for a specific job.
+     * Downloads and parses the results for a job, retrying transient
+     * failures with backoff. This is the download stage, so it runs on a
+     * worker thread. The parser reads the download as it arrives, so no
+     * result is ever held whole in memory.
+     *
+     * @param job   The finished job.
+     *
+     * @return The annotations to add.
+     *
+     * @throws CompletionException wrapping the last error, if the results could not be downloaded.
+     */
+    private AnnotationGeneratorResult fetchResults(Job job) {
+        RunMetrics.Timeline timeline = metrics.timeline(job.cacheKey);
+        timeline.downloadStarted = System.currentTimeMillis();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                AnnotationGeneratorResult result = downloadResults(job, timeline);
+                breaker.success(System.currentTimeMillis());
+                return joinCachedParts(result, resultParser, job);
+            } catch (IOException ex) {
+                if (RetryPolicy.isTransient(ex)) {
+                    breaker.failure(System.currentTimeMillis());
+                    // Downloads vary with the size of the result, so only their failures count.
+                    limiter.failure();
+                }
+                if (!RetryPolicy.RESULT.shouldRetry(ex, attempt)) {
+                    throw new CompletionException(new IOException(
+                            "Download failed after " + attempt + " attempts: " + ex.getMessage(), ex));
+                }
+                long delay = scaled(RetryPolicy.RESULT.delay(attempt, jitter));
+                logger.log(Level.WARNING, "Download attempt " + attempt + " for " + job.name + " failed ("
+                        + ex.getMessage() + "); retrying in " + delay + " ms.");
+                try {
+                    pause(delay);
+                } catch (InterruptedException | DocumentOperationException.Canceled e) {
+                    throw new CompletionException(new IOException("Interrupted while downloading results", e));
+                }
+            } catch (InterruptedException ex) {
+                throw new CompletionException(new IOException("Interrupted while downloading results", ex));
+            }
+        }
+    }
+
+
+    /**
+     * Downloads and parses the results for a job, once, writing a copy to
+     * the result cache as they stream.
+     *
+     * @param job       The finished job.
+     * @param timeline  The job's timeline, to which the download's times and size are added.
+     *
+     * @return The annotations to add.
+     *
+     * @throws IOException          if the download failed, even part way through.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private AnnotationGeneratorResult downloadResults(Job job, RunMetrics.Timeline timeline)
+            throws IOException, InterruptedException {
+        long started = System.currentTimeMillis();
+        ErrorTrackingInputStream download = new ErrorTrackingInputStream(job.downloadResults(backend, resultFormat));
+        try (download; ResultCache.Entry entry = cache != null ? cache.create(job.coverageKey, job.appl, job.searchKey) : null) {
+            InputStream in = entry != null ? new TeeInputStream(download, entry) : download;
+
+            // For debugging, keep a copy on disk, and parse that.
+            String spoolDirectory = System.getProperty(SPOOL_DIRECTORY_PROPERTY);
+            if (spoolDirectory != null) {
+                Path spoolFile = Paths.get(spoolDirectory, job.jobid + "." + resultFormat);
+                Files.copy(in, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+                logger.log(Level.INFO, "Results for " + job.name + " spooled to " + spoolFile);
+                in = new BufferedInputStream(Files.newInputStream(spoolFile));
+            }
+
+            AnnotationGeneratorResult result;
+            // Closing the tee reads the rest into the cache, even if the parser stopped early.
+            try (InputStream source = in) {
+                result = resultParser.parse(source, job.sequenceLength);
+            }
+            // The parser reports a broken connection as a bad result.
+            download.rethrow();
+            if (entry != null) {
+                entry.commit();
+            }
+            return result;
+        } finally {
+            // Parsing pulls the download along, so time spent waiting for
+            // bytes counts as downloading and the rest as parsing.
+            timeline.downloaded = started + download.readNanos / 1_000_000;
+            timeline.parseStarted = timeline.downloaded;
+            timeline.parsed = System.currentTimeMillis();
+            // Retried downloads add to the total.
+            timeline.bytes += download.bytes;
+        }
+    }
+
+
+    /**
+     * Hands a result that needed no EBI job to the parse stage.
      *
-     * @param job            The requesting job.
+     * @param job       The job, with no jobid.
+     * @param parser    The parser for the result's format.
+     * @param raw       The result.
+     */
+    private void parseLocalResults(Job job, ResultParser parser, byte[] raw) {
+        parsingLocally++;
+        activeJobs.put(job.indexes.get(0), job);
+        CompletableFuture.supplyAsync(() -> parseResults(parser, new ByteArrayInputStream(raw), job), parsers)
+                .whenComplete((result, error) -> events.add(() -> {
+                    parsingLocally--;
+                    resultsReady(job, result, error);
+                }));
+    }
+
+
+    /**
+     * Opens the precalculated matches named in the options, indexing
+     * them first if they are new or have changed. Without them, every
+     * sequence not in the result cache is sent to EBI.
+     */
+    private void openPrecalculatedMatches() {
+        if (precalculated != null || precalculatedFile == null) {
+            return;
+        }
+        progress.setMessage("Opening precalculated matches...");
+        try {
+            precalculated = PrecalculatedMatches.getInstance(precalculatedFile);
+            openedPrecalculated = precalculated;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to open precalculated matches in " + precalculatedFile, e);
+        }
+    }
+
+
+    /**
+     * Lets go of the shared precalculated matches this run opened, so
+     * their files are closed once no other Runner is using them.
+     */
+    private void closePrecalculatedMatches() {
+        if (openedPrecalculated == null) {
+            return;
+        }
+        try {
+            openedPrecalculated.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to close precalculated matches in " + precalculatedFile, e);
+        }
+        openedPrecalculated = null;
+        precalculated = null;
+    }
+
+
+    /**
+     * @param sequence  A trimmed sequence.
+     * @param name      The name of its (first) document.
      *
-     * @return The annotation generator for the given job id.
+     * @return The sequence's precalculated TSV rows, or null if it has
+     *         none or there are no precalculated matches.
      */
-    private AnnotationGeneratorResult postProcessResults(Job job) {
+    private byte[] findPrecalculated(String sequence, String name) {
+        if (precalculated == null) {
+            return null;
+        }
         try {
-            // 1. Create temporary file.
-            File outfile = FileUtilities.createTempFile(myKey.toString(), ".xml", true);
+            return precalculated.find(sequence);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to look up precalculated matches for " + name, e);
+            return null;
+        }
+    }
+
 
-            // 2. Retrieve results into temporary file.
-            job.downloadResults("xml", outfile);
+    /**
+     * Turns a raw result into annotations for the given job. This is the
+     * parse stage, so it runs on a worker thread.
+     *
+     * @param parser    The parser for the result's format.
+     * @param in        The result from EBI, the result cache or the precalculated matches.
+     * @param job       The job the result belongs to, with any cached results to join it with.
+     *
+     * @return The annotations to add.
+     */
+    private AnnotationGeneratorResult parseResults(ResultParser parser, InputStream in, Job job) {
+        RunMetrics.Timeline timeline = metrics.timeline(job.cacheKey);
+        timeline.parseStarted = System.currentTimeMillis();
+        AnnotationGeneratorResult result = joinCachedParts(parser.parse(in, job.sequenceLength), parser, job);
+        timeline.parsed = System.currentTimeMillis();
+        return result;
+    }
 
-            // 3. Parse XML from temporary file.
-            XmlParser xmlParser = new XmlParser(FileUtilities.getTextFromFile(outfile))
-                    .setSeqLength(job.sequenceLength)
-                    .setFeatType(featType)
-                    .setMakeExtraFeats(extraFeatures);
 
-            return xmlParser.parseXml();
-        } catch (IOException ex) {
-            logger.log(Level.SEVERE, "Unable to create temporary file for results to download to.");
+    /**
+     * @param result    The annotations of a job's search.
+     * @param parser    The parser for the format of the job's cached results.
+     * @param job       The job, with any cached results for the other selected member databases.
+     *
+     * @return The annotations joined with those of the cached results.
+     */
+    private AnnotationGeneratorResult joinCachedParts(AnnotationGeneratorResult result, ResultParser parser, Job job) {
+        if (job.cachedParts.isEmpty()) {
+            return result;
         }
-        return new AnnotationGeneratorResult();
+        List<AnnotationGeneratorResult> parts = new ArrayList<>(job.cachedParts.size() + 1);
+        parts.add(result);
+        for (byte[] part : job.cachedParts) {
+            parts.add(parser.parse(new ByteArrayInputStream(part), job.sequenceLength));
+        }
+        return xmlParser.merge(parts, job.sequenceLength);
     }
 
 
     /**
-     * Because EBI has a fair usage limit on number of concurrent jobs
-     * per-user, this waits until it is the first Runner in the internal
-     * queue of Runners to begin processing it's tasks.
+     * @param error An error reported by a stage.
      *
-     * @throws DocumentOperationException .
-     * @throws InterruptedException       .
+     * @return The error it wraps, if any.
      */
-    private void waitMyTurn() throws DocumentOperationException, InterruptedException {
-        Runner.RUNNERS.add(myKey);
-        while (RUNNERS.indexOf(myKey) != 0){
-            Thread.sleep(250);
-            checkCancelled();
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+
+    /**
+     * Remembers the first read error, so that it is not lost when a
+     * reader further up catches it. Also counts the bytes read, and the
+     * time spent waiting for them.
+     */
+    private final static class ErrorTrackingInputStream extends FilterInputStream {
+        private IOException error;
+        long bytes, readNanos;
+
+        ErrorTrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                int b = super.read();
+                count(b < 0 ? -1 : 1, start);
+                return b;
+            } catch (IOException e) {
+                throw track(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                int n = super.read(b, off, len);
+                count(n, start);
+                return n;
+            } catch (IOException e) {
+                throw track(e);
+            }
+        }
+
+        private void count(int n, long start) {
+            readNanos += System.nanoTime() - start;
+            if (n > 0) {
+                bytes += n;
+            }
+        }
+
+        private IOException track(IOException e) {
+            if (error == null) {
+                error = e;
+            }
+            return e;
+        }
+
+        void rethrow() throws IOException {
+            if (error != null) {
+                throw error;
+            }
         }
-        RUNNERS.remove(myKey);
     }
 
 
@@ -325,54 +1426,66 @@ public class Runner {
      * Class to store administrative data about running jobs.
      */
     private final static class Job {
-        public String jobid, name;
-        public int sequenceLength;
+        public String jobid, name, cacheKey, failure, lastStatus;
+        public int sequenceLength, statusFailures;
+        public boolean resumed;
+        public List<Integer> indexes;
+        // What is searched, which with cached results for some of the
+        // selected databases is less than the group's search.
+        public List<String> appl;
+        public String searchKey, coverageKey;
+        public List<byte[]> cachedParts = List.of();
         public AnnotationGeneratorResult annotationGeneratorResult;
 
-        public Job(String jobid, String name, int sequenceLength) {
+        public Job(String jobid, String name, int sequenceLength, String cacheKey, List<Integer> indexes) {
             this.jobid = jobid;
             this.name = name;
             this.sequenceLength = sequenceLength;
+            this.cacheKey = cacheKey;
+            this.indexes = indexes;
+            this.searchKey = cacheKey;
         }
 
-        public String checkStatus() {
-            try {
-                URL url = new URL("https://www.ebi.ac.uk/Tools/services/rest/interproscan/status/" + this.jobid);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                
-                BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"));
-                StringBuilder response = new StringBuilder();
-                String responseLine = null;
-                while ((responseLine = br.readLine()) != null) {
-                    response.append(responseLine.trim());
-                }
-                return response.toString();
-        
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error checking job status: " + e.getMessage(), e);
-                return "ERROR";
-            }
+        /**
+         * @param appl          The member databases searched.
+         * @param searchKey     The key of that search, for the journal and the result cache.
+         * @param coverageKey   The key the result is listed under in the result cache.
+         * @param cachedParts   Cached results for the other selected databases.
+         *
+         * @return This job.
+         */
+        public Job search(List<String> appl, String searchKey, String coverageKey, List<byte[]> cachedParts) {
+            this.appl = appl;
+            this.searchKey = searchKey;
+            this.coverageKey = coverageKey;
+            this.cachedParts = cachedParts;
+            return this;
         }
 
-        public void downloadResults(String format, File outfile) {
-            try {
-                URL url = new URL("https://www.ebi.ac.uk/Tools/services/rest/interproscan/result/" + this.jobid + "/" + format);
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "utf-8"));
-                     FileWriter fw = new FileWriter(outfile)) {
-        
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        fw.write(line + "\n");
-                    }
-                }
-        
-            } catch (Exception e) {
-                logger.log(Level.SEVERE, "Error downloading job results: " + e.getMessage(), e);
-            }
+        /**
+         * Asks for the job's status without blocking.
+         *
+         * @param backend   The service running the job.
+         *
+         * @return The status. Completes exceptionally if it could not be retrieved.
+         */
+        public CompletableFuture<String> checkStatus(ScanBackend backend) {
+            return backend.status(this.jobid);
+        }
+
+        /**
+         * Opens the result for reading.
+         *
+         * @param backend   The service running the job.
+         * @param format    The result type, e.g. "xml".
+         *
+         * @return The result. The caller must close it.
+         *
+         * @throws IOException          if the result cannot be retrieved.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        public InputStream downloadResults(ScanBackend backend, String format) throws IOException, InterruptedException {
+            return backend.result(this.jobid, format);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,55 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A service that runs InterProScan jobs one sequence at a time, and that
+ * Runner drives: submit a job, poll its status, then fetch its result.
+ *
+ * Statuses use EBI's vocabulary: QUEUED, RUNNING, FINISHED, ERROR,
+ * FAILURE and NOT_FOUND.
+ */
+public interface ScanBackend {
+
+    /**
+     * Submits a new job.
+     *
+     * @param sequence  The protein sequence.
+     * @param email     The submitter's email address.
+     * @param appl      The member databases to search.
+     * @param goterms   Whether to look up GO terms.
+     * @param pathways  Whether to look up pathways.
+     *
+     * @return The new job's id.
+     *
+     * @throws IOException          if the job was not accepted.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    String submit(String sequence, String email, List<String> appl, boolean goterms, boolean pathways)
+            throws IOException, InterruptedException;
+
+    /**
+     * Asks for a job's status without blocking.
+     *
+     * @param jobid The job.
+     *
+     * @return The status. Completes exceptionally if it could not be retrieved.
+     */
+    CompletableFuture<String> status(String jobid);
+
+    /**
+     * Opens a finished job's result for reading.
+     *
+     * @param jobid     The job.
+     * @param format    The result type, e.g. "xml".
+     *
+     * @return The result. The caller must close it.
+     *
+     * @throws IOException          if the result cannot be retrieved.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    InputStream result(String jobid, String format) throws IOException, InterruptedException;
+}
@@ -0,0 +1,109 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.List;
+
+/**
+ * The settings a {@link Runner} scans with. In Geneious they come from
+ * {@link InterproscanOptions}; the command line builds its own, so that
+ * it never has to start Geneious to read them.
+ */
+interface ScanSettings {
+
+    // The currently supported member databases|applications {
+    //      CDD          Phobius         SignalP_EUK
+    //      Coils        PIRSF           SignalP_GRAM_NEGATIVE
+    //      Gene3d       PRINTS          SignalP_GRAM_POSITIVE
+    //      HAMAP        PrositePatterns SMART
+    //      MobiDBLite   PrositeProfiles SuperFamily
+    //      Panther      SFLD            NCBIfam
+    //      PfamA        SignalP         TMHMM
+    // } Note that the following list is ordered to display as above.
+    List<String> APPLICATIONS = List.of(
+            "CDD",          "Phobius",         "SignalP_EUK",
+            "Coils",        "PIRSF",           "SignalP_GRAM_NEGATIVE",
+            "Gene3d",       "PRINTS",          "SignalP_GRAM_POSITIVE",
+            "HAMAP",        "PrositePatterns", "SMART",
+            "MobiDBLite",   "PrositeProfiles", "SuperFamily",
+            "Panther",      "SFLD",            "NCBIfam",
+            "PfamA",        "SignalP",         "TMHMM"
+    );
+
+    /**
+     * @return The address EBI reports problems to.
+     */
+    String getEmailAddress();
+
+    /**
+     * @return Where searches run, one of the InterproscanOptions.BACKEND_ values.
+     */
+    String getBackend();
+
+    /**
+     * @return The base address of the InterProScan REST service.
+     */
+    String getRestEndpoint();
+
+    /**
+     * @return The format results are fetched in, one of the InterproscanOptions.FORMAT_ values.
+     */
+    String getResultFormat();
+
+    /**
+     * @return The precalculated match file, or an empty string if there is none.
+     */
+    String getPrecalculatedMatches();
+
+    /**
+     * @return The order sequences are submitted in, one of the InterproscanOptions.ORDER_ values.
+     */
+    String getSubmissionOrder();
+
+    /**
+     * @return The most EBI jobs to have in flight at once, however well EBI copes.
+     */
+    int getMaximumConcurrentJobs();
+
+    /**
+     * @return The interproscan.sh script of a local installation.
+     */
+    String getLocalExecutable();
+
+    int getLocalBatchSize();
+
+    int getLocalParallelBatches();
+
+    boolean isGotermsSelected();
+
+    boolean isPathwaysSelected();
+
+    /**
+     * @return How InterPro entries are shown, one of the InterproscanOptions.FEAT_ values.
+     */
+    String getFeatureType();
+
+    /**
+     * @return true if proteins without matches, or with errors, get an annotation saying so.
+     */
+    boolean isExtraFeatureSelected();
+
+    boolean isResultCacheSelected();
+
+    /**
+     * @return true if a protein whose results are cached for some of the
+     *         selected member databases is searched with just the others.
+     */
+    boolean isIncrementalScanSelected();
+
+    boolean isResumeJobsSelected();
+
+    /**
+     * @return true if each protein's annotations are applied as they
+     *         arrive, rather than all returned at the end.
+     */
+    boolean isApplyAsScannedSelected();
+
+    /**
+     * @return The names of the member databases to search, from {@link #APPLICATIONS}.
+     */
+    List<String> getSelectedInterProApps();
+}
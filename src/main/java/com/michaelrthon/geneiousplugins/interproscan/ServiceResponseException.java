@@ -0,0 +1,29 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.IOException;
+
+/**
+ * The service answered a request with an unexpected HTTP status.
+ */
+class ServiceResponseException extends IOException {
+
+    private final int statusCode;
+
+
+    /**
+     * @param statusCode    The HTTP status code.
+     * @param message       What was asked for, and the response.
+     */
+    ServiceResponseException(int statusCode, String message) {
+        super(message);
+        this.statusCode = statusCode;
+    }
+
+
+    /**
+     * @return The HTTP status code.
+     */
+    int getStatusCode() {
+        return statusCode;
+    }
+}
@@ -0,0 +1,31 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A single HttpClient shared by the whole JVM, so that connections (and
+ * their TLS sessions) to EBI are pooled and kept alive between requests.
+ * HTTP/2 is used where the server supports it.
+ */
+final class SharedHttpClientProvider implements HttpClientProvider {
+
+    static final SharedHttpClientProvider INSTANCE = new SharedHttpClientProvider();
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private SharedHttpClientProvider() {
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> handler) {
+        return client.sendAsync(request, handler);
+    }
+}
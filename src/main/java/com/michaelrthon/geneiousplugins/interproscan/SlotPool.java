@@ -0,0 +1,226 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Owns the JVM-wide budget of concurrent EBI jobs, so that all Runners
+ * together stay within EBI's fair usage limit.
+ *
+ * Each Runner registers for a {@link Lease} and acquires one slot per
+ * job it has in flight. A lease may hold at most its fair share of the
+ * pool (the capacity divided by the number of registered leases), so a
+ * small batch started alongside a large one gets slots as soon as the
+ * large batch's jobs finish, rather than waiting for the whole batch.
+ * Waiting is done on the pool's monitor, not by polling.
+ *
+ * The capacity is set by a {@link ConcurrencyLimiter} as EBI's health
+ * changes. A lease may also ask for a ceiling, the most jobs its owner
+ * wants at EBI at once; while it is open, the pool uses no more slots in
+ * total than the lowest ceiling asked for. Lowering either takes no slots
+ * back; it only refuses new ones.
+ */
+final class SlotPool {
+
+    /**
+     * Half the 30 concurrent jobs allowed by EBI, until the limiter has
+     * seen how EBI copes.
+     */
+    final static int DEFAULT_CAPACITY = 15;
+
+    private final static SlotPool SHARED = new SlotPool(DEFAULT_CAPACITY);
+
+    private int capacity;
+    private int leased;
+    private final List<Lease> leases = new ArrayList<>();
+
+
+    /**
+     * @param capacity  The total number of slots.
+     */
+    SlotPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+
+    /**
+     * @return The pool shared by every Runner in the JVM.
+     */
+    static SlotPool getShared() {
+        return SHARED;
+    }
+
+
+    /**
+     * @return A new lease without a ceiling of its own, which must be
+     *         closed when its owner is done.
+     */
+    synchronized Lease register() {
+        return register(Integer.MAX_VALUE);
+    }
+
+
+    /**
+     * @param ceiling   The most slots the pool may use in total while the
+     *                  lease is open, at least 1.
+     *
+     * @return A new lease, which must be closed when its owner is done.
+     */
+    synchronized Lease register(int ceiling) {
+        Lease lease = new Lease(Math.max(1, ceiling));
+        leases.add(lease);
+        notifyAll();
+        return lease;
+    }
+
+
+    /**
+     * @return The total number of slots.
+     */
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * Changes the total number of slots, waking any lease waiting for one.
+     *
+     * @param capacity  The new total, at least 1.
+     */
+    synchronized void setCapacity(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        notifyAll();
+    }
+
+
+    /**
+     * @return The lowest ceiling asked for by an open lease, or
+     *         Integer.MAX_VALUE if none asked for one.
+     */
+    synchronized int getCeiling() {
+        int ceiling = Integer.MAX_VALUE;
+        for (Lease lease : leases) {
+            ceiling = Math.min(ceiling, lease.ceiling);
+        }
+        return ceiling;
+    }
+
+
+    /**
+     * @return The number of slots currently leased.
+     */
+    synchronized int getLeased() {
+        return leased;
+    }
+
+
+    /**
+     * @return The number of slots that may be leased in total.
+     */
+    private int usable() {
+        return Math.min(capacity, getCeiling());
+    }
+
+
+    private int fairShare() {
+        return Math.max(1, (usable() + leases.size() - 1) / leases.size());
+    }
+
+
+    /**
+     * One Runner's share of the pool.
+     */
+    final class Lease implements AutoCloseable {
+
+        private final int ceiling;
+        private int held;
+        private boolean closed;
+
+
+        private Lease(int ceiling) {
+            this.ceiling = ceiling;
+        }
+
+
+        /**
+         * Acquires a slot, waiting up to the given time for one to become
+         * available to this lease.
+         *
+         * @param timeoutMillis How long to wait; 0 to not wait.
+         *
+         * @return true if a slot was acquired.
+         *
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        boolean tryAcquire(long timeoutMillis) throws InterruptedException {
+            synchronized (SlotPool.this) {
+                long deadline = System.currentTimeMillis() + timeoutMillis;
+                while (!closed && (leased >= usable() || held >= fairShare())) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    SlotPool.this.wait(remaining);
+                }
+                if (closed) {
+                    return false;
+                }
+                held++;
+                leased++;
+                return true;
+            }
+        }
+
+
+        /**
+         * @return true if a slot could be acquired by this lease without waiting.
+         */
+        boolean isAvailable() {
+            synchronized (SlotPool.this) {
+                return !closed && leased < usable() && held < fairShare();
+            }
+        }
+
+
+        /**
+         * Returns one slot to the pool.
+         */
+        void release() {
+            synchronized (SlotPool.this) {
+                if (held > 0) {
+                    held--;
+                    leased--;
+                    SlotPool.this.notifyAll();
+                }
+            }
+        }
+
+
+        /**
+         * @return The number of slots this lease holds.
+         */
+        int getHeld() {
+            synchronized (SlotPool.this) {
+                return held;
+            }
+        }
+
+
+        /**
+         * Returns every held slot and leaves the pool, lifting the lease's
+         * ceiling.
+         */
+        @Override
+        public void close() {
+            synchronized (SlotPool.this) {
+                if (!closed) {
+                    closed = true;
+                    leased -= held;
+                    held = 0;
+                    leases.remove(this);
+                    SlotPool.this.notifyAll();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Copies everything read from a stream to a second output, so that a
+ * download can be parsed and kept (e.g. for the result cache) in a
+ * single pass.
+ */
+class TeeInputStream extends FilterInputStream {
+
+    private final OutputStream copy;
+    private boolean closed;
+
+    /**
+     * @param in    The stream to read from.
+     * @param copy  Receives every byte read. It is not closed.
+     */
+    TeeInputStream(InputStream in, OutputStream copy) {
+        super(in);
+        this.copy = copy;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            copy.write(b);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) {
+            copy.write(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes must still reach the copy.
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Reads the rest of the stream before closing it, since consumers
+     * that stop early may also close it themselves.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            drain();
+        } finally {
+            super.close();
+        }
+    }
+
+    /**
+     * Reads the rest of the stream, so the copy is complete even if the
+     * consumer stopped early (e.g. after the XML root element closed).
+     *
+     * @throws IOException if the download is incomplete.
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[8192];
+        while (read(buffer, 0, buffer.length) >= 0) {
+            // Keep reading.
+        }
+    }
+}
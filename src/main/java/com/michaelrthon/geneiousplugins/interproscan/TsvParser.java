@@ -0,0 +1,259 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Parser for InterProScan TSV results, the smallest format EBI serves.
+ *
+ * Each row is one location of a match; rows for the same signature are
+ * gathered into one match, as in the XML result. Rows are read one at a
+ * time as the result streams in, and strings are only made for the
+ * values that are kept. Annotations are built by the {@link XmlParser}.
+ *
+ * TSV has no short names for signatures or entries, only descriptions,
+ * and no entry types or GO term names. Those annotations carry the
+ * descriptions instead, and no type qualifier.
+ */
+final class TsvParser implements ResultParser {
+
+    private final static Logger logger = Logger.getLogger(TsvParser.class.getName());
+
+    // Columns of a row.
+    private final static int ANALYSIS = 3;
+    private final static int SIGNATURE_AC = 4;
+    private final static int SIGNATURE_DESC = 5;
+    private final static int START = 6;
+    private final static int STOP = 7;
+    private final static int ENTRY_AC = 11;
+    private final static int ENTRY_DESC = 12;
+    private final static int GO_TERMS = 13;
+    private final static int PATHWAYS = 14;
+    private final static int COLUMNS = 15;
+
+    /**
+     * TSV names analyses as InterProScan's command line does; the XML
+     * result names their libraries in upper case, with these exceptions.
+     */
+    private final static Map<String, String> LIBRARIES = Map.of(
+            "ProSiteProfiles", "PROSITE_PROFILES",
+            "ProSitePatterns", "PROSITE_PATTERNS",
+            "MobiDBLite", "MOBIDB_LITE",
+            "SignalP_GRAM_NEGATIVE", "SIGNALP_GRAM_NEGATIVE",
+            "SignalP_GRAM_POSITIVE", "SIGNALP_GRAM_POSITIVE");
+
+    private final XmlParser annotations;
+    private final EntryDictionary dictionary;
+    // Lower case analysis names, or null for all.
+    private final Set<String> analyses;
+
+
+    /**
+     * @param annotations   Builds the annotations for each match.
+     */
+    TsvParser(XmlParser annotations) {
+        this(annotations, null);
+    }
+
+
+    /**
+     * @param annotations   Builds the annotations for each match.
+     * @param applications  The member databases whose matches are kept, as
+     *                      named in the options, or null to keep all. For
+     *                      results that cover more than was searched for,
+     *                      such as precalculated matches.
+     */
+    TsvParser(XmlParser annotations, Collection<String> applications) {
+        this.annotations = annotations;
+        this.dictionary = annotations.getDictionary();
+        if (applications == null) {
+            analyses = null;
+        } else {
+            analyses = new HashSet<>();
+            for (String application : applications) {
+                // The options say PfamA; otherwise the names differ only in case.
+                String analysis = application.toLowerCase();
+                analyses.add(analysis.equals("pfama") ? "pfam" : analysis);
+            }
+        }
+    }
+
+
+    @Override
+    public AnnotationGeneratorResult parse(InputStream in, int seqLength) {
+        try {
+            return parse(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), seqLength);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to parse InterProScan result", e);
+            return annotations.errorResult(seqLength);
+        }
+    }
+
+
+    private AnnotationGeneratorResult parse(BufferedReader tsv, int seqLength) throws IOException {
+        Map<String, XmlParser.Match> matches = new LinkedHashMap<>();
+        Row row = new Row();
+
+        String line;
+        while ((line = tsv.readLine()) != null) {
+            if (!line.isEmpty()) {
+                row.split(line);
+                addRow(row, matches);
+            }
+        }
+
+        // EBI returns an empty result when there are no matches.
+        if (matches.isEmpty()) {
+            return annotations.emptyResult(seqLength);
+        }
+        AnnotationGeneratorResult result = new AnnotationGeneratorResult();
+        for (XmlParser.Match match : matches.values()) {
+            annotations.addAnnotations(match, result, seqLength);
+        }
+        return result;
+    }
+
+
+    /**
+     * Adds a row's location to its match, starting the match if it is the
+     * signature's first row.
+     */
+    private void addRow(Row row, Map<String, XmlParser.Match> matches) {
+        if (row.columns <= STOP) {
+            throw new IllegalArgumentException("Too few columns in row: " + row);
+        }
+        String analysis = row.text(ANALYSIS);
+        if (analyses != null && !analyses.contains(analysis.toLowerCase())) {
+            return;
+        }
+        String signatureAc = row.text(SIGNATURE_AC);
+        String key = analysis + '\t' + signatureAc;
+        XmlParser.Match match = matches.get(key);
+        if (match == null) {
+            match = new XmlParser.Match();
+            match.hasSignature = true;
+            match.dbName = LIBRARIES.getOrDefault(analysis, analysis.toUpperCase());
+            match.id = signatureAc;
+            match.name = row.text(SIGNATURE_DESC);
+            match.iprId = row.text(ENTRY_AC);
+            if (match.iprId != null) {
+                match.iprName = row.text(ENTRY_DESC);
+                addGoTerms(row.text(GO_TERMS), match.goTerms);
+                addPathways(row.text(PATHWAYS), match.pathways);
+            }
+            matches.put(key, match);
+        }
+        match.locations.add(row.number(START));
+        match.locations.add(row.number(STOP));
+    }
+
+
+    /**
+     * @param text  e.g. "GO:0003677|GO:0006302", optionally with the
+     *              source of each in parentheses.
+     */
+    private void addGoTerms(String text, List<EntryDictionary.Xref> xrefs) {
+        if (text == null) {
+            return;
+        }
+        for (String term : text.split("\\|")) {
+            int source = term.indexOf('(');
+            xrefs.add(dictionary.xref("GO", source < 0 ? term : term.substring(0, source), null));
+        }
+    }
+
+
+    /**
+     * @param text  e.g. "MetaCyc: PWY-5686|Reactome: R-HSA-73817".
+     */
+    private void addPathways(String text, List<EntryDictionary.Xref> xrefs) {
+        if (text == null) {
+            return;
+        }
+        for (String pathway : text.split("\\|")) {
+            int colon = pathway.indexOf(':');
+            if (colon > 0) {
+                xrefs.add(dictionary.xref(pathway.substring(0, colon).trim(), pathway.substring(colon + 1).trim(), null));
+            }
+        }
+    }
+
+
+    /**
+     * The bounds of the columns of one row, reused from row to row.
+     */
+    private final static class Row {
+        private String line;
+        private final int[] starts = new int[COLUMNS];
+        private final int[] ends = new int[COLUMNS];
+        private int columns;
+
+        /**
+         * Finds the columns of a row. Columns beyond those used are ignored.
+         */
+        void split(String line) {
+            this.line = line;
+            columns = 0;
+            starts[0] = 0;
+            int to = line.length();
+            for (int i = 0; i < to; i++) {
+                if (line.charAt(i) == '\t') {
+                    ends[columns++] = i;
+                    if (columns == COLUMNS) {
+                        return;
+                    }
+                    starts[columns] = i + 1;
+                }
+            }
+            ends[columns++] = to;
+        }
+
+        /**
+         * @return The column's text, or null if it is missing, empty or "-".
+         */
+        String text(int column) {
+            if (column >= columns) {
+                return null;
+            }
+            int from = starts[column];
+            int to = ends[column];
+            if (to == from || (to - from == 1 && line.charAt(from) == '-')) {
+                return null;
+            }
+            return line.substring(from, to);
+        }
+
+        /**
+         * Reads a column holding a location without making a string of it.
+         */
+        int number(int column) {
+            int value = 0;
+            for (int i = starts[column]; i < ends[column]; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new NumberFormatException("Not a location in column " + column + " of row: " + this);
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return line;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationQualifier;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Writes annotations as tab separated values, one row per location of
+ * each annotation, after a header row. The columns are the protein's id
+ * and length, the annotation's type and name, the location's start and
+ * end, and the annotation's qualifiers as name=value pairs separated by
+ * semicolons.
+ *
+ * This is not InterProScan's own TSV, which {@link TsvParser} reads: that
+ * holds matches, not the annotations made from them.
+ */
+final class TsvWriter implements AnnotationWriter {
+
+    private final static String HEADER = "protein\tlength\ttype\tname\tstart\tend\tqualifiers\n";
+
+    private final Writer out;
+    private final StringBuilder rows = new StringBuilder();
+
+
+    /**
+     * @param out   Where to write. It is not closed.
+     *
+     * @throws IOException if the header cannot be written.
+     */
+    TsvWriter(Writer out) throws IOException {
+        this.out = out;
+        out.write(HEADER);
+        out.flush();
+    }
+
+
+    @Override
+    public void write(String id, int length, AnnotationGeneratorResult result) throws IOException {
+        rows.setLength(0);
+        for (SequenceAnnotation annotation : result.getAnnotationsToAdd()) {
+            String qualifiers = qualifiers(annotation);
+            List<SequenceAnnotationInterval> intervals = annotation.getIntervals();
+            if (intervals.isEmpty()) {
+                appendRow(id, length, annotation, 1, length, qualifiers);
+            }
+            for (SequenceAnnotationInterval interval : intervals) {
+                appendRow(id, length, annotation, interval.getMinimumIndex(), interval.getMaximumIndex(), qualifiers);
+            }
+        }
+        out.append(rows);
+        out.flush();
+    }
+
+
+    private void appendRow(String id, int length, SequenceAnnotation annotation, int start, int end, String qualifiers) {
+        rows.append(clean(id)).append('\t').append(length).append('\t')
+                .append(annotation.getType() != null ? clean(annotation.getType()) : "").append('\t')
+                .append(clean(annotation.getName())).append('\t')
+                .append(start).append('\t').append(end).append('\t')
+                .append(qualifiers).append('\n');
+    }
+
+
+    private static String qualifiers(SequenceAnnotation annotation) {
+        StringBuilder sb = new StringBuilder();
+        for (SequenceAnnotationQualifier qualifier : annotation.getQualifiers()) {
+            String value = qualifier.getValue() != null ? AnnotationWriter.plainText(qualifier.getValue()) : "";
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(clean(qualifier.getName())).append('=').append(clean(value));
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * @return The text with any tabs or line breaks, which would split
+     *         the row, replaced by spaces.
+     */
+    private static String clean(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\t' || c == '\n' || c == '\r') {
+                return text.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+            }
+        }
+        return text;
+    }
+}
@@ -0,0 +1,367 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A queue of shards of a FASTA file in a directory, from which any number
+ * of command line workers, on one host or on several sharing the
+ * directory, claim work. The directory holds:
+ *
+ * <pre>
+ *   pending/   shards waiting for a worker, e.g. 000001.fasta
+ *   claimed/   shards a worker is scanning, e.g. 000001.fasta.12345-9f3a0c
+ *   done/      shards whose results are complete
+ *   results/   the annotations of each done shard, e.g. 000001.gff3
+ *   journals/  the EBI jobs of each shard, for whoever scans it next
+ *   ready      written once the FASTA has been split
+ * </pre>
+ *
+ * Every step is an atomic rename or file creation, so no two workers
+ * claim the same shard. A claimed shard is named after its worker, who
+ * renews the lease on it by touching it; a shard whose lease runs out,
+ * because its worker died, goes back to pending, and the next worker to
+ * claim it resumes its EBI jobs from its journal. A worker that was only
+ * slow then finds its claim gone, so it can neither renew nor complete
+ * the other worker's claim. If it still finishes the shard, both write
+ * the same results, so the second rename is harmless.
+ */
+final class WorkQueue {
+
+    private final static Logger logger = Logger.getLogger(WorkQueue.class.getName());
+
+    private final static String SHARD_SUFFIX = ".fasta";
+    // A claimed shard, with its worker appended.
+    private final static String CLAIM_GLOB = "*" + SHARD_SUFFIX + ".*";
+
+    private final Path pending, claimed, done, results, journals;
+    private final Path ready, splitLock, mergeLock;
+    private final long leaseMillis;
+    // Appended to the names of this worker's claims.
+    private final String worker;
+
+
+    /**
+     * @param directory     The queue's directory, created if need be.
+     * @param leaseMillis   How long a claimed shard is kept without being renewed.
+     *
+     * @throws IOException if the directory cannot be created.
+     */
+    WorkQueue(File directory, long leaseMillis) throws IOException {
+        Path root = directory.toPath();
+        pending = Files.createDirectories(root.resolve("pending"));
+        claimed = Files.createDirectories(root.resolve("claimed"));
+        done = Files.createDirectories(root.resolve("done"));
+        results = Files.createDirectories(root.resolve("results"));
+        journals = Files.createDirectories(root.resolve("journals"));
+        ready = root.resolve("ready");
+        splitLock = root.resolve("split.lock");
+        mergeLock = root.resolve("merge.lock");
+        this.leaseMillis = leaseMillis;
+        worker = ProcessHandle.current().pid() + "-" + Integer.toHexString(ThreadLocalRandom.current().nextInt());
+    }
+
+
+    /**
+     * Splits a FASTA file into shards, unless it already has been. If
+     * another worker is splitting it, waits for that worker to finish.
+     *
+     * @param fasta         The proteins, or null for a worker joining a queue
+     *                      that another splits.
+     * @param shardSize     The number of proteins in each shard.
+     *
+     * @throws IOException          if the shards cannot be written.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void split(FastaReader fasta, int shardSize) throws IOException, InterruptedException {
+        while (!Files.exists(ready)) {
+            if (fasta != null && tryCreate(splitLock)) {
+                int shards = writeShards(fasta, shardSize);
+                Files.writeString(ready, shards + "\n");
+                logger.log(Level.INFO, "Split the proteins into " + shards + " shards.");
+                return;
+            }
+            // Another worker is splitting, or has died doing so.
+            if (fasta != null && isExpired(splitLock)) {
+                Files.deleteIfExists(splitLock);
+                continue;
+            }
+            Thread.sleep(Math.min(1000, leaseMillis / 4));
+        }
+    }
+
+
+    private int writeShards(FastaReader fasta, int shardSize) throws IOException {
+        int shards = 0;
+        FastaReader.Record record = fasta.next();
+        while (record != null) {
+            // Written under another name, so that no worker claims it half written.
+            Path temp = pending.resolve(String.format("%06d", ++shards) + ".tmp");
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.US_ASCII)) {
+                for (int i = 0; i < shardSize && record != null; i++, record = fasta.next()) {
+                    out.write('>');
+                    out.write(record.id);
+                    out.write('\n');
+                    out.write(record.sequence);
+                    out.write('\n');
+                }
+            }
+            Files.move(temp, pending.resolve(String.format("%06d", shards) + SHARD_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            // Keep the split lock fresh while a large file is split.
+            Files.setLastModifiedTime(splitLock, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        return shards;
+    }
+
+
+    /**
+     * Claims the first pending shard, first returning any shards whose
+     * lease has run out to pending.
+     *
+     * @return The shard, or null if none is pending.
+     *
+     * @throws IOException if the queue cannot be read.
+     */
+    Shard claim() throws IOException {
+        for (Path shard : list(claimed, CLAIM_GLOB)) {
+            if (isExpired(shard)) {
+                try {
+                    Files.move(shard, pending.resolve(name(shard) + SHARD_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+                    logger.log(Level.WARNING, "The lease on shard " + name(shard) + " ran out; returning it to the queue.");
+                } catch (NoSuchFileException e) {
+                    // Renewed and finished, or returned by another worker.
+                }
+            }
+        }
+
+        for (Path shard : list(pending)) {
+            try {
+                // Touched first, so that it is never seen in claimed with an old lease.
+                Files.setLastModifiedTime(shard, FileTime.fromMillis(System.currentTimeMillis()));
+                Path target = claimed.resolve(shard.getFileName() + "." + worker);
+                Files.move(shard, target, StandardCopyOption.ATOMIC_MOVE);
+                return new Shard(name(shard), target);
+            } catch (NoSuchFileException e) {
+                // Another worker claimed it first.
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Extends the lease on a claimed shard.
+     *
+     * @param shard The shard.
+     *
+     * @return false if the shard is no longer claimed by this worker,
+     *         because its lease ran out.
+     */
+    boolean renew(Shard shard) {
+        try {
+            Files.setLastModifiedTime(shard.file, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * @param shard The shard.
+     *
+     * @return The journal of the shard's EBI jobs, shared by every worker
+     *         that scans it. The caller must close it.
+     */
+    JobJournal journal(Shard shard) {
+        return new JobJournal(journals.resolve(shard.name + ".journal").toFile());
+    }
+
+
+    /**
+     * @param shard     The shard.
+     * @param format    The output format, also the results' extension.
+     *
+     * @return A file, private to this worker, to write the shard's results to.
+     *
+     * @throws IOException if the file cannot be created.
+     */
+    Path resultFile(Shard shard, String format) throws IOException {
+        return Files.createTempFile(results, shard.name + ".", "." + format + ".tmp");
+    }
+
+
+    /**
+     * Publishes a shard's results and, if this worker still holds its
+     * claim, marks it done.
+     *
+     * @param shard     The shard.
+     * @param result    Its results, from {@link #resultFile}.
+     * @param format    The output format.
+     *
+     * @throws IOException if the results cannot be moved into place.
+     */
+    void complete(Shard shard, Path result, String format) throws IOException {
+        Files.move(result, results.resolve(shard.name + "." + format),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        try {
+            Files.move(shard.file, done.resolve(shard.name + SHARD_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Returned to the queue while this worker was slow; the
+            // worker that claimed it next will mark it done.
+            logger.log(Level.WARNING, "Shard " + shard.name + " was returned to the queue before it was finished.");
+        }
+    }
+
+
+    /**
+     * @return true once the FASTA has been split, and every shard is done.
+     *
+     * @throws IOException if the queue cannot be read.
+     */
+    boolean isFinished() throws IOException {
+        return Files.exists(ready) && list(pending).isEmpty() && list(claimed, CLAIM_GLOB).isEmpty();
+    }
+
+
+    /**
+     * Joins the results of every shard into one file, in shard order,
+     * unless another worker is doing so. Each shard's results start with
+     * the same one line header, which is kept only once.
+     *
+     * @param format    The output format.
+     * @param output    Where to write the results.
+     *
+     * @return true if this worker merged them.
+     *
+     * @throws IOException if the results cannot be merged.
+     */
+    boolean merge(String format, File output) throws IOException {
+        if (!tryCreate(mergeLock)) {
+            if (!isExpired(mergeLock)) {
+                return false;
+            }
+            Files.deleteIfExists(mergeLock);
+            if (!tryCreate(mergeLock)) {
+                return false;
+            }
+        }
+
+        Path target = output.getAbsoluteFile().toPath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            boolean first = true;
+            for (Path shard : list(done)) {
+                Path result = results.resolve(name(shard) + "." + format);
+                try (BufferedReader in = Files.newBufferedReader(result, StandardCharsets.UTF_8)) {
+                    String header = in.readLine();
+                    if (first && header != null) {
+                        out.write(header);
+                        out.write('\n');
+                        first = false;
+                    }
+                    in.transferTo(out);
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+
+    /**
+     * @return The files in a directory with the shard suffix, in name order.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        return list(directory, "*" + SHARD_SUFFIX);
+    }
+
+
+    /**
+     * @return The files in a directory matching a glob, in name order.
+     */
+    private static List<Path> list(Path directory, String glob) throws IOException {
+        List<Path> shards = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            stream.forEach(shards::add);
+        }
+        Collections.sort(shards);
+        return shards;
+    }
+
+
+    /**
+     * @return The name of a shard, from its file in any directory.
+     */
+    private static String name(Path shard) {
+        String fileName = shard.getFileName().toString();
+        return fileName.substring(0, fileName.indexOf(SHARD_SUFFIX));
+    }
+
+
+    /**
+     * @return true if the file was created, false if it already existed.
+     */
+    private static boolean tryCreate(Path file) throws IOException {
+        try {
+            Files.createFile(file);
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+
+    /**
+     * @return true if the file was last touched longer ago than the lease.
+     */
+    private boolean isExpired(Path file) {
+        try {
+            return System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() > leaseMillis;
+        } catch (IOException e) {
+            // Gone, so no longer anyone's.
+            return false;
+        }
+    }
+
+
+    /**
+     * A claimed shard.
+     */
+    final static class Shard {
+        final String name;
+        final Path file;
+
+        private Shard(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+
+        /**
+         * @return The shard's proteins. The caller must close the stream.
+         *
+         * @throws IOException if the shard cannot be read.
+         */
+        InputStream open() throws IOException {
+            return Files.newInputStream(file);
+        }
+    }
+}
@@ -4,202 +4,426 @@ import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
 import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
 import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval.Direction;
 import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.*;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ToIntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single pass StAX parser for InterProScan XML results.
+ *
+ * Annotations are built as the reader streams over the {@code <matches>}
+ * element, without building a DOM. Once configured, a parser holds no
+ * per-document state, so one instance may be shared and used to parse
+ * many results concurrently.
+ *
+ * Entries, signatures and their GO term and pathway cross references are
+ * taken from an {@link EntryDictionary} shared by everything the parser
+ * reads, so annotations for thousands of proteins refer to one copy of
+ * each name and link.
+ */
+public class XmlParser implements ResultParser {
+
+    private final static XMLInputFactory FACTORY = createFactory();
+    private final static Logger logger = Logger.getLogger(XmlParser.class.getName());
+    private final static String EMPTY_NAME = "No InterProScan Results";
 
-public class XmlParser {
+    private final EntryDictionary dictionary = new EntryDictionary();
 
-    private Document doc = null;
+    private String xmlText = null;
     private String featType = null;
     private boolean makeExtraFeats = true;
+    private boolean goTerms = false;
+    private boolean pathways = false;
     private int seqLength = 0;
 
+    /**
+     * Creates a reusable parser, for use with {@link #parse}.
+     */
+    public XmlParser() {
+    }
+
+    /**
+     * Creates a parser for a single result, for use with {@link #parseXml}.
+     *
+     * @param xmlText   The XML result, or null if there was none.
+     */
     public XmlParser(String xmlText) {
-        if (xmlText != null) {
-            //System.out.println(xmlText);
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = null;
-            try {
-                builder = factory.newDocumentBuilder();
-            } catch (ParserConfigurationException e) {
-                e.printStackTrace();
-            }
-            InputStream is;
-            is = new ByteArrayInputStream(xmlText.getBytes(StandardCharsets.UTF_8));
+        this.xmlText = xmlText;
+    }
 
-            try {
-                if (builder != null) {
-                    doc = builder.parse(is);
-                }
-            } catch (SAXException | IOException e) {
-                e.printStackTrace();
-            }
+    public AnnotationGeneratorResult parseXml() {
+        return xmlText == null
+                ? errorResult(seqLength)
+                : parse(new StringReader(xmlText), seqLength);
+    }
+
+    /**
+     * Parses a result from a stream. The stream is not closed.
+     *
+     * @param in        The XML result.
+     * @param seqLength The length of the sequence the result is for.
+     *
+     * @return The annotations to add.
+     */
+    @Override
+    public AnnotationGeneratorResult parse(InputStream in, int seqLength) {
+        try {
+            return parse(FACTORY.createXMLStreamReader(in), seqLength);
+        } catch (XMLStreamException e) {
+            logger.log(Level.WARNING, "Unable to parse InterProScan result", e);
+            return errorResult(seqLength);
         }
     }
 
-    public AnnotationGeneratorResult parseXml() {
+    /**
+     * Parses a result from a character stream. The reader is not closed.
+     *
+     * @param in        The XML result.
+     * @param seqLength The length of the sequence the result is for.
+     *
+     * @return The annotations to add.
+     */
+    public AnnotationGeneratorResult parse(Reader in, int seqLength) {
+        try {
+            return parse(FACTORY.createXMLStreamReader(in), seqLength);
+        } catch (XMLStreamException e) {
+            logger.log(Level.WARNING, "Unable to parse InterProScan result", e);
+            return errorResult(seqLength);
+        }
+    }
+
+    /**
+     * Parses a result holding many proteins, such as the output of a local
+     * InterProScan run, handing each protein's annotations over as soon as
+     * its element closes. The stream is not closed.
+     *
+     * @param in            The XML result.
+     * @param seqLengths    The sequence length for a protein's xref id.
+     * @param handler       Receives the xref ids and annotations of each protein.
+     *
+     * @throws XMLStreamException if the result is malformed. Proteins
+     *         already handed over are unaffected.
+     */
+    public void parseProteins(InputStream in, ToIntFunction<String> seqLengths,
+                              BiConsumer<List<String>, AnnotationGeneratorResult> handler) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            stream(reader, new Listener() {
+                private List<String> ids;
+                private AnnotationGeneratorResult result;
+
+                @Override
+                public void startProtein() {
+                    ids = new ArrayList<>(1);
+                    result = new AnnotationGeneratorResult();
+                }
+
+                @Override
+                public void xref(String id) {
+                    ids.add(id);
+                }
+
+                @Override
+                public void match(Match match) {
+                    addAnnotations(match, result, ids.isEmpty() ? 0 : seqLengths.applyAsInt(ids.get(0)));
+                }
 
+                @Override
+                public void endProtein() {
+                    handler.accept(ids, result);
+                }
+            });
+        } catch (RuntimeException e) {
+            throw new XMLStreamException(e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private AnnotationGeneratorResult parse(XMLStreamReader reader, int seqLength) throws XMLStreamException {
         AnnotationGeneratorResult result = new AnnotationGeneratorResult();
+        boolean[] sawProtein = {false};
 
-        if (doc == null) {
-            if (makeExtraFeats) {
-                SequenceAnnotation errorAnnotation = new SequenceAnnotation("InterProScan Error", "InterPro Term");
-                SequenceAnnotationInterval interval = new SequenceAnnotationInterval(1, seqLength, Direction.none);
-                errorAnnotation.addInterval(interval);
-                result.addAnnotationToAdd(errorAnnotation);
-            }
-        } else {
-            NodeList protList = evalXpath("//protein", doc);
-            // if the web servce returns an empty xml document (or no xml document?)
-            // then protLsit should have length 0
-            // this occurs when there are no search results for the protein
-            if (protList.getLength() > 0) {
-                Node prot = protList.item(0);
-                //String protLen = prot.getAttributes().getNamedItem("length").getNodeValue();
-
-                NodeList nodes = evalXpath("//matches/*", doc);
-                for (int i = 0; i < nodes.getLength(); i++) {
-                    Node match = nodes.item(i);
-                    //NamedNodeMap attrs = node.getAttributes();
-                    //String iprId = attrs.getNamedItem("id").getNodeValue();
-
-                    NodeList sigList = evalXpath("signature", match);
-                    Node signature = sigList.item(0);
-                    NamedNodeMap sigAttrs = signature.getAttributes();
-                    String matchId = sigAttrs.getNamedItem("ac").getNodeValue();
-                    String matchName;
-                    Node matchNameNode = sigAttrs.getNamedItem("name");
-                    if (matchNameNode != null) {
-                        matchName = matchNameNode.getNodeValue();//still error here
-                    } else {
-                        matchName = "unknown";
+        try {
+            stream(reader, new Listener() {
+                @Override
+                public void startProtein() {
+                    sawProtein[0] = true;
+                }
+
+                @Override
+                public void match(Match match) {
+                    addAnnotations(match, result, seqLength);
+                }
+            });
+        } catch (XMLStreamException | RuntimeException e) {
+            logger.log(Level.WARNING, "Unable to parse InterProScan result", e);
+            return errorResult(seqLength);
+        } finally {
+            reader.close();
+        }
+
+        // If the web service returns an empty xml document there are no
+        // proteins; this occurs when there are no search results.
+        return sawProtein[0] ? result : emptyResult(seqLength);
+    }
+
+    /**
+     * Streams over a result, reporting each protein and each complete match.
+     */
+    private void stream(XMLStreamReader reader, Listener listener) throws XMLStreamException {
+        // Depths of the elements currently open, or -1 when not inside one.
+        int depth = 0;
+        int proteinDepth = -1;
+        int matchesDepth = -1;
+        int matchDepth = -1;
+        int signatureDepth = -1;
+        int entryDepth = -1;
+        int locationsDepth = -1;
+        Match match = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+                String element = reader.getLocalName();
+                if (match == null) {
+                    if (element.equals("protein")) {
+                        proteinDepth = depth;
+                        listener.startProtein();
+                    } else if (element.equals("xref") && depth == proteinDepth + 1) {
+                        listener.xref(reader.getAttributeValue(null, "id"));
+                    } else if (element.equals("matches")) {
+                        matchesDepth = depth;
+                    } else if (depth == matchesDepth + 1) {
+                        match = new Match();
+                        matchDepth = depth;
                     }
-                    //String matchDesc = matchDesc = sigAttrs.getNamedItem("desc").getNodeValue();
-
-                    //note: a signature won't have an 'entry' node if the match has not
-                    // yet been incorportated into the interpro db.
-                    String iprId;
-                    String iprName;
-                    String iprType;
-
-                    NodeList entryList = evalXpath("entry", signature);
-                    Node entryNode = entryList.item(0);
-                    if (entryNode == null) {
-                        iprId = "";
-                        iprName = "Unintegrated";
-                        iprType = "Unintegrated";
-                    } else {
-                        NamedNodeMap entryAttrs = entryNode.getAttributes();
-                        iprId = entryAttrs.getNamedItem("ac").getNodeValue();
-                        iprName = entryAttrs.getNamedItem("name").getNodeValue();
-                        iprType = entryAttrs.getNamedItem("type").getNodeValue();
+                } else if (depth == matchDepth + 1) {
+                    if (element.equals("signature") && signatureDepth < 0 && !match.hasSignature) {
+                        // Only the first signature of a match is used.
+                        match.hasSignature = true;
+                        match.id = reader.getAttributeValue(null, "ac");
+                        match.name = reader.getAttributeValue(null, "name");
+                        signatureDepth = depth;
+                    } else if (element.equals("locations")) {
+                        locationsDepth = depth;
                     }
-                    NodeList libNodeList = evalXpath("signature-library-release", signature);
-                    Node libNode = libNodeList.item(0);
-                    NamedNodeMap libAttrs = libNode.getAttributes();
-                    String matchDbName = libAttrs.getNamedItem("library").getNodeValue();
-
-                    SequenceAnnotation annotation = new SequenceAnnotation(matchName, prettyStringForDbName(matchDbName));
-                    annotation.addQualifier("Database", matchDbName);
-                    annotation.addQualifier("Id", matchId);
-                    annotation.addQualifier("Name", matchName);
-                    //annotation.addQualifier("Description", matchDesc);
-
-                    if (featType.equals(InterproscanOptions.FEAT_QUALIFIERS)) {
-                        annotation.addQualifier("InterPro ID", "<a href=\"http://www.ebi.ac.uk/interpro/entry/" + iprId + "\">" + iprId + "</a>");
-                        annotation.addQualifier("InterPro Name", iprName);
-                        annotation.addQualifier("InterPro Type", iprType);
+                } else if (depth == signatureDepth + 1) {
+                    // Note: a signature won't have an 'entry' node if the match has not
+                    // yet been incorporated into the InterPro db.
+                    if (element.equals("entry") && match.iprId == null) {
+                        match.iprId = reader.getAttributeValue(null, "ac");
+                        match.iprName = reader.getAttributeValue(null, "name");
+                        match.iprType = reader.getAttributeValue(null, "type");
+                        entryDepth = depth;
+                    } else if (element.equals("signature-library-release") && match.dbName == null) {
+                        match.dbName = reader.getAttributeValue(null, "library");
                     }
-
-                    NodeList locations = evalXpath("locations/*", match);
-                    for (int l = 0; l < locations.getLength(); l++) {
-                        Node location = locations.item(l);
-                        NamedNodeMap locAttrs = location.getAttributes();
-                        int locStart = Integer.parseInt(locAttrs.getNamedItem("start").getNodeValue());
-                        int locEnd = Integer.parseInt(locAttrs.getNamedItem("end").getNodeValue());
-                        SequenceAnnotationInterval interval = new SequenceAnnotationInterval(locStart, locEnd, Direction.none);
-                        annotation.addInterval(interval);
+                } else if (depth == entryDepth + 1) {
+                    if (element.equals("go-xref")) {
+                        match.goTerms.add(xref(reader));
+                    } else if (element.equals("pathway-xref")) {
+                        match.pathways.add(xref(reader));
                     }
-                    result.addAnnotationToAdd(annotation);
+                } else if (depth == locationsDepth + 1) {
+                    match.locations.add(Integer.parseInt(reader.getAttributeValue(null, "start")));
+                    match.locations.add(Integer.parseInt(reader.getAttributeValue(null, "end")));
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == matchDepth) {
+                    listener.match(match);
+                    match = null;
+                    matchDepth = -1;
+                } else if (depth == signatureDepth) {
+                    signatureDepth = -1;
+                } else if (depth == entryDepth) {
+                    entryDepth = -1;
+                } else if (depth == locationsDepth) {
+                    locationsDepth = -1;
+                } else if (depth == matchesDepth) {
+                    matchesDepth = -1;
+                } else if (depth == proteinDepth) {
+                    proteinDepth = -1;
+                    listener.endProtein();
+                }
+                depth--;
+            }
+        }
+    }
 
-                    if (featType.equals(InterproscanOptions.FEAT_SEPARATE)) {
-                        SequenceAnnotation iprAnnotation = new SequenceAnnotation(iprName, "InterPro Term");
-                        iprAnnotation.addQualifier("id", "<a href=\"http://www.ebi.ac.uk/interpro/entry/" + iprId + "\">" + iprId + "</a>");
-                        iprAnnotation.addQualifier("type", iprType);
-                        iprAnnotation.addInterval(1, seqLength, Direction.none);
-                        result.addAnnotationToAdd(iprAnnotation);
-                    }
+    /**
+     * @return The canonical copy of the cross reference the reader is on.
+     */
+    private EntryDictionary.Xref xref(XMLStreamReader reader) {
+        return dictionary.xref(reader.getAttributeValue(null, "db"),
+                reader.getAttributeValue(null, "id"),
+                reader.getAttributeValue(null, "name"));
+    }
 
-                }
-            } else {
-                if (makeExtraFeats) {
-                    SequenceAnnotation errorAnnotation = new SequenceAnnotation("No InterProScan Results", "InterPro Term");
-                    SequenceAnnotationInterval interval = new SequenceAnnotationInterval(1, seqLength, Direction.none);
-                    errorAnnotation.addInterval(interval);
-                    result.addAnnotationToAdd(errorAnnotation);
+    /**
+     * Builds the annotations for one match. The parsers of the other
+     * result formats use this too, so all formats annotate alike.
+     */
+    void addAnnotations(Match match, AnnotationGeneratorResult result, int seqLength) {
+        EntryDictionary.Signature signature = dictionary.signature(match.id, match.name, match.dbName);
+        EntryDictionary.Entry entry = dictionary.entry(match.iprId, match.iprName, match.iprType, match.goTerms, match.pathways);
+
+        SequenceAnnotation annotation = new SequenceAnnotation(signature.name, prettyStringForDbName(signature.library));
+        annotation.addQualifier("Database", signature.library);
+        annotation.addQualifier("Id", signature.ac);
+        annotation.addQualifier("Name", signature.name);
+
+        if (InterproscanOptions.FEAT_QUALIFIERS.equals(featType)) {
+            annotation.addQualifier("InterPro ID", entry.link);
+            annotation.addQualifier("InterPro Name", entry.name);
+            if (entry.type != null) {
+                annotation.addQualifier("InterPro Type", entry.type);
+            }
+            if (goTerms && entry.goTermsText != null) {
+                annotation.addQualifier("GO Terms", entry.goTermsText);
+            }
+            if (pathways && entry.pathwaysText != null) {
+                annotation.addQualifier("Pathways", entry.pathwaysText);
+            }
+        }
+
+        for (int l = 0; l < match.locations.size(); l += 2) {
+            SequenceAnnotationInterval interval = new SequenceAnnotationInterval(
+                    match.locations.get(l), match.locations.get(l + 1), Direction.none);
+            annotation.addInterval(interval);
+        }
+        result.addAnnotationToAdd(annotation);
+
+        if (InterproscanOptions.FEAT_SEPARATE.equals(featType)) {
+            SequenceAnnotation iprAnnotation = new SequenceAnnotation(entry.name, "InterPro Term");
+            iprAnnotation.addQualifier("id", entry.link);
+            if (entry.type != null) {
+                iprAnnotation.addQualifier("type", entry.type);
+            }
+            if (goTerms && entry.goTermsText != null) {
+                iprAnnotation.addQualifier("GO terms", entry.goTermsText);
+            }
+            if (pathways && entry.pathwaysText != null) {
+                iprAnnotation.addQualifier("pathways", entry.pathwaysText);
+            }
+            iprAnnotation.addInterval(1, seqLength, Direction.none);
+            result.addAnnotationToAdd(iprAnnotation);
+        }
+    }
+
+    /**
+     * @param seqLength The length of the sequence the result is for.
+     *
+     * @return The result for a protein with no InterProScan results.
+     */
+    public AnnotationGeneratorResult emptyResult(int seqLength) {
+        AnnotationGeneratorResult result = new AnnotationGeneratorResult();
+        if (makeExtraFeats) {
+            SequenceAnnotation errorAnnotation = new SequenceAnnotation(EMPTY_NAME, "InterPro Term");
+            SequenceAnnotationInterval interval = new SequenceAnnotationInterval(1, seqLength, Direction.none);
+            errorAnnotation.addInterval(interval);
+            result.addAnnotationToAdd(errorAnnotation);
+        }
+        return result;
+    }
+
+    /**
+     * Joins the results of searches of the same protein against different
+     * member databases, as if it had been searched against all of them.
+     *
+     * @param parts     The results.
+     * @param seqLength The length of the sequence the results are for.
+     *
+     * @return The matches of every part, or the empty result if none has any.
+     */
+    public AnnotationGeneratorResult merge(List<AnnotationGeneratorResult> parts, int seqLength) {
+        AnnotationGeneratorResult result = new AnnotationGeneratorResult();
+        for (AnnotationGeneratorResult part : parts) {
+            for (SequenceAnnotation annotation : part.getAnnotationsToAdd()) {
+                if (!EMPTY_NAME.equals(annotation.getName())) {
+                    result.addAnnotationToAdd(annotation);
                 }
             }
         }
+        return result.getAnnotationsToAdd().isEmpty() ? emptyResult(seqLength) : result;
+    }
+
+    /**
+     * @param seqLength The length of the sequence the result is for.
+     *
+     * @return The result for a missing or unreadable XML document.
+     */
+    public AnnotationGeneratorResult errorResult(int seqLength) {
+        return errorResult(seqLength, null);
+    }
+
+    /**
+     * @param seqLength The length of the sequence the result is for.
+     * @param reason    Why there is no result, or null if unknown.
+     *
+     * @return The result for a sequence that could not be scanned.
+     */
+    public AnnotationGeneratorResult errorResult(int seqLength, String reason) {
+        AnnotationGeneratorResult result = new AnnotationGeneratorResult();
+        if (makeExtraFeats) {
+            SequenceAnnotation errorAnnotation = new SequenceAnnotation("InterProScan Error", "InterPro Term");
+            SequenceAnnotationInterval interval = new SequenceAnnotationInterval(1, seqLength, Direction.none);
+            errorAnnotation.addInterval(interval);
+            if (reason != null) {
+                errorAnnotation.addQualifier("Reason", reason);
+            }
+            result.addAnnotationToAdd(errorAnnotation);
+        }
         return result;
     }
 
     private String prettyStringForDbName(String dbName) {
         String prettyString = dbName;
 
-        if (dbName.equals("SIGNALP")) {
+        if ("SIGNALP".equals(dbName)) {
             prettyString = "SignalP";
         }
-        if (dbName.equals("PFAM")) {
+        if ("PFAM".equals(dbName)) {
             prettyString = "Pfam";
         }
-        if (dbName.equals("SUPERFAMILY")) {
+        if ("SUPERFAMILY".equals(dbName)) {
             prettyString = "Superfamily";
         }
-        if (dbName.equals("GENE3D")) {
+        if ("GENE3D".equals(dbName)) {
             prettyString = "Gene3D";
         }
-        if (dbName.equals("PRODOM")) {
+        if ("PRODOM".equals(dbName)) {
             prettyString = "ProDom";
         }
-        if (dbName.equals("PANTHER")) {
+        if ("PANTHER".equals(dbName)) {
             prettyString = "Panther";
         }
 
         return prettyString;
     }
 
-    private NodeList evalXpath(String path, Object obj) {
-        NodeList nodes = null;
-        XPathFactory xFactory = XPathFactory.newInstance();
-        XPath xpath = xFactory.newXPath();
-        XPathExpression expr = null;
-        try {
-            expr = xpath.compile(path);
-        } catch (XPathExpressionException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            if (expr != null) {
-                nodes = (NodeList)expr.evaluate(obj, XPathConstants.NODESET);
-            }
-        } catch (XPathExpressionException e) {
-            e.printStackTrace();
-        }
-
-        return nodes;
+    /**
+     * The factory is thread-safe once configured. DTDs are never needed
+     * for InterProScan results, so they are disabled.
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
     }
 
     /**
@@ -218,6 +442,29 @@ public class XmlParser {
         return this;
     }
 
+    /**
+     * @param goTerms whether to add the GO terms of each match's InterPro entry
+     */
+    public XmlParser setGoTerms(boolean goTerms) {
+        this.goTerms = goTerms;
+        return this;
+    }
+
+    /**
+     * @param pathways whether to add the pathways of each match's InterPro entry
+     */
+    public XmlParser setPathways(boolean pathways) {
+        this.pathways = pathways;
+        return this;
+    }
+
+    /**
+     * @return The dictionary of entries and signatures seen so far.
+     */
+    EntryDictionary getDictionary() {
+        return dictionary;
+    }
+
     /**
      * @param seqLength the length of the sequence being parsed
      */
@@ -225,4 +472,33 @@ public class XmlParser {
         this.seqLength = seqLength;
         return this;
     }
+
+    /**
+     * Receives the parts of a result as they are streamed.
+     */
+    private interface Listener {
+        default void startProtein() {
+        }
+
+        default void xref(String id) {
+        }
+
+        void match(Match match);
+
+        default void endProtein() {
+        }
+    }
+
+    /**
+     * The fields of a match collected while streaming over it. Entry
+     * fields are null for a signature not integrated into InterPro.
+     */
+    final static class Match {
+        boolean hasSignature;
+        String id, name, dbName;
+        String iprId, iprName, iprType;
+        final List<EntryDictionary.Xref> goTerms = new ArrayList<>(0);
+        final List<EntryDictionary.Xref> pathways = new ArrayList<>(0);
+        final List<Integer> locations = new ArrayList<>(4);
+    }
 }
@@ -0,0 +1,62 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Random;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testMostlyFailingCalls_pauseSubmissions() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < 5; i++) {
+            breaker.success(0);
+            assertTrue(breaker.allowsSubmission(0));
+            breaker.failure(0);
+        }
+
+        assertFalse(breaker.allowsSubmission(0));
+        assertEquals(1, breaker.getTrips());
+        assertTrue(breaker.allowsSubmission(breaker.reopensAt()));
+    }
+
+    @Test
+    public void testFailureAfterThePause_pausesForLonger() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < 10; i++) {
+            breaker.failure(0);
+        }
+        long firstPause = breaker.reopensAt();
+        breaker.failure(firstPause);
+
+        assertEquals(2, breaker.getTrips());
+        assertEquals(2 * firstPause, breaker.reopensAt() - firstPause);
+
+        breaker.success(breaker.reopensAt());
+        assertEquals(0, breaker.reopensAt());
+    }
+
+    @Test
+    public void testOnlyTransientFailures_areRetried() {
+        assertTrue(RetryPolicy.SUBMIT.shouldRetry(new ConnectException("refused"), 1));
+        assertTrue(RetryPolicy.SUBMIT.shouldRetry(new CompletionException(new ServiceResponseException(503, "busy")), 1));
+        assertFalse(RetryPolicy.SUBMIT.shouldRetry(new ServiceResponseException(400, "bad sequence"), 1));
+        assertFalse(RetryPolicy.SUBMIT.shouldRetry(new IOException("timeout"), 4));
+    }
+
+    @Test
+    public void testDelays_growWithJitter() {
+        RetryPolicy policy = new RetryPolicy(10, 1_000, 8_000);
+        Random random = new Random(1);
+        for (int attempt = 1; attempt <= 6; attempt++) {
+            long ceiling = Math.min(8_000, 1_000L << (attempt - 1));
+            long delay = policy.delay(attempt, random);
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling, attempt + ": " + delay);
+        }
+    }
+}
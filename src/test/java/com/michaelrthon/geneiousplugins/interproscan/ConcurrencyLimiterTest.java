@@ -0,0 +1,107 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void testFailures_halveTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new SlotPool(16), 30);
+        List<String> reasons = new ArrayList<>();
+        limiter.addListener((from, to, reason) -> reasons.add(from + "->" + to + ": " + reason));
+
+        for (int i = 0; i < 5; i++) {
+            limiter.success(100);
+        }
+        limiter.failure();
+        limiter.failure();
+
+        assertEquals(8, limiter.getLimit());
+        assertEquals(8, limiter.getPool().getCapacity());
+        assertEquals(List.of("16->8: 2 of 7 calls failed"), reasons);
+    }
+
+    @Test
+    public void testBusyHealthyPool_raisesTheLimitUpToTheCeiling() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new SlotPool(2), 4);
+        try (SlotPool.Lease lease = limiter.getPool().register()) {
+            for (int window = 0; window < 5; window++) {
+                // Keep every slot in use.
+                while (lease.tryAcquire(0)) {
+                    // Acquired.
+                }
+                for (int i = 0; i < 20; i++) {
+                    limiter.success(100);
+                }
+            }
+            assertEquals(4, limiter.getLimit());
+            assertEquals(4, lease.getHeld());
+        }
+    }
+
+    @Test
+    public void testIdlePool_keepsTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new SlotPool(15), 30);
+        for (int i = 0; i < 100; i++) {
+            limiter.success(100);
+        }
+        assertEquals(15, limiter.getLimit());
+    }
+
+    @Test
+    public void testSlowCalls_cutTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new SlotPool(20), 30);
+        for (int i = 0; i < 20; i++) {
+            limiter.success(200);
+        }
+        assertEquals(20, limiter.getLimit());
+
+        // Twice as slow, but by less than the slack: noise.
+        for (int i = 0; i < 20; i++) {
+            limiter.success(500);
+        }
+        assertEquals(20, limiter.getLimit());
+
+        for (int i = 0; i < 20; i++) {
+            limiter.success(3000);
+        }
+        assertEquals(15, limiter.getLimit());
+    }
+
+    @Test
+    public void testLeaseCeiling_lowersTheLimitUntilTheLeaseCloses() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new SlotPool(15), 30);
+        try (SlotPool.Lease lease = limiter.getPool().register(5)) {
+            assertEquals(5, limiter.getLimit());
+        }
+        assertEquals(15, limiter.getLimit());
+    }
+
+    @Test
+    public void testLeaseCeiling_boundsIncreasesAndIsWhereCutsStart() throws InterruptedException {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(new SlotPool(15), 30);
+        try (SlotPool.Lease lease = limiter.getPool().register(4)) {
+            for (int window = 0; window < 3; window++) {
+                while (lease.tryAcquire(0)) {
+                    // Acquired.
+                }
+                for (int i = 0; i < 20; i++) {
+                    limiter.success(100);
+                }
+            }
+            assertEquals(4, lease.getHeld());
+            assertEquals(4, limiter.getLimit());
+
+            limiter.failure();
+            limiter.failure();
+            assertEquals(2, limiter.getLimit());
+        }
+        // The cut was made for EBI's sake, so it outlasts the lease.
+        assertEquals(2, limiter.getLimit());
+    }
+}
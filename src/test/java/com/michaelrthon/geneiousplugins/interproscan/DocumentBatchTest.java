@@ -0,0 +1,78 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DocumentBatchTest {
+
+    private static final String SEQUENCE = "MKTAYIAKQR";
+
+    @Test
+    public void testSelection_isZeroBasedAndInclusive() {
+        DocumentBatch batch = new DocumentBatch(new AnnotatedPluginDocument[1], 2, 4);
+
+        assertEquals(2, batch.getOffset(0));
+        assertEquals("TAY", DocumentBatch.selectedResidues(SEQUENCE, 2, 4));
+        assertEquals("M", DocumentBatch.selectedResidues(SEQUENCE, 0, 0));
+        assertEquals(SEQUENCE, DocumentBatch.selectedResidues(SEQUENCE, 0, SEQUENCE.length() - 1));
+    }
+
+    @Test
+    public void testBackwardsSelection_coversTheSameResidues() {
+        DocumentBatch batch = new DocumentBatch(new AnnotatedPluginDocument[1], 4, 2);
+
+        assertEquals(2, batch.getOffset(0));
+    }
+
+    @Test
+    public void testSelectionPastTheEnd_isCutShort() {
+        assertEquals("QR", DocumentBatch.selectedResidues(SEQUENCE, 8, 20));
+        assertEquals("", DocumentBatch.selectedResidues(SEQUENCE, 12, 20));
+    }
+
+    @Test
+    public void testNoSelection_scansWholeSequences() {
+        DocumentBatch batch = new DocumentBatch(new AnnotatedPluginDocument[1], null);
+
+        assertEquals(0, batch.getOffset(0));
+    }
+
+    @Test
+    public void testSelectionWithSeveralDocuments_isIgnoredWithAWarning() {
+        List<LogRecord> records = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(DocumentBatch.class.getName());
+        logger.addHandler(handler);
+        try {
+            DocumentBatch batch = new DocumentBatch(new AnnotatedPluginDocument[2], 2, 4);
+
+            assertEquals(0, batch.getOffset(0));
+            assertEquals(0, batch.getOffset(1));
+            assertEquals(1, records.size());
+            assertTrue(records.get(0).getMessage().contains("2 documents are selected"), records.get(0).getMessage());
+        } finally {
+            logger.removeHandler(handler);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An in-process stand-in for the EBI InterProScan 5 REST service, serving
+ * run/, status/ and result/ on the loopback interface.
+ *
+ * Each submitted job waits in the queue, then runs, for times drawn from
+ * the configured distributions, and then finishes with the canned result
+ * unless it was picked to fail. A fraction of all responses can be made
+ * slow, and a fraction can be refused with 503 Service Unavailable, as
+ * EBI does when overloaded. Every request is counted.
+ */
+final class FakeEbiServer implements AutoCloseable {
+
+    /**
+     * A distribution of durations, in milliseconds.
+     */
+    interface Latency {
+        long sample(Random random);
+
+        static Latency fixed(long millis) {
+            return random -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return random -> minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+        }
+
+        /**
+         * Long tailed, as EBI queue and run times are.
+         */
+        static Latency logNormal(long medianMillis, double sigma) {
+            return random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, FakeJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong jobCounter = new AtomicLong();
+    private final AtomicLong runRequests = new AtomicLong();
+    private final AtomicLong statusRequests = new AtomicLong();
+    private final AtomicLong resultRequests = new AtomicLong();
+    private final AtomicLong refusedRequests = new AtomicLong();
+    private final List<Integer> submittedLengths = new CopyOnWriteArrayList<>();
+    private final List<List<String>> submittedApplications = new CopyOnWriteArrayList<>();
+    private final Random random;
+    private final long started = System.currentTimeMillis();
+
+    private volatile Latency queueLatency = Latency.fixed(0);
+    private volatile Latency runLatency = Latency.fixed(0);
+    private volatile Latency slowLatency = Latency.fixed(0);
+    private volatile double slowRate;
+    private volatile double unavailableRate;
+    private volatile double errorRate;
+    private volatile double notFoundRate;
+    private volatile double failureRate;
+    private volatile byte[] result = new byte[0];
+
+
+    /**
+     * Starts serving on an ephemeral port.
+     *
+     * @param seed  Seeds every random choice the server makes.
+     *
+     * @throws IOException if the server cannot be started.
+     */
+    FakeEbiServer(long seed) throws IOException {
+        random = new Random(seed);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/run/", exchange -> handle(exchange, this::run));
+        server.createContext("/status/", exchange -> handle(exchange, this::status));
+        server.createContext("/result/", exchange -> handle(exchange, this::result));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+
+    /**
+     * @return The URL to use as the REST endpoint.
+     */
+    String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+
+    FakeEbiServer queueLatency(Latency latency) {
+        queueLatency = latency;
+        return this;
+    }
+
+
+    FakeEbiServer runLatency(Latency latency) {
+        runLatency = latency;
+        return this;
+    }
+
+
+    /**
+     * @param rate      The fraction of responses to delay.
+     * @param latency   The delay.
+     */
+    FakeEbiServer slowResponses(double rate, Latency latency) {
+        slowRate = rate;
+        slowLatency = latency;
+        return this;
+    }
+
+
+    /**
+     * @param rate  The fraction of requests to refuse with 503.
+     */
+    FakeEbiServer unavailable(double rate) {
+        unavailableRate = rate;
+        return this;
+    }
+
+
+    /**
+     * The fractions of jobs that end as ERROR or FAILURE, or that are
+     * lost so their status is NOT_FOUND, instead of FINISHED.
+     */
+    FakeEbiServer failures(double errorRate, double notFoundRate, double failureRate) {
+        this.errorRate = errorRate;
+        this.notFoundRate = notFoundRate;
+        this.failureRate = failureRate;
+        return this;
+    }
+
+
+    /**
+     * @param xml   The result every finished job returns.
+     */
+    FakeEbiServer result(byte[] xml) {
+        result = xml;
+        return this;
+    }
+
+
+    long getRunRequests() {
+        return runRequests.get();
+    }
+
+
+    long getStatusRequests() {
+        return statusRequests.get();
+    }
+
+
+    long getResultRequests() {
+        return resultRequests.get();
+    }
+
+
+    long getRefusedRequests() {
+        return refusedRequests.get();
+    }
+
+
+    /**
+     * @return The length of each sequence submitted, in the order they arrived.
+     */
+    List<Integer> getSubmittedLengths() {
+        return submittedLengths;
+    }
+
+
+    /**
+     * @return The member databases each job was submitted for, in the
+     *         order they arrived; empty for a job submitted for all.
+     */
+    List<List<String>> getSubmittedApplications() {
+        return submittedApplications;
+    }
+
+
+    long getRequests() {
+        return getRunRequests() + getStatusRequests() + getResultRequests() + getRefusedRequests();
+    }
+
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+
+    private interface Handler {
+        void handle(HttpExchange exchange, String path) throws IOException;
+    }
+
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        try {
+            long delay = 0;
+            boolean refuse;
+            synchronized (random) {
+                if (random.nextDouble() < slowRate) {
+                    delay = slowLatency.sample(random);
+                }
+                refuse = random.nextDouble() < unavailableRate;
+            }
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            if (refuse) {
+                refusedRequests.incrementAndGet();
+                exchange.getRequestBody().readAllBytes();
+                send(exchange, 503, "text/html", "<html>Service Unavailable</html>".getBytes(StandardCharsets.UTF_8), false);
+                return;
+            }
+            handler.handle(exchange, exchange.getRequestURI().getPath());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+
+    private void run(HttpExchange exchange, String path) throws IOException {
+        runRequests.incrementAndGet();
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            send(exchange, 405, "text/plain", "POST only".getBytes(StandardCharsets.UTF_8), false);
+            return;
+        }
+        Map<String, List<String>> form = parseForm(exchange.getRequestBody());
+        if (!form.containsKey("sequence") || !form.containsKey("email")) {
+            send(exchange, 400, "text/plain", "sequence and email are required".getBytes(StandardCharsets.UTF_8), false);
+            return;
+        }
+
+        submittedLengths.add(form.get("sequence").get(0).length());
+        submittedApplications.add(form.getOrDefault("appl", List.of()));
+
+        // Unique across servers, as EBI's are, so journals from other tests never match.
+        String jobid = String.format("iprscan5-R%d-%06d-p1m", started, jobCounter.incrementAndGet());
+        long now = System.currentTimeMillis();
+        synchronized (random) {
+            long queued = Math.max(0, queueLatency.sample(random));
+            long running = Math.max(0, runLatency.sample(random));
+            double outcome = random.nextDouble();
+            String status = outcome < errorRate ? "ERROR"
+                    : outcome < errorRate + notFoundRate ? "NOT_FOUND"
+                    : outcome < errorRate + notFoundRate + failureRate ? "FAILURE"
+                    : "FINISHED";
+            jobs.put(jobid, new FakeJob(now + queued, now + queued + running, status));
+        }
+        send(exchange, 200, "text/plain", jobid.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+
+    private void status(HttpExchange exchange, String path) throws IOException {
+        statusRequests.incrementAndGet();
+        FakeJob job = jobs.get(path.substring("/status/".length()));
+        String status = job == null ? "NOT_FOUND" : job.status(System.currentTimeMillis());
+        send(exchange, 200, "text/plain", status.getBytes(StandardCharsets.UTF_8), false);
+    }
+
+
+    private void result(HttpExchange exchange, String path) throws IOException {
+        resultRequests.incrementAndGet();
+        String[] parts = path.substring("/result/".length()).split("/");
+        FakeJob job = jobs.get(parts[0]);
+        if (job == null || parts.length < 2 || !"FINISHED".equals(job.status(System.currentTimeMillis()))) {
+            send(exchange, 400, "text/plain", "No result".getBytes(StandardCharsets.UTF_8), false);
+            return;
+        }
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        send(exchange, 200, "text/xml", result, acceptEncoding != null && acceptEncoding.contains("gzip"));
+    }
+
+
+    private static void send(HttpExchange exchange, int code, String contentType, byte[] body, boolean gzip)
+            throws IOException {
+        if (gzip) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                out.write(body);
+            }
+            body = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+
+    /**
+     * @return The values of each field with a value, which like appl may repeat.
+     */
+    private static Map<String, List<String>> parseForm(InputStream in) throws IOException {
+        Map<String, List<String>> form = new HashMap<>();
+        for (String pair : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0 && equals < pair.length() - 1) {
+                form.computeIfAbsent(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8), k -> new ArrayList<>())
+                        .add(URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return form;
+    }
+
+
+    private final static class FakeJob {
+        final long started;
+        final long ended;
+        final String outcome;
+
+        FakeJob(long started, long ended, String outcome) {
+            this.started = started;
+            this.ended = ended;
+            this.outcome = outcome;
+        }
+
+        String status(long now) {
+            if ("NOT_FOUND".equals(outcome)) {
+                return outcome;
+            }
+            return now < started ? "QUEUED" : now < ended ? "RUNNING" : outcome;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the command line against {@link FakeEbiServer}. Geneious is
+ * deliberately not initialised, as the command line must not need it.
+ */
+public class InterproscanCommandLineTest {
+
+    private final static double TIME_SCALE = 0.005;
+
+    private FakeEbiServer server;
+    private final ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = new FakeEbiServer(1);
+        try (InputStream in = InterproscanCommandLineTest.class.getResourceAsStream("result-small.xml")) {
+            server.result(in.readAllBytes());
+        }
+        server.runLatency(FakeEbiServer.Latency.fixed(100));
+    }
+
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+
+    @Test
+    public void testGzippedFasta_writesGff3ForEveryProtein(@TempDir Path tempDir) throws Exception {
+        List<String> sequences = SyntheticProteome.generate(12, 0.1, 23);
+        Path fasta = writeFasta(tempDir.resolve("proteins.fasta.gz"), sequences);
+        Path gff3 = tempDir.resolve("proteins.gff3");
+
+        int status = run(fasta.toString(), "-o", gff3.toString(), "--window", "5");
+
+        assertEquals(0, status, err.toString());
+        List<String> lines = Files.readAllLines(gff3);
+        assertEquals("##gff-version 3", lines.get(0));
+        assertEquals(sequences.size(), proteins(lines).size());
+        assertEquals(new HashSet<>(sequences).size(), server.getRunRequests());
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("##sequence-region protein0 1 " + sequences.get(0).length())));
+        assertTrue(lines.stream().anyMatch(line -> line.contains("\tprotein_match\t16\t39\t") && line.contains(";interPro_ID=IPR017896;")));
+    }
+
+
+    @Test
+    public void testTsvOutputFile_writesTsv(@TempDir Path tempDir) throws Exception {
+        List<String> sequences = SyntheticProteome.generate(4, 0, 29);
+        Path fasta = writeFasta(tempDir.resolve("proteins.fasta.gz"), sequences);
+        Path tsv = tempDir.resolve("proteins.tsv");
+
+        int status = run(fasta.toString(), "-o", tsv.toString());
+
+        assertEquals(0, status, err.toString());
+        List<String> lines = Files.readAllLines(tsv);
+        assertEquals("protein\tlength\ttype\tname\tstart\tend\tqualifiers", lines.get(0));
+        assertEquals(sequences.size(), proteins(lines.subList(1, lines.size())).size());
+        assertTrue(lines.stream().anyMatch(line -> line.endsWith("\tFer4_11\t16\t39\tDatabase=PFAM;Id=PF13247;Name=Fer4_11;"
+                + "InterPro ID=IPR017896;InterPro Name=4Fe4S_Fe-S-bd;InterPro Type=DOMAIN")));
+    }
+
+
+    @Test
+    public void testQueue_workersShareShardsAndRecoverACrashedOne(@TempDir Path tempDir) throws Exception {
+        List<String> sequences = SyntheticProteome.generate(20, 0, 31);
+        Path fasta = writeFasta(tempDir.resolve("proteins.fasta"), sequences);
+        Path queueDir = tempDir.resolve("queue");
+        Path gff3 = tempDir.resolve("proteins.gff3");
+
+        // A worker that split the proteins, claimed a shard and died.
+        WorkQueue queue = new WorkQueue(queueDir.toFile(), 1000);
+        try (FastaReader reader = new FastaReader(Files.newInputStream(fasta))) {
+            queue.split(reader, 3);
+        }
+        WorkQueue.Shard crashed = queue.claim();
+        Files.setLastModifiedTime(crashed.file, FileTime.fromMillis(0));
+
+        ExecutorService workers = Executors.newFixedThreadPool(2);
+        Future<Integer> first = workers.submit(() -> run("--queue", queueDir.toString(), "--lease", "1", "-o", gff3.toString()));
+        Future<Integer> second = workers.submit(() -> run("--queue", queueDir.toString(), "--lease", "1", "-o", gff3.toString()));
+        assertEquals(0, (int) first.get(), err.toString());
+        assertEquals(0, (int) second.get(), err.toString());
+        workers.shutdown();
+
+        List<String> lines = Files.readAllLines(gff3);
+        assertEquals("##gff-version 3", lines.get(0));
+        assertEquals(1, lines.stream().filter(line -> line.startsWith("##gff-version")).count());
+        assertEquals(sequences.size(), proteins(lines).size());
+        assertEquals(sequences.size(), lines.stream().filter(line -> line.startsWith("##sequence-region")).count());
+        assertTrue(queue.isFinished());
+    }
+
+
+    @Test
+    public void testNoEmailAddress_isAnError(@TempDir Path tempDir) throws Exception {
+        Path fasta = writeFasta(tempDir.resolve("proteins.fasta"), List.of("MKIRSQ"));
+
+        int status = InterproscanCommandLine.run(new String[]{fasta.toString()}, InputStream.nullInputStream(),
+                new ByteArrayOutputStream(), new PrintStream(err), TIME_SCALE);
+
+        assertEquals(2, status);
+        assertTrue(err.toString().startsWith("A valid email address is required"), err.toString());
+        assertEquals(0, server.getRequests());
+    }
+
+
+    private int run(String... args) {
+        String[] all = new String[args.length + 6];
+        System.arraycopy(args, 0, all, 0, args.length);
+        System.arraycopy(new String[]{"-e", "test@geneious.com", "--endpoint", server.getBaseUrl(), "--no-cache", "--no-resume"},
+                0, all, args.length, 6);
+        return InterproscanCommandLine.run(all, InputStream.nullInputStream(), new ByteArrayOutputStream(),
+                new PrintStream(err), TIME_SCALE);
+    }
+
+
+    /**
+     * Writes the sequences as FASTA, gzipped if the file name ends with
+     * .gz, in lower case and wrapped at 60 characters.
+     */
+    private static Path writeFasta(Path file, List<String> sequences) throws IOException {
+        try (Writer out = new OutputStreamWriter(file.toString().endsWith(".gz")
+                ? new GZIPOutputStream(Files.newOutputStream(file)) : Files.newOutputStream(file), StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < sequences.size(); i++) {
+                out.write(">protein" + i + " synthetic protein " + i + "\n");
+                String sequence = sequences.get(i).toLowerCase();
+                for (int start = 0; start < sequence.length(); start += 60) {
+                    out.write(sequence.substring(start, Math.min(sequence.length(), start + 60)) + "\n");
+                }
+            }
+        }
+        return file;
+    }
+
+
+    /**
+     * @return The proteins that have annotation lines.
+     */
+    private static Set<String> proteins(List<String> lines) {
+        Set<String> proteins = new HashSet<>();
+        for (String line : lines) {
+            if (!line.startsWith("#")) {
+                proteins.add(line.substring(0, line.indexOf('\t')));
+            }
+        }
+        return proteins;
+    }
+}
@@ -0,0 +1,79 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JobJournalTest {
+
+    @TempDir
+    File journalDir;
+
+    @Test
+    public void testLatestEntry_survivesReopening() {
+        File file = new File(journalDir, "jobs.journal");
+        JobJournal journal = new JobJournal(file);
+        journal.record("key1", "job1", "urn:1", JobJournal.SUBMITTED);
+        journal.record("key1", "job1", "urn:1", "RUNNING");
+        journal.record("key2", "job2", "urn:2", "ERROR");
+
+        JobJournal reopened = new JobJournal(file);
+        long now = System.currentTimeMillis();
+        assertEquals("job1", reopened.find("key1", now).jobid);
+        assertEquals("RUNNING", reopened.find("key1", now).status);
+        assertNull(reopened.find("key2", now));
+        assertNull(reopened.find("key1", now + JobJournal.RETENTION));
+    }
+
+    @Test
+    public void testIncompleteLastLine_isIgnored() throws IOException {
+        File file = new File(journalDir, "jobs.journal");
+        new JobJournal(file).record("key1", "job1", "urn:1", JobJournal.SUBMITTED);
+        try (FileWriter out = new FileWriter(file, true)) {
+            out.write(System.currentTimeMillis() + "\tRUNN");
+        }
+
+        JobJournal reopened = new JobJournal(file);
+        assertEquals(JobJournal.SUBMITTED, reopened.find("key1", System.currentTimeMillis()).status);
+        reopened.record("key2", "job2", "urn:2", "QUEUED");
+        assertEquals("job2", new JobJournal(file).find("key2", System.currentTimeMillis()).jobid);
+    }
+
+    @Test
+    public void testFinishedJobs_areForgottenAndCompactedAway() throws IOException {
+        File file = new File(journalDir, "jobs.journal");
+        JobJournal journal = new JobJournal(file);
+        journal.record("running", "job0", "urn:0", "RUNNING");
+        for (int i = 1; i <= 2000; i++) {
+            journal.record("key" + i, "job" + i, "urn:" + i, JobJournal.SUBMITTED);
+            journal.record("key" + i, "job" + i, "urn:" + i, i % 2 == 0 ? JobJournal.CACHED : "ERROR");
+        }
+
+        long now = System.currentTimeMillis();
+        assertNull(journal.find("key2", now));
+        assertNull(journal.find("key1", now));
+        assertEquals("job0", journal.find("running", now).jobid);
+        assertTrue(Files.readAllLines(file.toPath()).size() < 2000);
+        assertEquals("job0", new JobJournal(file).find("running", now).jobid);
+        assertNull(new JobJournal(file).find("key2000", now));
+    }
+
+    @Test
+    public void testUncachedDownload_staysResumable() {
+        File file = new File(journalDir, "jobs.journal");
+        JobJournal journal = new JobJournal(file);
+        journal.record("uncached", "job1", "urn:1", JobJournal.DOWNLOADED);
+        journal.record("cached", "job2", "urn:2", JobJournal.CACHED);
+
+        long now = System.currentTimeMillis();
+        assertEquals(JobJournal.DOWNLOADED, journal.find("uncached", now).status);
+        assertNull(journal.find("cached", now));
+        assertEquals("job1", new JobJournal(file).find("uncached", now).jobid);
+    }
+}
@@ -0,0 +1,120 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+import com.biomatters.geneious.publicapi.plugin.TestGeneious;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.DisabledOnOs;
+import org.junit.jupiter.api.condition.OS;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the engine with a stand-in interproscan.sh that copies canned
+ * output to wherever -o points.
+ */
+@DisabledOnOs(OS.WINDOWS)
+public class LocalInterproscanEngineTest {
+
+    private static final List<String> SEQUENCES = List.of(
+            "MKIRSQVGMVLNLDKCIGCHTCSVTCKNVWTSREGVEYAWFNNVETKPGQGFPTDWENQEKYKGGWIRKINGKLQPRMGNRAMLLGKIFANPHLPG",
+            "MSTNPKPQRKTKRNTNRRPQDVKFPGG",
+            "MSTNPKPQRKTKRNTNRRPQDVKFPGG",
+            "MAAAAAAAAAAAAAAAAAA");
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setUp() {
+        TestGeneious.initialize();
+    }
+
+    @Test
+    public void testBatches_returnAResultForEverySequence() throws Exception {
+        Map<Integer, AnnotationGeneratorResult> results = scan(standInScript("cp \"$canned\" \"$out\""), 2);
+
+        assertEquals(4, results.size());
+        assertEquals(3, results.get(0).getAnnotationsToAdd().size());
+        assertEquals("Coil", results.get(1).getAnnotationsToAdd().get(0).getQualifierValue("Id"));
+        assertEquals("Coil", results.get(2).getAnnotationsToAdd().get(0).getQualifierValue("Id"));
+        assertEquals("No InterProScan Results", results.get(3).getAnnotationsToAdd().get(0).getName());
+    }
+
+    @Test
+    public void testFailedRun_returnsErrorResults() throws Exception {
+        Map<Integer, AnnotationGeneratorResult> results = scan(standInScript("exit 3"), 10);
+
+        assertEquals(4, results.size());
+        for (AnnotationGeneratorResult result : results.values()) {
+            assertEquals("InterProScan Error", result.getAnnotationsToAdd().get(0).getName());
+        }
+    }
+
+    @Test
+    public void testFailedRun_reportsWhyForEverySequence() throws Exception {
+        Map<Integer, String> failures = new ConcurrentHashMap<>();
+        Map<Integer, AnnotationGeneratorResult> results = scan(standInScript("echo 'out of memory'; exit 3"), 10, failures);
+
+        assertEquals(4, failures.size());
+        for (int i = 0; i < SEQUENCES.size(); i++) {
+            assertTrue(failures.get(i).contains("exited with 3"), failures.get(i));
+            assertEquals(failures.get(i), results.get(i).getAnnotationsToAdd().get(0).getQualifierValue("Reason"));
+        }
+    }
+
+    @Test
+    public void testApplicationNames_matchTheCommandLine() {
+        assertEquals(List.of("Pfam", "SMART"), LocalInterproscanEngine.localApplicationNames(List.of("PfamA", "SMART")));
+    }
+
+    private Map<Integer, AnnotationGeneratorResult> scan(File script, int batchSize) throws Exception {
+        return scan(script, batchSize, new ConcurrentHashMap<>());
+    }
+
+    private Map<Integer, AnnotationGeneratorResult> scan(File script, int batchSize, Map<Integer, String> failures)
+            throws Exception {
+        XmlParser parser = new XmlParser()
+                .setFeatType(InterproscanOptions.FEAT_QUALIFIERS)
+                .setMakeExtraFeats(true);
+        LocalInterproscanEngine engine = new LocalInterproscanEngine(
+                script, List.of("PfamA", "Coils"), false, false, batchSize, 2, parser);
+        Map<Integer, AnnotationGeneratorResult> results = new ConcurrentHashMap<>();
+        engine.scan(SEQUENCES, (index, result, failure) -> {
+            assertNull(results.put(index, result));
+            if (failure != null) {
+                failures.put(index, failure);
+            }
+        }, () -> false);
+        return results;
+    }
+
+    private File standInScript(String action) throws IOException {
+        Path canned = tempDir.resolve("canned.xml");
+        try (InputStream in = LocalInterproscanEngineTest.class.getResourceAsStream("local-output.xml")) {
+            Files.copy(in, canned, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Path script = tempDir.resolve("interproscan.sh");
+        Files.write(script, ("#!/bin/sh\n"
+                + "canned='" + canned + "'\n"
+                + "while [ $# -gt 0 ]; do\n"
+                + "  if [ \"$1\" = \"-o\" ]; then out=\"$2\"; fi\n"
+                + "  shift\n"
+                + "done\n"
+                + action + "\n").getBytes(StandardCharsets.UTF_8));
+        assertTrue(script.toFile().setExecutable(true));
+        return script.toFile();
+    }
+}
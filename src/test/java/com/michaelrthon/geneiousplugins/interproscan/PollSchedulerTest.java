@@ -0,0 +1,80 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PollSchedulerTest {
+
+    @Test
+    public void testLongSequences_arePolledLaterThanShortOnes() {
+        PollScheduler<String> scheduler = new PollScheduler<>(21);
+        scheduler.add("long", 3000, 0);
+        scheduler.add("short", 50, 0);
+
+        assertTrue(scheduler.due(0).isEmpty());
+        long firstPoll = scheduler.nextPoll();
+        assertEquals(List.of("short"), scheduler.due(firstPoll));
+        assertTrue(scheduler.nextPoll() > firstPoll);
+    }
+
+    @Test
+    public void testLimitedPolls_takeTheMostOverdueFirst() {
+        PollScheduler<String> scheduler = new PollScheduler<>(21);
+        scheduler.add("first", 50, 0);
+        scheduler.add("second", 50, 1000);
+        scheduler.add("third", 50, 2000);
+
+        long now = scheduler.nextPoll() + 5000;
+        assertEquals(List.of("first", "second"), scheduler.due(now, 2));
+        assertEquals(List.of("third"), scheduler.due(now, 2));
+    }
+
+    @Test
+    public void testFewerApplications_shortenTheEstimate() {
+        assertTrue(new PollScheduler<>(2).expectedRuntime(1000) < new PollScheduler<>(21).expectedRuntime(1000));
+    }
+
+    @Test
+    public void testPolls_thinOutWhileAJobIsFarFromDone() {
+        PollScheduler<String> scheduler = new PollScheduler<>(21);
+        scheduler.add("job", 3000, 0);
+        long expected = scheduler.expectedRuntime(3000);
+
+        int polls = 0;
+        long now = scheduler.nextPoll();
+        while (now < expected) {
+            assertEquals(List.of("job"), scheduler.due(now));
+            scheduler.reschedule("job", now);
+            polls++;
+            now = scheduler.nextPoll();
+        }
+        // A fixed 250ms cycle would have polled thousands of times.
+        assertTrue(polls < 20, "polls=" + polls);
+    }
+
+    @Test
+    public void testFinishedJobs_refineTheEstimate() {
+        PollScheduler<String> scheduler = new PollScheduler<>(21);
+        long seeded = scheduler.expectedRuntime(1000);
+        scheduler.add("fast", 1000, 0);
+        scheduler.due(scheduler.nextPoll());
+        scheduler.finished("fast", seeded / 4, true);
+
+        assertTrue(scheduler.expectedRuntime(1000) < seeded);
+        assertEquals(Long.MAX_VALUE, scheduler.nextPoll());
+    }
+
+    @Test
+    public void testTimeScale_shrinksEveryInterval() {
+        PollScheduler<String> real = new PollScheduler<>(21);
+        PollScheduler<String> scaled = new PollScheduler<>(21, 0.01);
+        real.add("job", 1000, 0);
+        scaled.add("job", 1000, 0);
+
+        assertEquals(real.expectedRuntime(1000) / 100, scaled.expectedRuntime(1000), 1);
+        assertEquals(real.nextPoll() / 100, scaled.nextPoll(), 1);
+    }
+}
@@ -0,0 +1,119 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PrecalculatedMatchesTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    public void testFind_returnsTheRowsOfEachProtein() throws IOException {
+        File data = write("matches.tsv",
+                row("MKIRSQ", "PF00001", 1, 5),
+                row("MKIRSQ", "PF00002", 2, 6),
+                row("MSTNPK", "PF00003", 3, 7),
+                row("MAAAAA", "PF00004", 4, 8));
+
+        try (PrecalculatedMatches matches = new PrecalculatedMatches(data, new File(dir, "index"))) {
+            assertEquals(3, matches.size());
+            assertEquals(row("MKIRSQ", "PF00001", 1, 5) + row("MKIRSQ", "PF00002", 2, 6), text(matches.find("mkirsq")));
+            assertEquals(row("MSTNPK", "PF00003", 3, 7), text(matches.find("MSTNPK")));
+            assertEquals(row("MAAAAA", "PF00004", 4, 8), text(matches.find("MAAAAA")));
+            assertNull(matches.find("MNOTIN"));
+        }
+    }
+
+    @Test
+    public void testChangedFile_isIndexedAgain() throws IOException {
+        File data = write("matches.tsv", row("MKIRSQ", "PF00001", 1, 5));
+        File index = new File(dir, "index");
+        new PrecalculatedMatches(data, index).close();
+
+        write("matches.tsv", row("MSTNPK", "PF00003", 3, 7), row("MKIRSQ", "PF00001", 1, 5));
+        Files.setLastModifiedTime(data.toPath(), FileTime.fromMillis(data.lastModified() + 2000));
+
+        try (PrecalculatedMatches matches = new PrecalculatedMatches(data, index)) {
+            assertEquals(2, matches.size());
+            assertEquals(row("MKIRSQ", "PF00001", 1, 5), text(matches.find("MKIRSQ")));
+        }
+    }
+
+    @Test
+    public void testSharedInstance_staysOpenWhileInUse() throws IOException {
+        String home = System.getProperty("user.home");
+        System.setProperty("user.home", dir.getPath());
+        try {
+            File data = write("matches.tsv", row("MKIRSQ", "PF00001", 1, 5));
+            File other = write("other.tsv", row("MSTNPK", "PF00003", 3, 7));
+            PrecalculatedMatches first = PrecalculatedMatches.getInstance(data);
+            PrecalculatedMatches second = PrecalculatedMatches.getInstance(other);
+
+            // Replaced (not rewritten in place), as a download would be.
+            File replacement = write("replacement.tsv", row("MAAAAA", "PF00004", 4, 8));
+            Files.move(replacement.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(data.toPath(), FileTime.fromMillis(data.lastModified() + 2000));
+            PrecalculatedMatches rebuilt = PrecalculatedMatches.getInstance(data);
+
+            assertNotSame(first, rebuilt);
+            assertEquals(row("MKIRSQ", "PF00001", 1, 5), text(first.find("MKIRSQ")));
+            assertEquals(row("MSTNPK", "PF00003", 3, 7), text(second.find("MSTNPK")));
+            assertEquals(row("MAAAAA", "PF00004", 4, 8), text(rebuilt.find("MAAAAA")));
+            assertSame(rebuilt, PrecalculatedMatches.getInstance(data));
+            first.close();
+            second.close();
+            rebuilt.close();
+            rebuilt.close();
+        } finally {
+            System.setProperty("user.home", home);
+        }
+    }
+
+    @Test
+    public void testEmptyFile_findsNothing() throws IOException {
+        File data = write("matches.tsv");
+
+        try (PrecalculatedMatches matches = new PrecalculatedMatches(data, new File(dir, "index"))) {
+            assertEquals(0, matches.size());
+            assertNull(matches.find("MKIRSQ"));
+        }
+    }
+
+    private File write(String name, String... rows) throws IOException {
+        File file = new File(dir, name);
+        Files.write(file.toPath(), String.join("", rows).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * @return A TSV row for a Pfam match of the sequence.
+     */
+    static String row(String sequence, String signature, int start, int end) {
+        return String.join("\t", List.of("UPI0000000001", md5(sequence), Integer.toString(sequence.length()),
+                "Pfam", signature, "-", Integer.toString(start), Integer.toString(end), "1.0E-10", "T", "01-01-2023",
+                "-", "-")) + "\n";
+    }
+
+    static String md5(String sequence) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : PrecalculatedMatches.md5(sequence)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String text(byte[] rows) {
+        return rows == null ? null : new String(rows, StandardCharsets.UTF_8);
+    }
+}
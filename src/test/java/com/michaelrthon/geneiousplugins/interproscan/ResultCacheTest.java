@@ -0,0 +1,126 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultCacheTest {
+
+    @TempDir
+    File cacheDir;
+
+    @Test
+    public void testKey_dependsOnSearchSettingsOnly() {
+        String key = ResultCache.keyFor("MKIRSQ", List.of("PfamA", "SMART"), false, false);
+        assertEquals(key, ResultCache.keyFor("mkirsq", List.of("PfamA", "SMART"), false, false));
+        assertNotEquals(key, ResultCache.keyFor("MKIRSQ", List.of("PfamA"), false, false));
+        assertNotEquals(key, ResultCache.keyFor("MKIRSQ", List.of("PfamA", "SMART"), true, false));
+        assertNotEquals(key, ResultCache.keyFor("MKIRSQ", List.of("PfamA", "SMART"), false, true));
+        assertEquals(key, ResultCache.keyFor("MKIRSQ", List.of("PfamA", "SMART"), false, false, InterproscanOptions.FORMAT_XML));
+        assertNotEquals(key, ResultCache.keyFor("MKIRSQ", List.of("PfamA", "SMART"), false, false, InterproscanOptions.FORMAT_TSV));
+    }
+
+    @Test
+    public void testEntryFromBeforeApplicationsWereSent_isNotReused() throws Exception {
+        // Keyed as before the key was versioned, when EBI searched every database whatever was selected.
+        String unversioned = "MKIRSQ\nPfamA\ngoterms=false\npathways=false";
+        StringBuilder oldKey = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(unversioned.getBytes(StandardCharsets.UTF_8))) {
+            oldKey.append(String.format("%02x", b));
+        }
+        new ResultCache(cacheDir, 1024, 1024 * 1024).put(oldKey.toString(), "<all/>".getBytes(StandardCharsets.UTF_8));
+
+        ResultCache reopened = new ResultCache(cacheDir, 1024, 1024 * 1024);
+        assertNotNull(reopened.get(oldKey.toString()));
+        assertNull(reopened.get(ResultCache.keyFor("MKIRSQ", List.of("PfamA"), false, false)));
+    }
+
+    @Test
+    public void testPutThenGet_countsHitsAndMisses() {
+        ResultCache cache = new ResultCache(cacheDir, 1024, 1024 * 1024);
+        String key = ResultCache.keyFor("MKIRSQ", List.of("PfamA"), false, false);
+
+        assertNull(cache.get(key));
+        cache.put(key, "<xml/>".getBytes(StandardCharsets.UTF_8));
+        assertArrayEquals("<xml/>".getBytes(StandardCharsets.UTF_8), cache.get(key));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testResults_surviveANewCacheInstance() {
+        String key = ResultCache.keyFor("MKIRSQ", List.of("PfamA"), false, false);
+        new ResultCache(cacheDir, 1024, 1024 * 1024).put(key, "<xml/>".getBytes(StandardCharsets.UTF_8));
+
+        ResultCache reopened = new ResultCache(cacheDir, 1024, 1024 * 1024);
+        assertArrayEquals("<xml/>".getBytes(StandardCharsets.UTF_8), reopened.get(key));
+    }
+
+    @Test
+    public void testMemoryLevel_evictsLeastRecentlyUsed() {
+        // No room on disk, so only the memory level can answer.
+        ResultCache cache = new ResultCache(cacheDir, 10, 0);
+        cache.put("aa1", new byte[4]);
+        cache.put("aa2", new byte[4]);
+        cache.get("aa1");
+        cache.put("aa3", new byte[4]);
+
+        assertNotNull(cache.get("aa1"));
+        assertNull(cache.get("aa2"));
+        assertNotNull(cache.get("aa3"));
+    }
+
+    @Test
+    public void testParts_coverOnlySelectedApplicationsOnce() {
+        ResultCache cache = new ResultCache(cacheDir, 1024, 1024 * 1024);
+        String coverage = ResultCache.coverageKeyFor("MKIRSQ", false, false, InterproscanOptions.FORMAT_XML);
+        cache.put(coverage, List.of("PfamA"), ResultCache.keyFor("MKIRSQ", List.of("PfamA"), false, false), bytes("pfam"));
+        cache.put(coverage, List.of("PfamA", "SMART"), ResultCache.keyFor("MKIRSQ", List.of("PfamA", "SMART"), false, false), bytes("both"));
+        cache.put(coverage, List.of("CDD", "Coils"), ResultCache.keyFor("MKIRSQ", List.of("CDD", "Coils"), false, false), bytes("cdd"));
+
+        // The largest first, and none searched against a database that is not selected.
+        List<ResultCache.Part> parts = cache.findParts(coverage, List.of("CDD", "PfamA", "SMART", "TMHMM"));
+        assertEquals(1, parts.size());
+        assertEquals(List.of("PfamA", "SMART"), parts.get(0).appl);
+        assertArrayEquals(bytes("both"), parts.get(0).result);
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+
+        parts = new ResultCache(cacheDir, 1024, 1024 * 1024).findParts(coverage, List.of("CDD", "Coils", "PfamA"));
+        assertEquals(2, parts.size());
+        assertArrayEquals(bytes("cdd"), parts.get(0).result);
+        assertArrayEquals(bytes("pfam"), parts.get(1).result);
+
+        assertTrue(cache.findParts(ResultCache.coverageKeyFor("MKIRSQ", true, false, InterproscanOptions.FORMAT_XML),
+                List.of("PfamA")).isEmpty());
+    }
+
+    @Test
+    public void testEntry_isOnlyAddedOnceCommitted() throws Exception {
+        ResultCache cache = new ResultCache(cacheDir, 1024, 1024 * 1024);
+        String coverage = ResultCache.coverageKeyFor("MKIRSQ", false, false, InterproscanOptions.FORMAT_XML);
+        String key = ResultCache.keyFor("MKIRSQ", List.of("PfamA"), false, false);
+
+        try (ResultCache.Entry entry = cache.create(coverage, List.of("PfamA"), key)) {
+            entry.write(bytes("<partial"));
+        }
+        assertNull(cache.get(key));
+
+        try (ResultCache.Entry entry = cache.create(coverage, List.of("PfamA"), key)) {
+            entry.write(bytes("<xml/>"));
+            entry.commit();
+        }
+        assertArrayEquals(bytes("<xml/>"), cache.get(key));
+        assertEquals(1, cache.findParts(coverage, List.of("PfamA", "SMART")).size());
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
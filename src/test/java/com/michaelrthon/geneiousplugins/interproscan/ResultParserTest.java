@@ -0,0 +1,137 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.plugin.TestGeneious;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResultParserTest {
+
+    private static final int SEQ_LENGTH = 96;
+
+    @BeforeEach
+    public void setUp() {
+        TestGeneious.initialize();
+    }
+
+    @Test
+    public void testJson_matchesXmlInBothFeatureModes() throws IOException {
+        for (String featType : List.of(InterproscanOptions.FEAT_QUALIFIERS, InterproscanOptions.FEAT_SEPARATE)) {
+            assertEquals(describe(parse("result-small.xml", featType)), describe(parse("result-small.json", featType)));
+            assertEquals(describe(parse("result-empty.xml", featType)), describe(parse("result-empty.json", featType)));
+        }
+    }
+
+    @Test
+    public void testTsv_matchesXmlExceptForNames() throws IOException {
+        List<SequenceAnnotation> xml = parse("result-small.xml", InterproscanOptions.FEAT_QUALIFIERS);
+        List<SequenceAnnotation> tsv = parse("result-small.tsv", InterproscanOptions.FEAT_QUALIFIERS);
+
+        assertEquals(xml.size(), tsv.size());
+        for (int i = 0; i < xml.size(); i++) {
+            for (String qualifier : List.of("Database", "Id", "InterPro ID")) {
+                assertEquals(xml.get(i).getQualifierValue(qualifier), tsv.get(i).getQualifierValue(qualifier));
+            }
+            assertEquals(xml.get(i).getType(), tsv.get(i).getType());
+            assertEquals(intervals(xml.get(i)), intervals(tsv.get(i)));
+        }
+        assertEquals("4Fe-4S dicluster domain", tsv.get(0).getName());
+        assertEquals("GO:0051536", tsv.get(0).getQualifierValue("GO Terms"));
+        assertEquals("Unintegrated", tsv.get(1).getQualifierValue("InterPro Type"));
+    }
+
+    @Test
+    public void testTsv_withoutRows_addsNoResultsFeature() throws IOException {
+        List<SequenceAnnotation> annotations = parse("result-empty.tsv", InterproscanOptions.FEAT_QUALIFIERS);
+
+        assertEquals(1, annotations.size());
+        assertEquals("No InterProScan Results", annotations.get(0).getName());
+    }
+
+    @Test
+    public void testMalformedResults_addErrorFeature() {
+        for (String format : List.of(InterproscanOptions.FORMAT_JSON, InterproscanOptions.FORMAT_TSV)) {
+            String text = format.equals(InterproscanOptions.FORMAT_JSON)
+                    ? "{\"results\" : [ {\"matches\" : [ {"
+                    : "EMBOSS_001\tmd5\t96\tPfam\tPF13247\t-\tsixteen\t39\n";
+            ResultParser parser = ResultParser.forFormat(format, parser(InterproscanOptions.FEAT_QUALIFIERS));
+
+            List<SequenceAnnotation> annotations = parser.parse(
+                    new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)), SEQ_LENGTH).getAnnotationsToAdd();
+
+            assertEquals(1, annotations.size(), format);
+            assertEquals("InterProScan Error", annotations.get(0).getName(), format);
+        }
+    }
+
+    @Test
+    public void testResults_parseTheSameWhateverChunksTheyArriveIn() throws IOException {
+        for (String name : List.of("result-small.json", "result-small.tsv")) {
+            String format = name.substring(name.lastIndexOf('.') + 1);
+            byte[] result;
+            try (InputStream in = ResultParserTest.class.getResourceAsStream(name)) {
+                result = in.readAllBytes();
+            }
+            List<String> whole = describe(parse(name, InterproscanOptions.FEAT_QUALIFIERS));
+
+            for (int chunk : List.of(1, 7)) {
+                ResultParser parser = ResultParser.forFormat(format, parser(InterproscanOptions.FEAT_QUALIFIERS));
+                InputStream trickle = new FilterInputStream(new ByteArrayInputStream(result)) {
+                    @Override
+                    public int read(byte[] b, int off, int len) throws IOException {
+                        return super.read(b, off, Math.min(len, chunk));
+                    }
+                };
+                assertEquals(whole, describe(parser.parse(trickle, SEQ_LENGTH).getAnnotationsToAdd()), name + " in chunks of " + chunk);
+            }
+        }
+    }
+
+    private List<SequenceAnnotation> parse(String name, String featType) throws IOException {
+        String format = name.substring(name.lastIndexOf('.') + 1);
+        try (InputStream in = ResultParserTest.class.getResourceAsStream(name)) {
+            return ResultParser.forFormat(format, parser(featType))
+                    .parse(in, SEQ_LENGTH)
+                    .getAnnotationsToAdd();
+        }
+    }
+
+    private static XmlParser parser(String featType) {
+        return new XmlParser()
+                .setFeatType(featType)
+                .setMakeExtraFeats(true)
+                .setGoTerms(true)
+                .setPathways(true);
+    }
+
+    /**
+     * @return Everything about the annotations that the user sees.
+     */
+    private static List<String> describe(List<SequenceAnnotation> annotations) {
+        List<String> descriptions = new ArrayList<>();
+        for (SequenceAnnotation annotation : annotations) {
+            String qualifiers = annotation.getQualifiers().stream()
+                    .map(q -> q.getName() + "=" + q.getValue())
+                    .collect(Collectors.joining(", "));
+            descriptions.add(annotation.getName() + " (" + annotation.getType() + ") " + intervals(annotation) + " " + qualifiers);
+        }
+        return descriptions;
+    }
+
+    private static String intervals(SequenceAnnotation annotation) {
+        return annotation.getIntervals().stream()
+                .map(i -> i.getMinimumIndex() + ".." + i.getMaximumIndex())
+                .collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,107 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RunMetricsTest {
+
+    @TempDir
+    File summaryDir;
+
+    @Test
+    public void testHistogram_percentilesFallInTheRightBucket() {
+        RunMetrics.Histogram histogram = new RunMetrics.Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.add(i * 10);
+        }
+
+        assertEquals(100, histogram.count());
+        assertEquals(505, histogram.mean());
+        assertEquals(1000, histogram.max());
+        assertEquals(500, histogram.percentile(50));
+        assertEquals(1000, histogram.percentile(90));
+        assertEquals(10, histogram.percentile(1));
+    }
+
+    @Test
+    public void testTimeline_givesTheTimeInEachPhase() {
+        RunMetrics metrics = new RunMetrics(1);
+        RunMetrics.Timeline timeline = metrics.timeline("key1");
+        long start = timeline.enqueued;
+        timeline.slotAcquired = start + 100;
+        timeline.submitted = start + 300;
+        timeline.firstRunning = start + 5_300;
+        timeline.finished = start + 65_300;
+        timeline.downloadStarted = start + 65_400;
+        timeline.downloaded = start + 65_850;
+        timeline.parseStarted = start + 65_850;
+        timeline.parsed = start + 66_000;
+
+        assertEquals(100, timeline.duration(RunMetrics.Phase.SLOT_WAIT));
+        assertEquals(200, timeline.duration(RunMetrics.Phase.SUBMIT));
+        assertEquals(5_000, timeline.duration(RunMetrics.Phase.QUEUED));
+        assertEquals(60_000, timeline.duration(RunMetrics.Phase.RUNNING));
+        assertEquals(-1, timeline.duration(RunMetrics.Phase.UNSEEN));
+        assertEquals(450, timeline.duration(RunMetrics.Phase.DOWNLOAD));
+        assertEquals(150, timeline.duration(RunMetrics.Phase.PARSE));
+    }
+
+    @Test
+    public void testJobNeverSeenRunning_countsItsWholeTimeAtEbi() {
+        RunMetrics metrics = new RunMetrics(1);
+        RunMetrics.Timeline timeline = metrics.timeline("key1");
+        long start = timeline.enqueued;
+        timeline.slotAcquired = start + 100;
+        timeline.submitted = start + 300;
+        // The first status check found it finished.
+        timeline.finished = start + 65_300;
+        metrics.completed(timeline, "protein1", "iprscan5-1", null);
+
+        assertEquals(-1, timeline.duration(RunMetrics.Phase.QUEUED));
+        assertEquals(-1, timeline.duration(RunMetrics.Phase.RUNNING));
+        assertEquals(65_000, timeline.duration(RunMetrics.Phase.UNSEEN));
+        assertEquals(1, metrics.histogram(RunMetrics.Phase.UNSEEN).count());
+    }
+
+    @Test
+    public void testCachedSearch_skipsTheEbiPhases() throws IOException {
+        RunMetrics metrics = new RunMetrics(2, summaryDir);
+        RunMetrics.Timeline timeline = metrics.timeline("key1");
+        timeline.slotAcquired = timeline.enqueued;
+        timeline.cached = true;
+        metrics.completed(timeline, "protein1", null, null);
+        metrics.timeline("key2");
+        metrics.finish(0);
+
+        File summary = metrics.writeSummary();
+
+        List<String> lines = Files.readAllLines(summary.toPath());
+        assertTrue(lines.contains("cached\t1"));
+        assertTrue(lines.contains("submitted\t0"));
+        assertTrue(lines.contains("distinct searches\t2"));
+        assertEquals(1, metrics.histogram(RunMetrics.Phase.SLOT_WAIT).count());
+        assertEquals(0, metrics.histogram(RunMetrics.Phase.SUBMIT).count());
+
+        File jobs = new File(summaryDir, summary.getName().replace(".txt", "-jobs.tsv"));
+        List<String> jobLines = Files.readAllLines(jobs.toPath());
+        assertEquals(3, jobLines.size());
+        assertTrue(jobLines.get(1).startsWith("protein1\tnull\t0\t-1\t") && jobLines.get(1).endsWith("\t-1\t0\tcached"));
+        assertTrue(jobLines.get(2).endsWith("\tunfinished"));
+    }
+
+    @Test
+    public void testCompletedTimelines_areNotKept() {
+        RunMetrics metrics = new RunMetrics(1);
+        RunMetrics.Timeline timeline = metrics.timeline("key1");
+        metrics.completed(timeline, "protein1", null, null);
+
+        assertNotSame(timeline, metrics.timeline("key1"));
+    }
+}
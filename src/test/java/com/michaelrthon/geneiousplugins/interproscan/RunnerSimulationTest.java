@@ -0,0 +1,528 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import com.biomatters.geneious.publicapi.documents.DocumentUtilities;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceDocument;
+import com.biomatters.geneious.publicapi.implementations.sequence.DefaultAminoAcidSequence;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+import com.biomatters.geneious.publicapi.plugin.TestGeneious;
+import jebl.util.ProgressListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs scanSequences against {@link FakeEbiServer}, with EBI-like queue and
+ * run times compressed by TIME_SCALE, so no request reaches EBI.
+ *
+ * The throughput suite is tagged and left out of the normal test run;
+ * run it with {@code gradlew throughputTest}. The sequence count and time
+ * scale can be changed with the throughput.sequences and
+ * throughput.timeScale system properties.
+ */
+public class RunnerSimulationTest {
+
+    private final static double TIME_SCALE = 0.005;
+
+    private FakeEbiServer server;
+    private InterproscanOptions options;
+
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        TestGeneious.initialize();
+        server = new FakeEbiServer(1);
+        try (InputStream in = RunnerSimulationTest.class.getResourceAsStream("result-small.xml")) {
+            server.result(in.readAllBytes());
+        }
+        options = new InterproscanOptions();
+        options.getOption("emailAddress").setValueFromString("test@geneious.com");
+        options.getOption("useResultCache").setValueFromString("false");
+        options.getOption("emptyFeature").setValueFromString("true");
+        options.getOption("resumeJobs").setValueFromString("false");
+    }
+
+
+    @AfterEach
+    public void tearDown() {
+        server.close();
+    }
+
+
+    @Test
+    public void testFailuresAndSlowResponses_stillGiveEveryDocumentAResult() throws Exception {
+        server.queueLatency(FakeEbiServer.Latency.fixed(scaled(2_000)))
+                .runLatency(FakeEbiServer.Latency.uniform(scaled(20_000), scaled(60_000)))
+                .slowResponses(0.1, FakeEbiServer.Latency.fixed(50))
+                .failures(0.1, 0.05, 0.05);
+        List<String> sequences = SyntheticProteome.generate(40, 0.1, 7);
+
+        List<AnnotationGeneratorResult> results = scan(sequences, TIME_SCALE);
+
+        assertEquals(sequences.size(), results.size());
+        assertEquals(new HashSet<>(sequences).size(), server.getRunRequests());
+        assertTrue(server.getResultRequests() <= server.getRunRequests());
+        long failed = 0;
+        for (AnnotationGeneratorResult result : results) {
+            SequenceAnnotation first = result.getAnnotationsToAdd().get(0);
+            if (first.getName().equals("InterProScan Error")) {
+                failed++;
+                assertTrue(first.getQualifierValue("Reason").startsWith("EBI reported "), first.getQualifierValue("Reason"));
+            }
+        }
+        assertTrue(failed > 0 && failed < sequences.size());
+    }
+
+
+    @Test
+    public void testServiceUnavailable_isRetried() throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)))
+                .unavailable(0.15);
+        List<String> sequences = SyntheticProteome.generate(20, 0, 3);
+
+        List<AnnotationGeneratorResult> results = scan(sequences, TIME_SCALE);
+
+        for (AnnotationGeneratorResult result : results) {
+            assertEquals(3, result.getAnnotationsToAdd().size());
+        }
+        assertTrue(server.getRefusedRequests() > 0);
+    }
+
+
+    @Test
+    public void testNewlySelectedApplication_isSearchedAloneAndJoinedWithCachedResults(@TempDir File cacheDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(3, 0, 17);
+        ResultCache cache = new ResultCache(cacheDir, 1024 * 1024, 1024 * 1024);
+        options.getOption("useResultCache").setValueFromString("true");
+        for (String application : ScanSettings.APPLICATIONS) {
+            options.getOption(application).setValueFromString(String.valueOf(application.equals("PfamA")));
+        }
+
+        for (AnnotationGeneratorResult result : scan(sequences, cache)) {
+            assertEquals(3, result.getAnnotationsToAdd().size());
+        }
+        assertEquals(List.of(List.of("PfamA"), List.of("PfamA"), List.of("PfamA")), server.getSubmittedApplications());
+
+        // The fake returns the same matches for SMART, so there are twice as many.
+        options.getOption("SMART").setValueFromString("true");
+        for (AnnotationGeneratorResult result : scan(sequences, cache)) {
+            assertEquals(6, result.getAnnotationsToAdd().size());
+        }
+        assertEquals(List.of(List.of("SMART"), List.of("SMART"), List.of("SMART")),
+                server.getSubmittedApplications().subList(3, 6));
+
+        // Both are now cached.
+        for (AnnotationGeneratorResult result : scan(sequences, cache)) {
+            assertEquals(6, result.getAnnotationsToAdd().size());
+        }
+        assertEquals(6, server.getRunRequests());
+    }
+
+
+    @Test
+    public void testCachedResults_needNoSlot(@TempDir File cacheDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(3, 0, 19);
+        ResultCache cache = new ResultCache(cacheDir, 1024 * 1024, 1024 * 1024);
+        options.getOption("useResultCache").setValueFromString("true");
+        scan(sequences, cache);
+
+        // Another Runner holds every slot.
+        SlotPool pool = new SlotPool(SlotPool.DEFAULT_CAPACITY);
+        try (SlotPool.Lease other = pool.register()) {
+            while (other.tryAcquire(0)) {
+            }
+            Runner runner = runner(documents(sequences), TIME_SCALE);
+            runner.setCache(cache);
+            runner.setLimiter(new ConcurrencyLimiter(pool, ConcurrencyLimiter.DEFAULT_CEILING));
+            for (AnnotationGeneratorResult result : runner.scanSequences()) {
+                assertEquals(3, result.getAnnotationsToAdd().size());
+            }
+        }
+        assertEquals(3, server.getRunRequests());
+    }
+
+
+    @Test
+    public void testServiceUnavailable_lowersTheJobLimit(@TempDir Path tempDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)))
+                .unavailable(0.3);
+        List<String> sequences = SyntheticProteome.generate(30, 0, 13);
+        Runner runner = runner(documents(sequences), TIME_SCALE);
+        runner.setMetricsDirectory(tempDir.toFile());
+
+        runner.scanSequences();
+
+        assertEquals(0, runner.getFailureCount());
+        File[] summaries = tempDir.toFile().listFiles((dir, name) -> name.endsWith(".txt"));
+        List<String> lines = Files.readAllLines(summaries[0].toPath());
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("job limit cuts\t") && !line.endsWith("\t0")),
+                lines.toString());
+        assertTrue(lines.stream().anyMatch(line -> line.endsWith(" calls failed")), lines.toString());
+    }
+
+
+    @Test
+    public void testJournaledJobs_areResumedNotResubmitted(@TempDir Path tempDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(10, 0, 5);
+        JobJournal journal = new JobJournal(tempDir.resolve("jobs.journal").toFile());
+        ScanBackend backend = new EbiRestBackend(server.getBaseUrl(), HttpClientProvider.getDefault());
+        List<String> appl = options.getSelectedInterProApps();
+
+        // An earlier run submitted the first half, and one job EBI has since forgotten.
+        for (int i = 0; i < 5; i++) {
+            String jobid = backend.submit(sequences.get(i), "test@geneious.com", appl, false, false);
+            journal.record(ResultCache.keyFor(sequences.get(i), appl, false, false), jobid, "urn:test:" + i, JobJournal.SUBMITTED);
+        }
+        journal.record(ResultCache.keyFor(sequences.get(5), appl, false, false), "iprscan5-gone", "urn:test:5", "RUNNING");
+
+        List<AnnotationGeneratorResult> results = scan(sequences, TIME_SCALE, journal);
+
+        for (AnnotationGeneratorResult result : results) {
+            assertEquals(3, result.getAnnotationsToAdd().size());
+        }
+        assertEquals(sequences.size(), server.getRunRequests());
+        assertNull(new JobJournal(tempDir.resolve("jobs.journal").toFile())
+                .find(ResultCache.keyFor(sequences.get(5), appl, false, false), System.currentTimeMillis() + JobJournal.RETENTION));
+    }
+
+
+    @Test
+    public void testUncachedDownloads_areFetchedAgainNotResubmitted(@TempDir Path tempDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(3, 0, 23);
+        JobJournal journal = new JobJournal(tempDir.resolve("jobs.journal").toFile());
+        ScanBackend backend = new EbiRestBackend(server.getBaseUrl(), HttpClientProvider.getDefault());
+        List<String> appl = options.getSelectedInterProApps();
+
+        // An earlier run, without the result cache, stopped after downloading the results.
+        for (int i = 0; i < sequences.size(); i++) {
+            String jobid = backend.submit(sequences.get(i), "test@geneious.com", appl, false, false);
+            journal.record(ResultCache.keyFor(sequences.get(i), appl, false, false), jobid, "urn:test:" + i, JobJournal.DOWNLOADED);
+        }
+
+        for (AnnotationGeneratorResult result : scan(sequences, TIME_SCALE, journal)) {
+            assertEquals(3, result.getAnnotationsToAdd().size());
+        }
+        assertEquals(sequences.size(), server.getRunRequests());
+    }
+
+
+    @Test
+    public void testPrecalculatedMatches_needNoJobs(@TempDir Path tempDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(20, 0, 17);
+        StringBuilder rows = new StringBuilder();
+        for (int i = 0; i < sequences.size(); i += 2) {
+            rows.append(PrecalculatedMatchesTest.row(sequences.get(i), "PF13247", 16, 39));
+        }
+        File data = tempDir.resolve("matches.tsv").toFile();
+        Files.writeString(data.toPath(), rows);
+        Runner runner = runner(documents(sequences), TIME_SCALE);
+        runner.setPrecalculatedMatches(new PrecalculatedMatches(data, tempDir.resolve("index").toFile()));
+
+        List<AnnotationGeneratorResult> results = runner.scanSequences();
+
+        assertEquals(sequences.size() / 2, server.getRunRequests());
+        for (int i = 0; i < sequences.size(); i++) {
+            assertEquals(i % 2 == 0 ? 1 : 3, results.get(i).getAnnotationsToAdd().size());
+        }
+    }
+
+
+    @Test
+    public void testPrecalculatedEntry_leavesEbiResultsTheirEntryType(@TempDir Path tempDir) throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(4, 0, 29);
+        // The same InterPro entry as the EBI result, which TSV gives no type.
+        List<String> rows;
+        try (InputStream in = RunnerSimulationTest.class.getResourceAsStream("result-small.tsv")) {
+            rows = List.of(new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n"));
+        }
+        StringBuilder data = new StringBuilder();
+        for (int i = 0; i < sequences.size(); i += 2) {
+            for (String row : rows) {
+                String[] columns = row.split("\t", 3);
+                data.append(columns[0]).append('\t').append(PrecalculatedMatchesTest.md5(sequences.get(i)))
+                        .append('\t').append(columns[2]).append('\n');
+            }
+        }
+        File file = tempDir.resolve("matches.tsv").toFile();
+        Files.writeString(file.toPath(), data);
+        Runner runner = runner(documents(sequences), TIME_SCALE);
+        runner.setPrecalculatedMatches(new PrecalculatedMatches(file, tempDir.resolve("index").toFile()));
+
+        List<AnnotationGeneratorResult> results = runner.scanSequences();
+
+        assertEquals(sequences.size() / 2, server.getRunRequests());
+        for (int i = 1; i < sequences.size(); i += 2) {
+            assertTrue(results.get(i).getAnnotationsToAdd().stream()
+                    .anyMatch(annotation -> "DOMAIN".equals(annotation.getQualifierValue("InterPro Type"))));
+        }
+    }
+
+
+    @Test
+    public void testLongestFirst_submitsLongestSequencesFirst() throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        List<String> sequences = SyntheticProteome.generate(20, 0, 19);
+        List<Integer> longest = new ArrayList<>();
+        for (String sequence : sequences) {
+            longest.add(sequence.length());
+        }
+        longest.sort(Comparator.reverseOrder());
+
+        List<AnnotationGeneratorResult> results = scan(sequences, TIME_SCALE);
+
+        // Up to three submissions are in flight at once, so only the first three are certain.
+        List<Integer> submitted = new ArrayList<>(server.getSubmittedLengths().subList(0, 3));
+        submitted.sort(Comparator.reverseOrder());
+        assertEquals(longest.subList(0, 3), submitted);
+        assertEquals(sequences.size(), results.size());
+        for (AnnotationGeneratorResult result : results) {
+            assertEquals(3, result.getAnnotationsToAdd().size());
+        }
+    }
+
+
+    @Test
+    public void testPartOfASequence_isSubmittedAndAnnotatedInPlace() throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        String whole = String.join("", SyntheticProteome.generate(4, 0, 37));
+        ProteinBatch region = region(whole, 100, 300);
+
+        List<AnnotationGeneratorResult> results = runner(region, TIME_SCALE).scanSequences();
+
+        assertEquals(List.of(200), server.getSubmittedLengths());
+        List<SequenceAnnotation> annotations = results.get(0).getAnnotationsToAdd();
+        assertEquals(3, annotations.size());
+        for (SequenceAnnotation annotation : annotations) {
+            for (SequenceAnnotationInterval interval : annotation.getIntervals()) {
+                assertTrue(interval.getMinimumIndex() > 100 && interval.getMaximumIndex() <= 300, annotation.getName());
+            }
+        }
+        assertTrue(annotations.stream().anyMatch(annotation -> annotation.getIntervals().stream()
+                .anyMatch(interval -> interval.getMinimumIndex() == 116 && interval.getMaximumIndex() == 139)));
+    }
+
+
+    @Test
+    public void testFailedPartOfASequence_isMarkedOnThatPartOnly() throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)))
+                .failures(1.0, 0, 0);
+        String whole = String.join("", SyntheticProteome.generate(4, 0, 41));
+
+        List<AnnotationGeneratorResult> results = runner(region(whole, 50, 120), TIME_SCALE).scanSequences();
+
+        SequenceAnnotation error = results.get(0).getAnnotationsToAdd().get(0);
+        assertEquals("InterProScan Error", error.getName());
+        assertEquals(51, error.getIntervals().get(0).getMinimumIndex());
+        assertEquals(120, error.getIntervals().get(0).getMaximumIndex());
+    }
+
+
+    @Test
+    public void testApplyAsScanned_savesAnnotationsToEachDocument() throws Exception {
+        server.runLatency(FakeEbiServer.Latency.fixed(scaled(20_000)));
+        options.getOption("applyAsScanned").setValueFromString("true");
+        AnnotatedPluginDocument[] documents = documents(SyntheticProteome.generate(10, 0.2, 13));
+
+        List<AnnotationGeneratorResult> results = runner(documents, TIME_SCALE).scanSequences();
+
+        assertEquals(documents.length, results.size());
+        for (AnnotationGeneratorResult result : results) {
+            assertTrue(result.getAnnotationsToAdd().isEmpty());
+        }
+        for (AnnotatedPluginDocument document : documents) {
+            assertEquals(3, ((SequenceDocument) document.getDocument()).getSequenceAnnotations().size());
+        }
+    }
+
+
+    @Test
+    public void testTimingSummary_coversEveryPhase(@TempDir Path tempDir) throws Exception {
+        // The shortest runs finish before their first status check.
+        server.queueLatency(FakeEbiServer.Latency.fixed(scaled(5_000)))
+                .runLatency(FakeEbiServer.Latency.uniform(scaled(10_000), scaled(200_000)));
+        List<String> sequences = SyntheticProteome.generate(10, 0, 11);
+        Runner runner = runner(documents(sequences), TIME_SCALE);
+        runner.setMetricsDirectory(tempDir.toFile());
+
+        runner.scanSequences();
+
+        File[] summaries = tempDir.toFile().listFiles((dir, name) -> name.endsWith(".txt"));
+        assertEquals(1, summaries.length);
+        List<String> lines = Files.readAllLines(summaries[0].toPath());
+        assertTrue(lines.contains("submitted\t" + sequences.size()), lines.toString());
+        int unseen = count(lines, RunMetrics.Phase.UNSEEN);
+        assertTrue(unseen > 0, lines.toString());
+        for (RunMetrics.Phase phase : RunMetrics.Phase.values()) {
+            boolean atEbi = phase == RunMetrics.Phase.QUEUED || phase == RunMetrics.Phase.RUNNING;
+            if (phase != RunMetrics.Phase.UNSEEN) {
+                assertEquals(sequences.size(), count(lines, phase) + (atEbi ? unseen : 0), phase.description);
+            }
+        }
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("bytes downloaded\t") && !line.endsWith("\t0")));
+    }
+
+
+    @Test
+    @Tag("throughput")
+    public void testThroughput_proteome() throws Exception {
+        int count = Integer.getInteger("throughput.sequences", 10_000);
+        double timeScale = Double.parseDouble(System.getProperty("throughput.timeScale", Double.toString(TIME_SCALE)));
+        server.queueLatency(FakeEbiServer.Latency.logNormal(scaled(5_000, timeScale), 1.0))
+                .runLatency(FakeEbiServer.Latency.logNormal(scaled(60_000, timeScale), 0.5))
+                .slowResponses(0.01, FakeEbiServer.Latency.logNormal(scaled(2_000, timeScale), 0.5))
+                .failures(0.005, 0.001, 0.002);
+        List<String> sequences = SyntheticProteome.generate(count, 0.02, 42);
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans();
+        heapPools.removeIf(pool -> pool.getType() != MemoryType.HEAP);
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        long start = System.nanoTime();
+
+        List<AnnotationGeneratorResult> results = scan(sequences, timeScale);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long peakHeap = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.printf("Throughput: %d sequences (%d distinct) in %.1f s, %.1f h at EBI speed%n",
+                count, new HashSet<>(sequences).size(), seconds, seconds / timeScale / 3600);
+        System.out.printf("Throughput: %d requests (%d run, %d status, %d result, %d refused), %.2f per sequence%n",
+                server.getRequests(), server.getRunRequests(), server.getStatusRequests(), server.getResultRequests(),
+                server.getRefusedRequests(),
+                server.getRequests() / (double) count);
+        System.out.printf("Throughput: peak heap %d MB%n", peakHeap >> 20);
+
+        assertEquals(count, results.size());
+    }
+
+
+    /**
+     * @return The number of searches a timing summary counts in a phase.
+     */
+    private static int count(List<String> summary, RunMetrics.Phase phase) {
+        return summary.stream()
+                .filter(line -> line.startsWith(phase.description + "\t"))
+                .mapToInt(line -> Integer.parseInt(line.split("\t")[1]))
+                .findFirst()
+                .orElse(-1);
+    }
+
+
+    private List<AnnotationGeneratorResult> scan(List<String> sequences, double timeScale) throws Exception {
+        return scan(sequences, timeScale, null);
+    }
+
+
+    private List<AnnotationGeneratorResult> scan(List<String> sequences, double timeScale, JobJournal journal)
+            throws Exception {
+        Runner runner = runner(documents(sequences), timeScale);
+        runner.setJournal(journal);
+        return runner.scanSequences();
+    }
+
+
+    private List<AnnotationGeneratorResult> scan(List<String> sequences, ResultCache cache) throws Exception {
+        Runner runner = runner(documents(sequences), TIME_SCALE);
+        runner.setCache(cache);
+        return runner.scanSequences();
+    }
+
+
+    /**
+     * @return A batch of one protein, of which only the residues from
+     *         start, 0-based, up to end are scanned.
+     */
+    private static ProteinBatch region(String sequence, int start, int end) {
+        return new ProteinBatch() {
+            @Override
+            public int size() {
+                return 1;
+            }
+
+            @Override
+            public String getName(int index) {
+                return "polyprotein";
+            }
+
+            @Override
+            public String getSequence(int index) {
+                return sequence.substring(start, end);
+            }
+
+            @Override
+            public int getOffset(int index) {
+                return start;
+            }
+
+            @Override
+            public String getUrn(int index) {
+                return "urn:test:polyprotein";
+            }
+
+            @Override
+            public void apply(int index, AnnotationGeneratorResult result) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    private static AnnotatedPluginDocument[] documents(List<String> sequences) {
+        AnnotatedPluginDocument[] documents = new AnnotatedPluginDocument[sequences.size()];
+        for (int i = 0; i < documents.length; i++) {
+            documents[i] = DocumentUtilities.createAnnotatedPluginDocument(
+                    new DefaultAminoAcidSequence("protein" + i, sequences.get(i)));
+        }
+        return documents;
+    }
+
+
+    private Runner runner(AnnotatedPluginDocument[] documents, double timeScale) {
+        return runner(new DocumentBatch(documents), timeScale);
+    }
+
+
+    private Runner runner(ProteinBatch batch, double timeScale) {
+        ScanBackend backend = new EbiRestBackend(server.getBaseUrl(), HttpClientProvider.getDefault());
+        Runner runner = new Runner(batch, options, ProgressListener.EMPTY, backend, timeScale);
+        runner.setMetricsDirectory(null);
+        // So that one test's failures leave the next test's limit alone.
+        runner.setLimiter(new ConcurrencyLimiter(new SlotPool(SlotPool.DEFAULT_CAPACITY), ConcurrencyLimiter.DEFAULT_CEILING));
+        return runner;
+    }
+
+
+    private static long scaled(long millis) {
+        return scaled(millis, TIME_SCALE);
+    }
+
+
+    private static long scaled(long millis, double timeScale) {
+        return Math.round(millis * timeScale);
+    }
+}
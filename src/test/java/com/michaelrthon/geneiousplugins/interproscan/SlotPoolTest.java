@@ -0,0 +1,131 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlotPoolTest {
+
+    private final static long WAIT = 10000;
+
+    @Test
+    public void testTwoLeases_splitTheCapacity() throws InterruptedException {
+        SlotPool pool = new SlotPool(10);
+        try (SlotPool.Lease first = pool.register(); SlotPool.Lease second = pool.register()) {
+            assertEquals(5, acquireAll(first));
+            assertEquals(5, acquireAll(second));
+            assertEquals(10, pool.getLeased());
+        }
+        assertEquals(0, pool.getLeased());
+    }
+
+    @Test
+    public void testLateSmallLease_getsSlotsAsTheFirstReleasesToItsShare() throws InterruptedException {
+        SlotPool pool = new SlotPool(10);
+        try (SlotPool.Lease large = pool.register()) {
+            assertEquals(10, acquireAll(large));
+            try (SlotPool.Lease small = pool.register()) {
+                assertFalse(small.tryAcquire(0));
+
+                // Each slot the large lease gives back goes to the small one,
+                // until the large lease is down to its share.
+                for (int i = 1; i <= 5; i++) {
+                    large.release();
+                    assertFalse(large.tryAcquire(0));
+                    assertTrue(small.tryAcquire(0));
+                    assertEquals(i, small.getHeld());
+                }
+                assertFalse(small.tryAcquire(0));
+                large.release();
+                assertTrue(large.tryAcquire(0));
+                assertEquals(5, large.getHeld());
+            }
+            // Once the small lease leaves, the large one may have the whole pool again.
+            assertEquals(5, acquireAll(large));
+        }
+    }
+
+    @Test
+    public void testWaitingAcquire_isWokenByRelease() throws Exception {
+        SlotPool pool = new SlotPool(1);
+        try (SlotPool.Lease holder = pool.register(); SlotPool.Lease waiter = pool.register()) {
+            assertTrue(holder.tryAcquire(0));
+            CompletableFuture<Long> waited = waitForSlot(waiter);
+            Thread.sleep(100);
+            assertFalse(waited.isDone());
+
+            holder.release();
+            assertTrue(waited.get(WAIT, TimeUnit.MILLISECONDS) < WAIT / 2);
+            assertEquals(1, waiter.getHeld());
+        }
+    }
+
+    @Test
+    public void testWaitingAcquire_isWokenByClose() throws Exception {
+        SlotPool pool = new SlotPool(1);
+        SlotPool.Lease holder = pool.register();
+        try (SlotPool.Lease waiter = pool.register()) {
+            assertTrue(holder.tryAcquire(0));
+            CompletableFuture<Long> waited = waitForSlot(waiter);
+            Thread.sleep(100);
+            assertFalse(waited.isDone());
+
+            holder.close();
+            assertTrue(waited.get(WAIT, TimeUnit.MILLISECONDS) < WAIT / 2);
+            assertEquals(1, pool.getLeased());
+        }
+    }
+
+    @Test
+    public void testLeaseCeilings_lowestAppliesWhileItsLeaseIsOpen() throws InterruptedException {
+        SlotPool pool = new SlotPool(10);
+        try (SlotPool.Lease first = pool.register(8)) {
+            assertEquals(8, acquireAll(first));
+            try (SlotPool.Lease second = pool.register(4)) {
+                assertEquals(4, pool.getCeiling());
+                assertEquals(0, acquireAll(second));
+
+                // Nothing is taken back, but slots are only given out again
+                // once fewer than the lowest ceiling are leased.
+                for (int i = 0; i < 5; i++) {
+                    first.release();
+                }
+                assertEquals(1, acquireAll(second));
+                assertEquals(4, pool.getLeased());
+            }
+            assertEquals(8, pool.getCeiling());
+            assertEquals(5, acquireAll(first));
+        }
+        assertEquals(Integer.MAX_VALUE, pool.getCeiling());
+    }
+
+    /**
+     * @return How many slots the lease could acquire without waiting.
+     */
+    private static int acquireAll(SlotPool.Lease lease) throws InterruptedException {
+        int acquired = 0;
+        while (lease.tryAcquire(0)) {
+            acquired++;
+        }
+        return acquired;
+    }
+
+    /**
+     * @return How long, in milliseconds, the lease waited for a slot,
+     *         once it has one; fails if it timed out.
+     */
+    private static CompletableFuture<Long> waitForSlot(SlotPool.Lease lease) {
+        return CompletableFuture.supplyAsync(() -> {
+            long started = System.currentTimeMillis();
+            try {
+                assertTrue(lease.tryAcquire(WAIT));
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return System.currentTimeMillis() - started;
+        });
+    }
+}
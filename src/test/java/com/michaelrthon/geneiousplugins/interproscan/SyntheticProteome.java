@@ -0,0 +1,77 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates protein sequences shaped like a real proteome: log-normal
+ * lengths around a median of 350 residues, UniProt background residue
+ * frequencies, and a small fraction of exact duplicates.
+ */
+final class SyntheticProteome {
+
+    private final static String RESIDUES = "ARNDCQEGHILKMFPSTWYV";
+    private final static double[] FREQUENCIES = {
+            8.25, 5.53, 4.06, 5.45, 1.37, 3.93, 6.75, 7.07, 2.27, 5.96,
+            9.66, 5.84, 2.42, 3.86, 4.70, 6.56, 5.34, 1.08, 2.92, 6.87};
+    private final static int MEDIAN_LENGTH = 350;
+    private final static double LENGTH_SIGMA = 0.6;
+    private final static int MIN_LENGTH = 30;
+    private final static int MAX_LENGTH = 5000;
+
+    private final static double[] CUMULATIVE = new double[FREQUENCIES.length];
+    static {
+        double total = 0;
+        for (double frequency : FREQUENCIES) {
+            total += frequency;
+        }
+        double sum = 0;
+        for (int i = 0; i < FREQUENCIES.length; i++) {
+            sum += FREQUENCIES[i] / total;
+            CUMULATIVE[i] = sum;
+        }
+    }
+
+
+    private SyntheticProteome() {
+    }
+
+
+    /**
+     * @param count             The number of sequences.
+     * @param duplicateFraction The fraction that repeat an earlier sequence.
+     * @param seed              Seeds the generator, so runs can be compared.
+     *
+     * @return The sequences.
+     */
+    static List<String> generate(int count, double duplicateFraction, long seed) {
+        Random random = new Random(seed);
+        List<String> sequences = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextDouble() < duplicateFraction) {
+                sequences.add(sequences.get(random.nextInt(i)));
+                continue;
+            }
+            long length = Math.round(MEDIAN_LENGTH * Math.exp(LENGTH_SIGMA * random.nextGaussian()));
+            int clamped = (int) Math.max(MIN_LENGTH, Math.min(MAX_LENGTH, length));
+            StringBuilder sequence = new StringBuilder(clamped);
+            sequence.append('M');
+            while (sequence.length() < clamped) {
+                sequence.append(residue(random.nextDouble()));
+            }
+            sequences.add(sequence.toString());
+        }
+        return sequences;
+    }
+
+
+    private static char residue(double p) {
+        for (int i = 0; i < CUMULATIVE.length - 1; i++) {
+            if (p < CUMULATIVE[i]) {
+                return RESIDUES.charAt(i);
+            }
+        }
+        return RESIDUES.charAt(RESIDUES.length() - 1);
+    }
+}
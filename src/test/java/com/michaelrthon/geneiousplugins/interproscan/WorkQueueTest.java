@@ -0,0 +1,131 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkQueueTest {
+
+    private final static long LEASE = 60000;
+
+    @TempDir
+    File queueDir;
+
+    @Test
+    public void testConcurrentClaims_neverShareAShard() throws Exception {
+        split(new WorkQueue(queueDir, LEASE), 20, 2);
+
+        Set<String> claimed = ConcurrentHashMap.newKeySet();
+        List<Callable<Integer>> workers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            WorkQueue queue = new WorkQueue(queueDir, LEASE);
+            workers.add(() -> {
+                int count = 0;
+                for (WorkQueue.Shard shard = queue.claim(); shard != null; shard = queue.claim()) {
+                    assertTrue(claimed.add(shard.name), shard.name + " was claimed twice");
+                    count++;
+                }
+                return count;
+            });
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers.size());
+        int total = 0;
+        for (Future<Integer> count : executor.invokeAll(workers)) {
+            total += count.get();
+        }
+        executor.shutdown();
+
+        assertEquals(10, total);
+        assertEquals(10, claimed.size());
+        assertFalse(new WorkQueue(queueDir, LEASE).isFinished());
+    }
+
+    @Test
+    public void testExpiredLease_returnsShardToQueue() throws Exception {
+        WorkQueue queue = new WorkQueue(queueDir, LEASE);
+        split(queue, 2, 1);
+        WorkQueue.Shard crashed = queue.claim();
+        WorkQueue.Shard alive = queue.claim();
+        assertNull(queue.claim());
+
+        // The first worker stopped renewing its lease long ago; the second renews its own.
+        Files.setLastModifiedTime(crashed.file, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE));
+        Files.setLastModifiedTime(alive.file, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE));
+        assertTrue(queue.renew(alive));
+
+        WorkQueue.Shard reclaimed = queue.claim();
+        assertEquals(crashed.name, reclaimed.name);
+        assertNull(queue.claim());
+    }
+
+    @Test
+    public void testSlowWorker_cannotRenewOrCompleteAReclaimedShard() throws Exception {
+        WorkQueue slow = new WorkQueue(queueDir, LEASE);
+        WorkQueue other = new WorkQueue(queueDir, LEASE);
+        split(slow, 1, 1);
+        WorkQueue.Shard lapsed = slow.claim();
+        Files.setLastModifiedTime(lapsed.file, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE));
+
+        WorkQueue.Shard reclaimed = other.claim();
+        assertEquals(lapsed.name, reclaimed.name);
+        assertFalse(slow.renew(lapsed));
+        Path result = slow.resultFile(lapsed, AnnotationWriter.FORMAT_TSV);
+        Files.writeString(result, "header\nrow0\n");
+        slow.complete(lapsed, result, AnnotationWriter.FORMAT_TSV);
+
+        // Still the other worker's, until it completes the shard itself.
+        assertFalse(other.isFinished());
+        assertTrue(other.renew(reclaimed));
+        other.complete(reclaimed, other.resultFile(reclaimed, AnnotationWriter.FORMAT_TSV), AnnotationWriter.FORMAT_TSV);
+        assertTrue(other.isFinished());
+    }
+
+    @Test
+    public void testMerge_joinsResultsInShardOrderWithOneHeader() throws Exception {
+        WorkQueue queue = new WorkQueue(queueDir, LEASE);
+        split(queue, 3, 1);
+        List<WorkQueue.Shard> shards = new ArrayList<>();
+        for (WorkQueue.Shard shard = queue.claim(); shard != null; shard = queue.claim()) {
+            shards.add(shard);
+        }
+        // Finished out of order.
+        for (int i = shards.size() - 1; i >= 0; i--) {
+            Path result = queue.resultFile(shards.get(i), AnnotationWriter.FORMAT_TSV);
+            Files.writeString(result, "header\nrow" + i + "\n");
+            queue.complete(shards.get(i), result, AnnotationWriter.FORMAT_TSV);
+        }
+        assertTrue(queue.isFinished());
+
+        File output = new File(queueDir, "merged.tsv");
+        assertTrue(queue.merge(AnnotationWriter.FORMAT_TSV, output));
+        assertEquals(List.of("header", "row0", "row1", "row2"), Files.readAllLines(output.toPath()));
+        assertFalse(new WorkQueue(queueDir, LEASE).merge(AnnotationWriter.FORMAT_TSV, output));
+    }
+
+    private static void split(WorkQueue queue, int proteins, int shardSize) throws IOException, InterruptedException {
+        StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < proteins; i++) {
+            fasta.append(">protein").append(i).append('\n').append("MKIRSQ").append('\n');
+        }
+        try (FastaReader reader = new FastaReader(new ByteArrayInputStream(fasta.toString().getBytes(StandardCharsets.US_ASCII)))) {
+            queue.split(reader, shardSize);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.michaelrthon.geneiousplugins.interproscan;
+
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.plugin.SequenceAnnotationGenerator.AnnotationGeneratorResult;
+import com.biomatters.geneious.publicapi.plugin.TestGeneious;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class XmlParserTest {
+
+    private static final int SEQ_LENGTH = 96;
+
+    @BeforeEach
+    public void setUp() {
+        TestGeneious.initialize();
+    }
+
+    @Test
+    public void testQualifierMode_addsInterProQualifiersToEachMatch() throws IOException {
+        List<SequenceAnnotation> annotations = parse("result-small.xml", InterproscanOptions.FEAT_QUALIFIERS);
+
+        assertEquals(3, annotations.size());
+        SequenceAnnotation pfam = annotations.get(0);
+        assertEquals("Fer4_11", pfam.getName());
+        assertEquals("Pfam", pfam.getType());
+        assertEquals("PF13247", pfam.getQualifierValue("Id"));
+        assertEquals("4Fe4S_Fe-S-bd", pfam.getQualifierValue("InterPro Name"));
+        assertEquals(2, pfam.getIntervals().size());
+        assertEquals(54, pfam.getIntervals().get(1).getMinimumIndex());
+        assertEquals(78, pfam.getIntervals().get(1).getMaximumIndex());
+
+        SequenceAnnotation gene3d = annotations.get(1);
+        assertEquals("unknown", gene3d.getName());
+        assertEquals("Unintegrated", gene3d.getQualifierValue("InterPro Type"));
+    }
+
+    @Test
+    public void testSeparateMode_addsAFullLengthTermPerMatch() throws IOException {
+        List<SequenceAnnotation> annotations = parse("result-small.xml", InterproscanOptions.FEAT_SEPARATE);
+
+        assertEquals(6, annotations.size());
+        SequenceAnnotation term = annotations.get(1);
+        assertEquals("InterPro Term", term.getType());
+        assertEquals("DOMAIN", term.getQualifierValue("type"));
+        assertEquals(SEQ_LENGTH, term.getIntervals().get(0).getMaximumIndex());
+    }
+
+    @Test
+    public void testGoTerms_areAddedToTheEntryQualifiers() throws IOException {
+        XmlParser parser = new XmlParser()
+                .setFeatType(InterproscanOptions.FEAT_QUALIFIERS)
+                .setGoTerms(true);
+        List<SequenceAnnotation> annotations;
+        try (InputStream in = resource("result-small.xml")) {
+            annotations = parser.parse(in, SEQ_LENGTH).getAnnotationsToAdd();
+        }
+
+        assertEquals(3, annotations.size());
+        assertEquals("GO:0051536 iron-sulfur cluster binding", annotations.get(0).getQualifierValue("GO Terms"));
+        String unintegrated = annotations.get(1).getQualifierValue("GO Terms");
+        assertTrue(unintegrated == null || unintegrated.isEmpty());
+    }
+
+    @Test
+    public void testRepeatedEntries_shareOneCopyOfEachQualifier() throws IOException {
+        XmlParser parser = new XmlParser().setFeatType(InterproscanOptions.FEAT_QUALIFIERS);
+        List<SequenceAnnotation> first, second;
+        try (InputStream in = resource("result-small.xml")) {
+            first = parser.parse(in, SEQ_LENGTH).getAnnotationsToAdd();
+        }
+        int size = parser.getDictionary().size();
+        try (InputStream in = resource("result-small.xml")) {
+            second = parser.parse(in, SEQ_LENGTH).getAnnotationsToAdd();
+        }
+
+        assertEquals(size, parser.getDictionary().size());
+        assertSame(first.get(0).getQualifierValue("InterPro ID"), second.get(0).getQualifierValue("InterPro ID"));
+        assertSame(first.get(0).getQualifierValue("Name"), second.get(0).getQualifierValue("Name"));
+    }
+
+    @Test
+    public void testNoProteins_addsNoResultsFeature() throws IOException {
+        List<SequenceAnnotation> annotations = parse("result-empty.xml", InterproscanOptions.FEAT_QUALIFIERS);
+
+        assertEquals(1, annotations.size());
+        assertEquals("No InterProScan Results", annotations.get(0).getName());
+    }
+
+    @Test
+    public void testMalformedXml_addsErrorFeature() {
+        AnnotationGeneratorResult result = new XmlParser("<protein-matches><protein>")
+                .setSeqLength(SEQ_LENGTH)
+                .setFeatType(InterproscanOptions.FEAT_QUALIFIERS)
+                .parseXml();
+
+        assertEquals(1, result.getAnnotationsToAdd().size());
+        assertEquals("InterProScan Error", result.getAnnotationsToAdd().get(0).getName());
+    }
+
+    @Test
+    public void testSharedParser_isSafeToUseConcurrently() throws Exception {
+        XmlParser parser = new XmlParser().setFeatType(InterproscanOptions.FEAT_SEPARATE);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(executor.submit(() -> {
+                    try (InputStream in = resource("result-small.xml")) {
+                        return parser.parse(in, SEQ_LENGTH).getAnnotationsToAdd().size();
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(6, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<SequenceAnnotation> parse(String name, String featType) throws IOException {
+        try (InputStream in = resource(name)) {
+            return new XmlParser()
+                    .setFeatType(featType)
+                    .setMakeExtraFeats(true)
+                    .parse(in, SEQ_LENGTH)
+                    .getAnnotationsToAdd();
+        }
+    }
+
+    private InputStream resource(String name) {
+        return XmlParserTest.class.getResourceAsStream(name);
+    }
+}